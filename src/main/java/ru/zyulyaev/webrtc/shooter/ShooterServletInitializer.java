@@ -1,12 +1,29 @@
 package ru.zyulyaev.webrtc.shooter;
 
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+import org.springframework.web.servlet.resource.ResourceUrlEncodingFilter;
 import org.springframework.web.servlet.support.AbstractAnnotationConfigDispatcherServletInitializer;
 import ru.zyulyaev.webrtc.shooter.config.RootConfig;
 
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
 /**
  * Created by nikita on 02.01.15.
  */
 public class ShooterServletInitializer extends AbstractAnnotationConfigDispatcherServletInitializer {
+    @Override
+    public void onStartup(ServletContext servletContext) throws ServletException {
+        super.onStartup(servletContext);
+        servletContext.addFilter("staticResourceFilter", new StaticResourceFilter())
+                .addMappingForUrlPatterns(null, false, "/js/*", "/css/*");
+    }
+
     @Override
     protected Class<?>[] getRootConfigClasses() {
         return new Class<?>[]{RootConfig.class};
@@ -21,4 +38,23 @@ public class ShooterServletInitializer extends AbstractAnnotationConfigDispatche
     protected String[] getServletMappings() {
         return new String[]{"/"};
     }
+
+    /**
+     * Rewrites resource URLs encoded by views into their fingerprinted form
+     */
+    @Override
+    protected Filter[] getServletFilters() {
+        return new Filter[]{new ResourceUrlEncodingFilter()};
+    }
+
+    /**
+     * ETags for static resources, whose content may be gzipped depending on the request
+     */
+    private static class StaticResourceFilter extends ShallowEtagHeaderFilter {
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+            response.setHeader("Vary", "Accept-Encoding");
+            super.doFilterInternal(request, response, filterChain);
+        }
+    }
 }
@@ -0,0 +1,32 @@
+package ru.zyulyaev.webrtc.shooter.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import ru.zyulyaev.webrtc.shooter.websocket.cluster.ClusterBus;
+import ru.zyulyaev.webrtc.shooter.websocket.cluster.TcpClusterBus;
+
+import java.util.Arrays;
+
+/**
+ * Joins this node to a cluster of signaling servers, e.g.
+ * {@code -Dspring.profiles.active=cluster -Dshooter.cluster.self=127.0.0.1:7001
+ * -Dshooter.cluster.nodes=127.0.0.1:7001,127.0.0.1:7002 -Dshooter.cluster.secret=...}.
+ * Nodes listen on their cluster address, which should be on a private interface.
+ */
+@Configuration
+@Profile("cluster")
+public class ClusterConfig {
+    @Value("${shooter.cluster.self}")
+    private String self;
+    @Value("${shooter.cluster.nodes}")
+    private String[] nodes;
+    @Value("${shooter.cluster.secret}")
+    private String secret;
+
+    @Bean
+    public ClusterBus clusterBus() {
+        return new TcpClusterBus(self, Arrays.asList(nodes), secret);
+    }
+}
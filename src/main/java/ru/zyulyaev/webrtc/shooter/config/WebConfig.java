@@ -1,9 +1,25 @@
 package ru.zyulyaev.webrtc.shooter.config;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.env.Environment;
 import org.springframework.web.servlet.config.annotation.*;
+import org.springframework.web.servlet.handler.SimpleUrlHandlerMapping;
+import org.springframework.web.servlet.resource.CachingResourceResolver;
+import org.springframework.web.servlet.resource.GzipResourceResolver;
+import org.springframework.web.servlet.resource.ResourceHttpRequestHandler;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by nikita on 03.01.15.
@@ -11,8 +27,13 @@ import org.springframework.web.servlet.config.annotation.*;
 @Configuration
 @EnableWebMvc
 @Import(WebSocketConfig.class)
-@ComponentScan("ru.zyulyaev.webrtc.shooter.js")
+@ComponentScan({"ru.zyulyaev.webrtc.shooter.js", "ru.zyulyaev.webrtc.shooter.metrics"})
 public class WebConfig extends WebMvcConfigurerAdapter {
+    private static final int ONE_YEAR = (int) TimeUnit.DAYS.toSeconds(365);
+
+    @Autowired
+    private Environment environment;
+
     @Override
     public void addViewControllers(ViewControllerRegistry registry) {
         registry.addViewController("/").setViewName("index");
@@ -20,12 +41,54 @@ public class WebConfig extends WebMvcConfigurerAdapter {
 
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        registry.addResourceHandler("/js/**").addResourceLocations("/js/");
-        registry.addResourceHandler("/css/**").addResourceLocations("/css/");
+        addStaticResources(registry, "/js/**", "/js/");
+        addStaticResources(registry, "/css/**", "/css/");
+    }
+
+    /**
+     * Resources are linked by content-fingerprinted URLs, so they are cached for good, and served from
+     * precompressed gzip variants when there are some. Resolution is cached after the gzip lookup, the cache
+     * doesn't tell apart clients accepting gzip. In dev resources change under the server, so neither is cached.
+     */
+    private void addStaticResources(ResourceHandlerRegistry registry, String pathPattern, String location) {
+        boolean dev = environment.acceptsProfiles("dev");
+        ResourceChainRegistration chain = registry.addResourceHandler(pathPattern)
+                .addResourceLocations(location)
+                .setCachePeriod(dev ? null : ONE_YEAR)
+                .resourceChain(false)
+                .addResolver(new GzipResourceResolver());
+        if (!dev)
+            chain.addResolver(new CachingResourceResolver(new ConcurrentMapCache(location)));
+        chain.addResolver(new VersionResourceResolver().addContentVersionStrategy("/**"));
     }
 
     @Override
     public void configureViewResolvers(ViewResolverRegistry registry) {
         registry.jsp("/WEB-INF/view/", ".jsp");
     }
+
+    @Bean
+    public static ResourceHandlersListener resourceHandlersListener() {
+        return new ResourceHandlersListener();
+    }
+
+    /**
+     * ResourceUrlProvider looks for resource handlers on every context refresh and forgets them when
+     * the (empty) dispatcher servlet context is refreshed after this one, so they are handed to it once, here
+     */
+    private static class ResourceHandlersListener implements ApplicationListener<ContextRefreshedEvent> {
+        @Override
+        public void onApplicationEvent(ContextRefreshedEvent event) {
+            if (event.getApplicationContext().getParent() != null)
+                return;
+            Map<String, ResourceHttpRequestHandler> handlers = new HashMap<>();
+            for (SimpleUrlHandlerMapping mapping : event.getApplicationContext().getBeansOfType(SimpleUrlHandlerMapping.class).values()) {
+                mapping.getUrlMap().forEach((pattern, handler) -> {
+                    if (handler instanceof ResourceHttpRequestHandler)
+                        handlers.put(pattern, (ResourceHttpRequestHandler) handler);
+                });
+            }
+            event.getApplicationContext().getBean(ResourceUrlProvider.class).setHandlerMap(handlers);
+        }
+    }
 }
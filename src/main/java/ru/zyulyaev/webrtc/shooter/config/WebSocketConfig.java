@@ -3,45 +3,134 @@ package ru.zyulyaev.webrtc.shooter.config;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurationSupport;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.server.HandshakeInterceptor;
+import ru.zyulyaev.webrtc.shooter.websocket.AdmissionControl;
+import ru.zyulyaev.webrtc.shooter.websocket.ObservingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.relay.RelayHandler;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import java.util.stream.Stream;
 
 /**
  * Created by nikita on 03.01.15.
  */
 @Configuration
 @ComponentScan("ru.zyulyaev.webrtc.shooter.websocket")
+@Import(ClusterConfig.class)
 public class WebSocketConfig extends WebSocketConfigurationSupport {
     @Autowired
-    private WebSocketHandler webSocketHandler;
+    private ObservingHandler observingHandler;
+    @Autowired
+    private RelayHandler relayHandler;
+    @Autowired
+    private AdmissionControl admissionControl;
 
     @Override
     protected void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-        registry.addHandler(webSocketHandler, "/observer")
-                .addInterceptors(new RequestParametersInterceptor());
+        registry.addHandler(observingHandler, "/observer")
+                // malformed handshakes are turned down before they cost any admission tokens
+                .addInterceptors(new RequestParametersInterceptor("nickname"), admissionControl);
+        // relay connections count against the same limits, or they would be a way around them
+        registry.addHandler(relayHandler, "/relay")
+                .addInterceptors(new RequestParametersInterceptor(RelayHandler.TOKEN_ATTRIBUTE), admissionControl);
     }
 
+    /**
+     * Copies query parameters to the session attributes, parsing the query in one pass and decoding
+     * percent-encoded values. Handshakes missing a required parameter are answered with 400.
+     */
     private static class RequestParametersInterceptor implements HandshakeInterceptor {
+        private static final int MAX_PARAMETERS = 16;
+
+        private final String required;
+
+        RequestParametersInterceptor(String required) {
+            this.required = required;
+        }
+
         @Override
         public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Map<String, Object> attributes) throws Exception {
-            Stream.of(request.getURI().getQuery().split("&"))
-                    .forEach(eq -> {
-                        String[] parts = eq.split("=");
-                        if (parts.length == 2)
-                            attributes.put(parts[0], parts[1]);
-                    });
+            // the request URI is built from the query string quoting its percent signs again
+            String query = request instanceof ServletServerHttpRequest
+                    ? ((ServletServerHttpRequest) request).getServletRequest().getQueryString()
+                    : request.getURI().getRawQuery();
+            parseQuery(query, attributes);
+            if (!attributes.containsKey(required)) {
+                response.setStatusCode(HttpStatus.BAD_REQUEST);
+                return false;
+            }
+            attributes.putIfAbsent(SessionManagerHandler.ROOM_ATTRIBUTE, SessionManagerHandler.DEFAULT_ROOM);
             return true;
         }
 
         @Override
         public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Exception exception) {
         }
+
+        /**
+         * Parameters without a value or with malformed encoding are skipped
+         */
+        private static void parseQuery(String query, Map<String, Object> parameters) {
+            if (query == null)
+                return;
+            int start = 0;
+            for (int count = 0; start <= query.length() && count < MAX_PARAMETERS; ++count) {
+                int end = query.indexOf('&', start);
+                if (end < 0)
+                    end = query.length();
+                int eq = query.indexOf('=', start);
+                if (eq > start && eq + 1 < end) {
+                    String name = decode(query, start, eq);
+                    String value = decode(query, eq + 1, end);
+                    if (name != null && value != null)
+                        parameters.put(name, value);
+                }
+                start = end + 1;
+            }
+        }
+
+        /**
+         * Percent-decodes UTF-8, leaving {@code +} as is, as clients encode spaces with {@code %20}
+         *
+         * @return decoded string, or {@code null} if malformed
+         */
+        private static String decode(String encoded, int from, int to) {
+            int percent = encoded.indexOf('%', from);
+            if (percent < 0 || percent >= to)
+                return encoded.substring(from, to);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(to - from);
+            for (int i = from; i < to; ++i) {
+                char c = encoded.charAt(i);
+                if (c != '%') {
+                    if (c >= 0x80)
+                        return null;
+                    bytes.write(c);
+                    continue;
+                }
+                int high = i + 2 < to ? Character.digit(encoded.charAt(i + 1), 16) : -1;
+                int low = high < 0 ? -1 : Character.digit(encoded.charAt(i + 2), 16);
+                if (low < 0)
+                    return null;
+                bytes.write(high << 4 | low);
+                i += 2;
+            }
+            try {
+                return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes.toByteArray())).toString();
+            } catch (CharacterCodingException e) {
+                return null;
+            }
+        }
     }
 }
@@ -0,0 +1,255 @@
+package ru.zyulyaev.webrtc.shooter.game;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * The map and teams of {@code game.server.GameServer}, built as serialized game objects
+ */
+final class Arena {
+    static final JsonObject RED = Rtt.color(0.5, 0, 0, 1);
+    static final JsonObject GREEN = Rtt.color(0, 0.5, 0, 1);
+    static final JsonObject BLUE = Rtt.color(0, 0, 0.5, 1);
+    static final JsonObject BLACK = Rtt.color(0, 0, 0, 1);
+    static final JsonObject YELLOW = Rtt.color(0.5, 0.5, 0, 1);
+    static final JsonObject LIGHT_BROWN = Rtt.color(0.5, 0.28, 0.1, 1);
+    static final JsonObject GLASS = Rtt.color(0.2, 0.2, 1.0, 0.5);
+
+    private static final double A = 100;
+    private static final int COLUMNS = 6;
+    private static final double TOP_LEFT_X = -(COLUMNS - 0.5) * A - A * 0.5 - A * 3;
+    private static final double TOP_Y = -3.5 * A - 0.5 * A - 5 * A;
+    private static final double TOP_RIGHT_X = -TOP_LEFT_X;
+    private static final double DOWN_Y = 12 * A;
+
+    private final List<JsonObject> objects = new ArrayList<>();
+    private final Random random;
+
+    private Arena(Random random) {
+        this.random = random;
+    }
+
+    static JsonArray teams() {
+        JsonArray teams = new JsonArray();
+        teams.add(team("GreenTeam", -1200, -300, -1000, -100, GREEN));
+        teams.add(team("BlueTeam", 1000, -300, 1200, -100, BLUE));
+        return teams;
+    }
+
+    private static JsonObject team(String name, double x0, double y0, double x1, double y1, JsonObject color) {
+        JsonObject zone = new JsonObject();
+        zone.add("a", Rtt.vector(x0, y0));
+        zone.add("b", Rtt.vector(x1, y1));
+        zone.addProperty(Rtt.TYPE, Rtt.RECTANGLE);
+        JsonObject team = new JsonObject();
+        team.addProperty("name", name);
+        team.addProperty("initialCourse", 90);
+        team.add("respawnZone", zone);
+        team.add("teamColor", color);
+        team.addProperty(Rtt.TYPE, Rtt.TEAM);
+        return team;
+    }
+
+    /**
+     * Objects of {@code constructMap}, in the same order
+     */
+    static List<JsonObject> objects(Random random) {
+        Arena arena = new Arena(random);
+        arena.mainWalls();
+        arena.columns();
+        arena.balls();
+        arena.woodenWalls();
+        return arena.objects;
+    }
+
+    static JsonObject object(String type, JsonObject body, JsonObject mesh, double hitPoints) {
+        JsonObject object = new JsonObject();
+        object.addProperty("id", UUID.randomUUID().toString());
+        object.add("body", body);
+        object.add("mesh", mesh);
+        object.addProperty("course", 0);
+        object.addProperty("isTransparent", false);
+        object.addProperty("isAlwaysVisible", false);
+        object.add("hitPoints", Rtt.number(hitPoints));
+        object.addProperty(Rtt.TYPE, type);
+        return object;
+    }
+
+    static JsonObject body(String type, double x, double y, JsonObject shape, double weight) {
+        JsonObject body = new JsonObject();
+        body.add("position", Rtt.vector(x, y));
+        body.add("speed", Rtt.vector(0, 0));
+        body.add("shape", shape);
+        body.add("weight", Rtt.number(weight));
+        body.addProperty(Rtt.TYPE, type);
+        return body;
+    }
+
+    static JsonObject circleShape(double radius) {
+        JsonObject shape = new JsonObject();
+        shape.addProperty("radius", radius);
+        shape.addProperty(Rtt.TYPE, Rtt.CIRCLE_SHAPE);
+        return shape;
+    }
+
+    private static JsonObject rectangleShape(double width, double height) {
+        JsonObject shape = new JsonObject();
+        shape.addProperty("width", width);
+        shape.addProperty("height", height);
+        shape.addProperty(Rtt.TYPE, Rtt.RECTANGLE_SHAPE);
+        return shape;
+    }
+
+    private JsonObject block(double x0, double y0, double x1, double y1, JsonObject color, double hitPoints) {
+        double width = Math.abs(x1 - x0);
+        double height = Math.abs(y1 - y0);
+        JsonObject block = object(Rtt.GAME_OBJECT,
+                body(Rtt.BODY, (x0 + x1) / 2, (y0 + y1) / 2, rectangleShape(width, height), Double.POSITIVE_INFINITY),
+                Meshes.rectangle(width, height, color), hitPoints);
+        objects.add(block);
+        return block;
+    }
+
+    private void rectangle(double x0, double y0, double x1, double y1) {
+        block(x0, y0, x1, y1, YELLOW, Double.POSITIVE_INFINITY).addProperty("isAlwaysVisible", true);
+    }
+
+    private void glass(double x0, double y0, double x1, double y1) {
+        JsonObject glass = block(x0, y0, x1, y1, GLASS, Double.POSITIVE_INFINITY);
+        glass.addProperty("isTransparent", true);
+        glass.addProperty("isAlwaysVisible", true);
+    }
+
+    private void wall(double x0, double y0, double x1, double y1, double hitPoints) {
+        block(x0, y0, x1, y1, LIGHT_BROWN, hitPoints);
+    }
+
+    private void ball(double x, double y, double radius, double weight) {
+        objects.add(object(Rtt.GAME_OBJECT, body(Rtt.BODY, x, y, circleShape(radius), weight),
+                Meshes.circle(radius, BLACK), Double.POSITIVE_INFINITY));
+    }
+
+    private void mainWalls() {
+        // Two top walls
+        rectangle(TOP_LEFT_X, TOP_Y, -0.5 * A, TOP_Y - A);
+        rectangle(0.5 * A, TOP_Y - A, TOP_RIGHT_X, TOP_Y);
+        // Left and right upper walls
+        rectangle(TOP_LEFT_X - A, TOP_Y - A, TOP_LEFT_X, -0.5 * A);
+        rectangle(TOP_RIGHT_X + A, TOP_Y - A, TOP_RIGHT_X, -0.5 * A);
+        // Left and right lower walls
+        rectangle(TOP_LEFT_X, 0.5 * A, TOP_LEFT_X - 4 * A, DOWN_Y + A);
+        rectangle(TOP_RIGHT_X, 0.5 * A, TOP_RIGHT_X + 4 * A, DOWN_Y + A);
+        // Down wall
+        rectangle(TOP_LEFT_X, DOWN_Y, TOP_RIGHT_X, DOWN_Y + A);
+        // Green base left and upper walls
+        rectangle(TOP_LEFT_X - 3 * A, 0.5 * A, TOP_LEFT_X - 4 * A, 0.5 * A - 5 * A);
+        rectangle(TOP_LEFT_X - A, 0.5 * A - 4 * A, TOP_LEFT_X - 4 * A, 0.5 * A - 5 * A);
+        // Blue base right and upper walls
+        rectangle(TOP_RIGHT_X + 3 * A, 0.5 * A, TOP_RIGHT_X + 4 * A, 0.5 * A - 5 * A);
+        rectangle(TOP_RIGHT_X + A, 0.5 * A - 4 * A, TOP_RIGHT_X + 4 * A, 0.5 * A - 5 * A);
+        // Left, right, up wall of upper hide-out
+        rectangle(-2 * A, TOP_Y - A, -3 * A, TOP_Y - 3 * A);
+        rectangle(2 * A, TOP_Y - A, 3 * A, TOP_Y - 3 * A);
+        rectangle(-2 * A, TOP_Y - 2 * A, 2 * A, TOP_Y - 3 * A);
+
+        // Intrinsic walls
+        // Down wall
+        rectangle(TOP_LEFT_X + A, DOWN_Y - A, TOP_RIGHT_X - A, DOWN_Y - 1.5 * A);
+        // Four down vertical mini-walls-corners
+        double downY = DOWN_Y - 1.5 * A;
+        double upY = downY - 2 * A;
+        double leftX = TOP_LEFT_X + 2.5 * A;
+        rectangle(leftX, downY, leftX + 0.5 * A, upY);
+        rectangle(-leftX, downY, -leftX - 0.5 * A, upY);
+        rectangle(leftX + 2.5 * A, downY, leftX + 3.0 * A, upY);
+        rectangle(-leftX - 2.5 * A, downY, -leftX - 3.0 * A, upY);
+        // Next four down vertical mini-walls-corners
+        downY = upY - A;
+        upY = downY - 2 * A;
+        rectangle(leftX, downY, leftX + 0.5 * A, upY);
+        rectangle(-leftX, downY, -leftX - 0.5 * A, upY);
+        rectangle(leftX + 2.5 * A, downY, leftX + 3.0 * A, upY);
+        rectangle(-leftX - 2.5 * A, downY, -leftX - 3.0 * A, upY);
+        // Two down horizontal walls separators
+        rectangle(TOP_LEFT_X + 1.5 * A, upY, -A, upY - 0.5 * A);
+        rectangle(TOP_RIGHT_X - 1.5 * A, upY, A, upY - 0.5 * A);
+        // Left and right vertical big walls (up part)
+        leftX = TOP_LEFT_X + 2.0 * A;
+        double rightX = TOP_RIGHT_X - 2.5 * A;
+        rectangle(leftX, TOP_Y + 4 * A, leftX + 0.5 * A, -1.5 * A);
+        rectangle(rightX, TOP_Y + 4 * A, rightX + 0.5 * A, -1.5 * A);
+        // Left and right vertical walls (middle part)
+        rectangle(leftX, -0.5 * A, leftX + 0.5 * A, 0.5 * A);
+        rectangle(rightX, -0.5 * A, rightX + 0.5 * A, 0.5 * A);
+        // Left and right vertical walls of glass
+        glass(leftX, 0.5 * A, leftX + 0.5 * A, 1.5 * A);
+        glass(rightX, 0.5 * A, rightX + 0.5 * A, 1.5 * A);
+        // Left and right vertical walls (middle part2)
+        rectangle(leftX, 1.5 * A, leftX + 0.5 * A, 2.5 * A);
+        rectangle(rightX, 1.5 * A, rightX + 0.5 * A, 2.5 * A);
+        // Left and right vertical big walls (down part)
+        rectangle(leftX, upY - 0.5 * A, leftX + 0.5 * A, 3.5 * A);
+        rectangle(rightX, upY - 0.5 * A, rightX + 0.5 * A, 3.5 * A);
+        // Upper left and right two walls
+        rectangle(TOP_LEFT_X + 2.0 * A, TOP_Y, TOP_LEFT_X + 2.5 * A, TOP_Y + 3 * A);
+        rectangle(TOP_RIGHT_X - 2.0 * A, TOP_Y, TOP_RIGHT_X - 2.5 * A, TOP_Y + 3 * A);
+        // Two main upper horizontal walls
+        rectangle(TOP_LEFT_X + 1.0 * A, -3.5 * A, -0.5 * A, -4.0 * A);
+        rectangle(TOP_RIGHT_X - 1.0 * A, -3.5 * A, 0.5 * A, -4.0 * A);
+
+        // Main arena
+        // Two vertical walls
+        rectangle(-0.5 * A, 0, -1.0 * A, 4 * A);
+        rectangle(0.5 * A, 0, 1.0 * A, 4 * A);
+        // Four columns
+        rectangle(-1.5 * A, 3.5 * A, -2.5 * A, 4.5 * A);
+        rectangle(1.5 * A, 3.5 * A, 2.5 * A, 4.5 * A);
+        rectangle(-1.5 * A, 0.5 * A, -2.5 * A, -0.5 * A);
+        rectangle(1.5 * A, 0.5 * A, 2.5 * A, -0.5 * A);
+    }
+
+    private void columns() {
+        for (int i = 0; i < COLUMNS; i++) {
+            double x = (-COLUMNS + 0.5) * A + i * 2 * A;
+            rectangle(x, TOP_Y + A, x + A, TOP_Y + 2 * A);
+            rectangle(x, TOP_Y + 3 * A, x + A, TOP_Y + 4 * A);
+        }
+    }
+
+    private void balls() {
+        double r = 80;
+        for (int i = -1; i <= 1; i++) {
+            for (int j = -1; j <= 1; j++)
+                ball(i * r * 2.1, 8.0 * A + j * r * 2.1, r, 5);
+        }
+        // the script reuses the loop variable left at 2 by the loop above
+        int j = 2;
+        r = 30;
+        for (int i = -5; i <= 5; i++)
+            ball(i * r * 4.1, (10 + random.nextDouble()) * A + j * r * 2.1, r, 2);
+    }
+
+    private void woodenWalls() {
+        // Hidden down path
+        wall(TOP_LEFT_X, DOWN_Y - A, TOP_LEFT_X + A, DOWN_Y - 1.5 * A, 10);
+        wall(TOP_RIGHT_X, DOWN_Y - A, TOP_RIGHT_X - A, DOWN_Y - 1.5 * A, 10);
+        // Between columns
+        for (int i = 0; i < COLUMNS; i++) {
+            for (int j = 0; j < 3; j++) {
+                // vertical ones
+                double x = (-COLUMNS + 0.5) * A + i * 2 * A;
+                wall(x + 0.25 * A, TOP_Y + 2 * A * j, x + 0.75 * A, TOP_Y + 2 * A * (j + 0.5), 5);
+            }
+            for (int j = 0; j < 2 && i < COLUMNS - 1; j++) {
+                // horizontal ones
+                double x = (-COLUMNS + 1.5) * A + i * 2 * A;
+                wall(x, TOP_Y + 1.25 * A + 2 * A * j, x + A, TOP_Y + 1.75 * A + 2 * A * j, 5);
+            }
+        }
+    }
+}
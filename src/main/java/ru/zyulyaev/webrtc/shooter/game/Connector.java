@@ -0,0 +1,10 @@
+package ru.zyulyaev.webrtc.shooter.game;
+
+/**
+ * Delivers serialized game messages to clients, as {@code game.net.Connector} does for the scripts
+ */
+public interface Connector {
+    void send(String clientId, String message);
+
+    void sendAll(String message);
+}
@@ -0,0 +1,84 @@
+package ru.zyulyaev.webrtc.shooter.game;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Game object of the world. Physical state lives in the {@link World} slot, the rest of the object,
+ * as clients serialized it, is kept to be sent to joining clients with the current state patched in.
+ */
+class Entity {
+    private static final int MAX_ID_LENGTH = 64;
+
+    enum Kind {
+        OBJECT, BULLET, PLAYER
+    }
+
+    final String id;
+    final Kind kind;
+    final JsonObject json;
+    int slot;
+    double course;
+    double hitPoints;
+    double hitPointsBefore;
+
+    Entity(String id, Kind kind, JsonObject json) {
+        this.id = id;
+        this.kind = kind;
+        this.json = json;
+    }
+
+    static Kind kindOf(String type) {
+        if (Rtt.GAME_OBJECT.equals(type))
+            return Kind.OBJECT;
+        if (Rtt.BULLET.equals(type))
+            return Kind.BULLET;
+        if (Rtt.PLAYER.equals(type))
+            return Kind.PLAYER;
+        return null;
+    }
+
+    /**
+     * Ids get into messages built by hand, so only short printable ASCII ones are accepted
+     */
+    static boolean isValidId(String id) {
+        if (id.isEmpty() || id.length() > MAX_ID_LENGTH)
+            return false;
+        for (int i = 0; i < id.length(); ++i) {
+            char c = id.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == '"' || c == '\\')
+                return false;
+        }
+        return true;
+    }
+
+    void hit() {
+        hitPoints -= 1;
+    }
+
+    /**
+     * As {@code game.data.GameObject.prototype.collideWith}, called for both bodies of a collision
+     */
+    void collideWith(Entity target) {
+        if (kind == Kind.BULLET) {
+            target.hit();
+            hit();
+        }
+    }
+
+    boolean isDestroyed() {
+        return hitPoints <= 0;
+    }
+
+    JsonObject snapshot(World<Entity> world) {
+        JsonObject body = json.getAsJsonObject("body");
+        body.add("position", Rtt.vector(world.getX(slot), world.getY(slot)));
+        body.add("speed", Rtt.vector(world.getSpeedX(slot), world.getSpeedY(slot)));
+        if (world.isMotion(slot)) {
+            body.add("internalForce", Rtt.vector(world.getForceX(slot), world.getForceY(slot)));
+            body.add("maxSpeed", Rtt.number(world.getMaxSpeed(slot)));
+        }
+        json.addProperty("course", course);
+        json.add("hitPoints", Rtt.number(hitPoints));
+        return json;
+    }
+}
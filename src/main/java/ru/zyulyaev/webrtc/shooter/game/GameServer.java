@@ -0,0 +1,449 @@
+package ru.zyulyaev.webrtc.shooter.game;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Port of {@code game.server.GameServer}: the authoritative copy of the map, simulated a fixed step at a time.
+ * <p>
+ * Unlike the script, which shares objects with the local client of the hosting player, changes requested by
+ * clients are applied to the server's objects before being passed on. Messages are split so that each one
+ * fits into {@code maxMessageBytes}. Not thread safe, everything is expected to be called by the same thread.
+ */
+public class GameServer {
+    private static final Log logger = LogFactory.getLog(GameServer.class);
+
+    private static final double GRAVITY = 20 * 9.807;
+    private static final double COF = 0.5;
+    private static final double PLAYER_RADIUS = 20;
+    private static final double PLAYER_MAX_SPEED = 300;
+    private static final double BULLET_RADIUS = 5;
+    private static final double BULLET_WEIGHT = 0.06;
+    private static final double BULLET_SPEED = PLAYER_MAX_SPEED * 2;
+    private static final double BULLET_MIN_SPREAD = 0.5;
+    private static final double BULLET_MAX_SPREAD = 10;
+    /**
+     * Limits objects created by clients, big bodies take many cells of the grid
+     */
+    private static final double MAX_CLIENT_SIZE = 200;
+    private static final int MAX_OBJECTS = 16384;
+
+    private static final String CONNECT = "game.message.ConnectMessage";
+    private static final String DISCONNECT = "game.message.DisconnectMessage";
+    private static final String CLIENT_LIST = "game.message.ClientListMessage";
+    private static final String MODIFICATIONS = "game.message.ObjectsModificationsMessage";
+    private static final String CREATION = "game.message.ObjectsCreationMessage";
+    private static final String DELETIONS = "game.message.ObjectsDeletionsMessage";
+    private static final String FIRE_BULLET = "game.message.FireBulletMessage";
+    private static final String TEAMS = "game.message.TeamsMessage";
+    private static final String CHAT = "game.message.ChatMessage";
+
+    private final Connector connector;
+    private final int maxMessageBytes;
+    private final Random random;
+    private final Gson gson = new Gson();
+    private final JsonParser parser = new JsonParser();
+    private final World<Entity> world;
+    private final Map<String, Entity> entities = new LinkedHashMap<>();
+    private final List<String> clients = new ArrayList<>();
+    private final JsonArray teams = Arena.teams();
+    private final JsonObject bulletMesh = Meshes.circle(BULLET_RADIUS, Arena.RED);
+    private final List<Entity> destroyed = new ArrayList<>();
+    private final StringBuilder entry = new StringBuilder();
+    private final Chunks modifications = new Chunks("{\"batch\":{", "},\"type\":\"" + MODIFICATIONS + "\"}");
+    private final Chunks deletions = new Chunks("{\"ids\":[", "],\"type\":\"" + DELETIONS + "\"}");
+    private final Chunks creations = new Chunks("{\"objects\":[", "],\"type\":\"" + CREATION + "\"}");
+
+    public GameServer(Connector connector, int maxMessageBytes, double cellSize, Random random) {
+        this.connector = connector;
+        this.maxMessageBytes = maxMessageBytes;
+        this.random = random;
+        this.world = new World<>(GRAVITY, COF, cellSize);
+        world.setCollisionListener((a, b) -> {
+            a.collideWith(b);
+            b.collideWith(a);
+        });
+        for (JsonObject object : Arena.objects(random))
+            add(object, Double.MAX_VALUE);
+    }
+
+    public int getObjectCount() {
+        return entities.size();
+    }
+
+    public void onOpen(String id) {
+        if (clients.contains(id))
+            return;
+        JsonArray others = new JsonArray();
+        for (String client : clients)
+            others.add(new JsonPrimitive(client));
+        clients.add(id);
+        connector.send(id, message(CLIENT_LIST, "clients", others));
+        connector.send(id, message(TEAMS, "teams", teams));
+        creations.begin(id);
+        for (Entity entity : entities.values()) {
+            String object = gson.toJson(entity.snapshot(world));
+            creations.add(object, object.getBytes(StandardCharsets.UTF_8).length);
+        }
+        creations.finish();
+        String connect = message(CONNECT, "id", new JsonPrimitive(id));
+        for (String client : clients) {
+            if (!client.equals(id))
+                connector.send(client, connect);
+        }
+    }
+
+    public void onClose(String id) {
+        if (clients.remove(id))
+            connector.sendAll(message(DISCONNECT, "id", new JsonPrimitive(id)));
+    }
+
+    /**
+     * Handles a serialized message of the client, malformed ones are ignored
+     */
+    public void onMessage(String id, String message) {
+        try {
+            JsonObject json = parser.parse(message).getAsJsonObject();
+            String type = Rtt.type(json);
+            if (MODIFICATIONS.equals(type)) {
+                modify(json.getAsJsonObject("batch"));
+                connector.sendAll(message);
+            } else if (CREATION.equals(type)) {
+                create(json.getAsJsonArray("objects"));
+            } else if (DELETIONS.equals(type)) {
+                delete(json.getAsJsonArray("ids"));
+            } else if (FIRE_BULLET.equals(type)) {
+                fire(json.get("playerObjectId").getAsString());
+            } else if (CHAT.equals(type)) {
+                JsonObject chat = new JsonObject();
+                chat.addProperty("author", id);
+                chat.addProperty("message", json.get("message").getAsString());
+                chat.addProperty(Rtt.TYPE, CHAT);
+                connector.sendAll(gson.toJson(chat));
+            } else if (logger.isDebugEnabled()) {
+                logger.debug("No handler for game message of " + id + ": " + type);
+            }
+        } catch (RuntimeException e) {
+            if (logger.isDebugEnabled())
+                logger.debug("Malformed game message of " + id + ": " + e.getMessage());
+        }
+    }
+
+    private String message(String type, String field, JsonElement value) {
+        JsonObject message = new JsonObject();
+        message.add(field, value);
+        message.addProperty(Rtt.TYPE, type);
+        return gson.toJson(message);
+    }
+
+    /**
+     * Parses the whole batch before applying anything, so that a malformed one changes nothing
+     */
+    private void modify(JsonObject batch) {
+        List<Modification> parsed = new ArrayList<>();
+        for (Map.Entry<String, JsonElement> entry : batch.entrySet()) {
+            Entity target = entities.get(entry.getKey());
+            if (target != null)
+                parsed.add(new Modification(target, entry.getValue().getAsJsonObject()));
+        }
+        for (Modification modification : parsed)
+            modification.apply(world);
+    }
+
+    private void create(JsonArray objects) {
+        creations.begin(null);
+        for (JsonElement element : objects) {
+            try {
+                Entity entity = add(element.getAsJsonObject(), MAX_CLIENT_SIZE);
+                if (entity != null) {
+                    String object = gson.toJson(entity.json);
+                    creations.add(object, object.getBytes(StandardCharsets.UTF_8).length);
+                }
+            } catch (RuntimeException e) {
+                if (logger.isDebugEnabled())
+                    logger.debug("Malformed game object: " + e.getMessage());
+            }
+        }
+        creations.finish();
+    }
+
+    private void delete(JsonArray ids) {
+        deletions.begin(null);
+        for (JsonElement id : ids) {
+            Entity entity = entities.get(id.getAsString());
+            if (entity != null) {
+                remove(entity);
+                deletions.add(quote(entity.id));
+            }
+        }
+        deletions.finish();
+    }
+
+    /**
+     * As {@code game.data.PlayerObject.prototype.createBullet}
+     */
+    private void fire(String playerObjectId) {
+        Entity player = entities.get(playerObjectId);
+        if (player == null || player.kind != Entity.Kind.PLAYER)
+            return;
+        int slot = player.slot;
+        double courseX = Math.cos(Math.toRadians(player.course));
+        double courseY = Math.sin(Math.toRadians(player.course));
+        double offset = PLAYER_RADIUS + BULLET_RADIUS + World.EPS;
+        double speed = Math.hypot(world.getSpeedX(slot), world.getSpeedY(slot));
+        double spread = BULLET_MIN_SPREAD + speed / PLAYER_MAX_SPEED * (BULLET_MAX_SPREAD - BULLET_MIN_SPREAD);
+        double bulletCourse = Math.toRadians(player.course + randomNormal() * spread / 2);
+        JsonObject body = Arena.body(Rtt.MOTION_BODY, world.getX(slot) + courseX * offset, world.getY(slot) + courseY * offset,
+                Arena.circleShape(BULLET_RADIUS), BULLET_WEIGHT);
+        body.add("speed", Rtt.vector(Math.cos(bulletCourse) * BULLET_SPEED, Math.sin(bulletCourse) * BULLET_SPEED));
+        body.add("internalForce", Rtt.vector(courseX * BULLET_SPEED * BULLET_WEIGHT, courseY * BULLET_SPEED * BULLET_WEIGHT));
+        body.addProperty("maxSpeed", BULLET_SPEED);
+        JsonObject bullet = Arena.object(Rtt.BULLET, body, bulletMesh, 1);
+        bullet.addProperty("isTransparent", true);
+        Entity entity = add(bullet, BULLET_RADIUS);
+        if (entity != null)
+            connector.sendAll("{\"objects\":[" + gson.toJson(bullet) + "],\"type\":\"" + CREATION + "\"}");
+    }
+
+    /**
+     * As {@code util.randomNormalDistribution}
+     */
+    private double randomNormal() {
+        return (random.nextDouble() * 2 - 1) + (random.nextDouble() * 2 - 1) + (random.nextDouble() * 2 - 1);
+    }
+
+    /**
+     * Adds a serialized game object to the world, everything is validated before the world is touched
+     *
+     * @return the added object, or {@code null} if it is already there or there are too many objects
+     */
+    private Entity add(JsonObject object, double maxSize) {
+        String id = object.get("id").getAsString();
+        Entity.Kind kind = Entity.kindOf(Rtt.type(object));
+        if (kind == null || !Entity.isValidId(id))
+            throw new IllegalArgumentException("Not a game object: " + Rtt.type(object) + " " + id);
+        if (entities.containsKey(id) || entities.size() >= MAX_OBJECTS)
+            return null;
+        JsonObject body = object.getAsJsonObject("body");
+        JsonObject position = body.getAsJsonObject("position");
+        double x = Rtt.finite(position.get("x"));
+        double y = Rtt.finite(position.get("y"));
+        double weight = Rtt.number(body.get("weight"));
+        if (!(weight > 0))
+            throw new IllegalArgumentException("Weight should be positive: " + weight);
+        JsonObject shape = body.getAsJsonObject("shape");
+        boolean circle = Rtt.CIRCLE_SHAPE.equals(Rtt.type(shape));
+        if (!circle && !Rtt.RECTANGLE_SHAPE.equals(Rtt.type(shape)))
+            throw new IllegalArgumentException("Unknown shape: " + Rtt.type(shape));
+        double width = size(shape.get(circle ? "radius" : "width"), maxSize);
+        double height = circle ? width : size(shape.get("height"), maxSize);
+        JsonObject speed = body.getAsJsonObject("speed");
+        double speedX = speed == null ? 0 : Rtt.finite(speed.get("x"));
+        double speedY = speed == null ? 0 : Rtt.finite(speed.get("y"));
+        boolean motion = Rtt.MOTION_BODY.equals(Rtt.type(body));
+        double maxSpeed = motion ? Rtt.finite(body.get("maxSpeed")) : 0;
+        JsonObject force = motion ? body.getAsJsonObject("internalForce") : null;
+        double forceX = force == null ? 0 : Rtt.finite(force.get("x"));
+        double forceY = force == null ? 0 : Rtt.finite(force.get("y"));
+        double course = object.has("course") ? Rtt.finite(object.get("course")) : 0;
+        double hitPoints = object.has("hitPoints") ? Rtt.number(object.get("hitPoints")) : Double.POSITIVE_INFINITY;
+        if (Double.isNaN(hitPoints))
+            throw new IllegalArgumentException("Hit points should be a number");
+
+        Entity entity = new Entity(id, kind, object);
+        entity.slot = circle ? world.addCircle(entity, x, y, width, weight) : world.addRectangle(entity, x, y, width, height, weight);
+        world.setSpeed(entity.slot, speedX, speedY);
+        if (motion) {
+            world.setMotion(entity.slot, maxSpeed);
+            world.setForce(entity.slot, forceX, forceY);
+        }
+        entity.course = course;
+        entity.hitPoints = entity.hitPointsBefore = hitPoints;
+        entities.put(id, entity);
+        return entity;
+    }
+
+    private static double size(JsonElement element, double maxSize) {
+        double size = Rtt.finite(element);
+        if (!(size > 0 && size <= maxSize))
+            throw new IllegalArgumentException("Size out of bounds: " + size);
+        return size;
+    }
+
+    private void remove(Entity entity) {
+        entities.remove(entity.id);
+        int moved = world.remove(entity.slot);
+        if (moved != -1)
+            world.tag(entity.slot).slot = entity.slot;
+    }
+
+    private static String quote(String id) {
+        return '"' + id + '"';
+    }
+
+    /**
+     * Simulates a step and tells clients which objects moved, were hit or destroyed
+     */
+    public void tick(double time) {
+        for (int i = 0; i < world.size(); ++i) {
+            Entity entity = world.tag(i);
+            entity.hitPointsBefore = entity.hitPoints;
+        }
+        world.step(time);
+        modifications.begin(null);
+        for (int i = 0; i < world.size(); ++i) {
+            Entity entity = world.tag(i);
+            boolean moved = world.hasMoved(i);
+            boolean hit = entity.hitPoints != entity.hitPointsBefore;
+            if (moved || hit) {
+                entry.setLength(0);
+                entry.append('"').append(entity.id).append("\":{");
+                if (moved) {
+                    entry.append("\"newPosition\":");
+                    Rtt.appendVector(entry, world.getX(i), world.getY(i));
+                }
+                if (hit) {
+                    entry.append(moved ? ",\"newHitPoints\":" : "\"newHitPoints\":");
+                    Rtt.appendNumber(entry, entity.hitPoints);
+                }
+                modifications.add(entry.append('}'));
+            }
+            if (entity.isDestroyed())
+                destroyed.add(entity);
+        }
+        modifications.finish();
+        if (destroyed.isEmpty())
+            return;
+        deletions.begin(null);
+        for (Entity entity : destroyed) {
+            remove(entity);
+            deletions.add(quote(entity.id));
+        }
+        deletions.finish();
+        destroyed.clear();
+    }
+
+    /**
+     * Collects items of a message into as few messages under the size limit as possible
+     */
+    private class Chunks {
+        final String head;
+        final String tail;
+        final StringBuilder message = new StringBuilder();
+        String recipient;
+        int items;
+        int bytes;
+
+        Chunks(String head, String tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+
+        /**
+         * @param recipient id of the client to send the messages to, {@code null} for every client
+         */
+        void begin(String recipient) {
+            this.recipient = recipient;
+            reset();
+        }
+
+        void add(CharSequence item) {
+            add(item, item.length());
+        }
+
+        void add(CharSequence item, int itemBytes) {
+            if (items > 0 && bytes + 1 + itemBytes + tail.length() > maxMessageBytes)
+                finish();
+            if (items > 0) {
+                message.append(',');
+                ++bytes;
+            }
+            message.append(item);
+            bytes += itemBytes;
+            ++items;
+        }
+
+        void finish() {
+            if (items > 0) {
+                String chunk = message.append(tail).toString();
+                if (recipient == null)
+                    connector.sendAll(chunk);
+                else
+                    connector.send(recipient, chunk);
+            }
+            reset();
+        }
+
+        private void reset() {
+            message.setLength(0);
+            message.append(head);
+            bytes = head.length();
+            items = 0;
+        }
+    }
+
+    /**
+     * Changes of {@code game.data.GameObjectModification}, internal force and max speed apply to players only
+     */
+    private static class Modification {
+        final Entity target;
+        final double[] position;
+        final double[] speed;
+        final double[] internalForce;
+        final double maxSpeed;
+        final double course;
+        final double hitPoints;
+
+        Modification(Entity target, JsonObject modification) {
+            this.target = target;
+            boolean player = target.kind == Entity.Kind.PLAYER;
+            position = vector(modification.get("newPosition"));
+            speed = vector(modification.get("newSpeed"));
+            internalForce = player ? vector(modification.get("newInternalForce")) : null;
+            maxSpeed = player ? finite(modification.get("newMaxSpeed")) : Double.NaN;
+            course = finite(modification.get("newCourse"));
+            JsonElement newHitPoints = modification.get("newHitPoints");
+            hitPoints = newHitPoints == null || newHitPoints.isJsonNull() ? Double.NaN : Rtt.number(newHitPoints);
+        }
+
+        private static double[] vector(JsonElement element) {
+            if (element == null || element.isJsonNull())
+                return null;
+            JsonObject vector = element.getAsJsonObject();
+            return new double[]{Rtt.finite(vector.get("x")), Rtt.finite(vector.get("y"))};
+        }
+
+        private static double finite(JsonElement element) {
+            return element == null || element.isJsonNull() ? Double.NaN : Rtt.finite(element);
+        }
+
+        void apply(World<Entity> world) {
+            int slot = target.slot;
+            if (position != null)
+                world.setPosition(slot, position[0], position[1]);
+            if (speed != null)
+                world.setSpeed(slot, speed[0], speed[1]);
+            if (!Double.isNaN(course))
+                target.course = course;
+            if (!Double.isNaN(hitPoints))
+                target.hitPoints = hitPoints;
+            if (!Double.isNaN(maxSpeed) && world.isMotion(slot))
+                world.setMaxSpeed(slot, maxSpeed);
+            if (internalForce != null && world.isMotion(slot))
+                world.setForce(slot, internalForce[0], internalForce[1]);
+        }
+    }
+}
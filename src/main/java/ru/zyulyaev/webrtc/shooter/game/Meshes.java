@@ -0,0 +1,61 @@
+package ru.zyulyaev.webrtc.shooter.game;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Meshes of {@code visual.Circle} and {@code visual.Rectangle}, vertices generated as the scripts do
+ */
+final class Meshes {
+    private static final double CIRCLE_EDGE_PIXEL_LENGTH = 5;
+
+    private Meshes() {
+    }
+
+    static JsonObject circle(double radius, JsonObject color) {
+        int segments = (int) Math.max(5, Math.round(2 * Math.PI * radius / CIRCLE_EDGE_PIXEL_LENGTH));
+        float[] positions = new float[(segments + 1) * 3];
+        int[] indices = new int[segments * 3];
+        for (int i = 0; i < segments; ++i) {
+            positions[(i + 1) * 3] = (float) (radius * Math.cos(2 * Math.PI * i / segments));
+            positions[(i + 1) * 3 + 1] = (float) (radius * Math.sin(2 * Math.PI * i / segments));
+            indices[i * 3 + 1] = i + 1;
+            indices[i * 3 + 2] = 1 + (i + 1) % segments;
+        }
+        JsonObject mesh = new JsonObject();
+        mesh.addProperty("radius", radius);
+        return finish(mesh, Rtt.CIRCLE_MESH, color, positions, indices);
+    }
+
+    static JsonObject rectangle(double width, double height, JsonObject color) {
+        float left = (float) (-width / 2);
+        float right = (float) (width / 2);
+        float top = (float) (-height / 2);
+        float bottom = (float) (height / 2);
+        float[] positions = {left, top, 0, left, bottom, 0, right, bottom, 0, right, top, 0};
+        JsonObject mesh = new JsonObject();
+        mesh.addProperty("width", width);
+        mesh.addProperty("height", height);
+        return finish(mesh, Rtt.RECTANGLE_MESH, color, positions, new int[]{0, 1, 2, 0, 2, 3});
+    }
+
+    private static JsonObject finish(JsonObject mesh, String type, JsonObject color, float[] positions, int[] indices) {
+        int vertices = positions.length / 3;
+        float[] colors = new float[vertices * 4];
+        float r = color.get("r").getAsFloat();
+        float g = color.get("g").getAsFloat();
+        float b = color.get("b").getAsFloat();
+        float a = color.get("a").getAsFloat();
+        for (int i = 0; i < vertices; ++i) {
+            colors[i * 4] = r;
+            colors[i * 4 + 1] = g;
+            colors[i * 4 + 2] = b;
+            colors[i * 4 + 3] = a;
+        }
+        mesh.add("color", color);
+        mesh.add("positions", Rtt.float32Array(positions));
+        mesh.add("indices", Rtt.uint16Array(indices));
+        mesh.add("colors", Rtt.float32Array(colors));
+        mesh.addProperty(Rtt.TYPE, type);
+        return mesh;
+    }
+}
@@ -0,0 +1,119 @@
+package ru.zyulyaev.webrtc.shooter.game;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Reading and writing game objects in the JSON form of {@code rtt.serialize}, as produced by the
+ * development build of the scripts: objects carry their type name in the {@code type} field,
+ * non-finite numbers and typed arrays are wrapped into objects of their own type.
+ */
+final class Rtt {
+    static final String TYPE = "type";
+    static final String VALUE = "value";
+
+    static final String NUMBER = "number";
+    static final String VECTOR = "geom.Vector";
+    static final String RECTANGLE = "geom.Rectangle";
+    static final String BODY = "phys.Body";
+    static final String MOTION_BODY = "phys.MotionBody";
+    static final String CIRCLE_SHAPE = "phys.Circle";
+    static final String RECTANGLE_SHAPE = "phys.Rectangle";
+    static final String CIRCLE_MESH = "visual.Circle";
+    static final String RECTANGLE_MESH = "visual.Rectangle";
+    static final String GAME_OBJECT = "game.data.GameObject";
+    static final String BULLET = "game.data.Bullet";
+    static final String PLAYER = "game.data.PlayerObject";
+    static final String TEAM = "game.logic.Team";
+
+    /**
+     * Types the scripts register without a name get consecutive ids, typed arrays are registered first
+     */
+    private static final String UINT16_ARRAY = "4";
+    private static final String FLOAT32_ARRAY = "6";
+
+    private Rtt() {
+    }
+
+    static String type(JsonObject object) {
+        JsonElement type = object.get(TYPE);
+        return type == null || type.isJsonNull() ? null : type.getAsString();
+    }
+
+    static JsonElement number(double value) {
+        if (Double.isFinite(value))
+            return new JsonPrimitive(value);
+        JsonObject wrapped = new JsonObject();
+        wrapped.addProperty(VALUE, Double.toString(value));
+        wrapped.addProperty(TYPE, NUMBER);
+        return wrapped;
+    }
+
+    static double number(JsonElement element) {
+        if (element.isJsonObject()) {
+            JsonObject wrapped = element.getAsJsonObject();
+            if (!NUMBER.equals(type(wrapped)))
+                throw new IllegalArgumentException("Not a number: " + element);
+            return Double.parseDouble(wrapped.get(VALUE).getAsString());
+        }
+        return element.getAsDouble();
+    }
+
+    static double finite(JsonElement element) {
+        double value = number(element);
+        if (!Double.isFinite(value))
+            throw new IllegalArgumentException("Not a finite number: " + element);
+        return value;
+    }
+
+    static JsonObject vector(double x, double y) {
+        JsonObject vector = new JsonObject();
+        vector.addProperty("x", x);
+        vector.addProperty("y", y);
+        vector.addProperty(TYPE, VECTOR);
+        return vector;
+    }
+
+    static void appendVector(StringBuilder out, double x, double y) {
+        out.append("{\"x\":").append(x).append(",\"y\":").append(y).append(",\"type\":\"" + VECTOR + "\"}");
+    }
+
+    static void appendNumber(StringBuilder out, double value) {
+        if (Double.isFinite(value))
+            out.append(value);
+        else
+            out.append("{\"value\":\"").append(value).append("\",\"type\":\"" + NUMBER + "\"}");
+    }
+
+    static JsonObject color(double r, double g, double b, double a) {
+        JsonObject color = new JsonObject();
+        color.addProperty("r", r);
+        color.addProperty("g", g);
+        color.addProperty("b", b);
+        color.addProperty("a", a);
+        return color;
+    }
+
+    static JsonObject float32Array(float[] values) {
+        JsonArray array = new JsonArray();
+        for (float value : values)
+            array.add(new JsonPrimitive(value));
+        return typedArray(FLOAT32_ARRAY, array);
+    }
+
+    static JsonObject uint16Array(int[] values) {
+        JsonArray array = new JsonArray();
+        for (int value : values)
+            array.add(new JsonPrimitive(value));
+        return typedArray(UINT16_ARRAY, array);
+    }
+
+    private static JsonObject typedArray(String type, JsonArray values) {
+        JsonObject array = new JsonObject();
+        array.addProperty(TYPE, type);
+        array.add(VALUE, values);
+        return array;
+    }
+}
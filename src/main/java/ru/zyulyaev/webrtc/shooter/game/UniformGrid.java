@@ -0,0 +1,137 @@
+package ru.zyulyaev.webrtc.shooter.game;
+
+import java.util.Arrays;
+
+/**
+ * Broadphase over square cells of a fixed size. Each body is put into every cell its bounding box covers,
+ * cells are hashed into buckets, so the grid is unbounded and only occupied cells cost anything.
+ * Entries are sorted into buckets with a counting sort every step, which keeps everything in flat int arrays.
+ * <p>
+ * Bodies sharing several cells are reported once, by the cell holding the top left corner of
+ * their boxes' intersection. An infinite cell size puts everything into one cell, i.e. tests every pair.
+ */
+class UniformGrid {
+    private static final int INITIAL_CAPACITY = 256;
+    /**
+     * Cells are clamped to this range, so that far away bodies can't make cell ranges overflow
+     */
+    private static final int MAX_CELL = 1 << 20;
+
+    private final double cellSize;
+
+    private int[] minCellX = new int[INITIAL_CAPACITY];
+    private int[] minCellY = new int[INITIAL_CAPACITY];
+    private int[] maxCellX = new int[INITIAL_CAPACITY];
+    private int[] maxCellY = new int[INITIAL_CAPACITY];
+
+    private int[] bucketStart = new int[INITIAL_CAPACITY + 1];
+    private int[] entryBody = new int[INITIAL_CAPACITY];
+    private int[] entryCellX = new int[INITIAL_CAPACITY];
+    private int[] entryCellY = new int[INITIAL_CAPACITY];
+
+    private int[] first = new int[INITIAL_CAPACITY];
+    private int[] second = new int[INITIAL_CAPACITY];
+
+    UniformGrid(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    int[] getFirst() {
+        return first;
+    }
+
+    int[] getSecond() {
+        return second;
+    }
+
+    /**
+     * Finds pairs of bodies with their boxes in a common cell, lower index first in each
+     *
+     * @return number of pairs, stored in {@link #getFirst()} and {@link #getSecond()}
+     */
+    int collectPairs(int bodies, double[] x, double[] y, double[] extentX, double[] extentY) {
+        if (minCellX.length < bodies) {
+            int capacity = Math.max(bodies, minCellX.length * 2);
+            minCellX = Arrays.copyOf(minCellX, capacity);
+            minCellY = Arrays.copyOf(minCellY, capacity);
+            maxCellX = Arrays.copyOf(maxCellX, capacity);
+            maxCellY = Arrays.copyOf(maxCellY, capacity);
+        }
+        int entries = 0;
+        for (int i = 0; i < bodies; ++i) {
+            minCellX[i] = cell(x[i] - extentX[i]);
+            minCellY[i] = cell(y[i] - extentY[i]);
+            maxCellX[i] = cell(x[i] + extentX[i]);
+            maxCellY[i] = cell(y[i] + extentY[i]);
+            entries += (maxCellX[i] - minCellX[i] + 1) * (maxCellY[i] - minCellY[i] + 1);
+        }
+        int mask = bucketsFor(entries) - 1;
+        if (entryBody.length < entries) {
+            int capacity = Math.max(entries, entryBody.length * 2);
+            entryBody = new int[capacity];
+            entryCellX = new int[capacity];
+            entryCellY = new int[capacity];
+        }
+        int[] start = bucketStart;
+        Arrays.fill(start, 0, mask + 2, 0);
+        for (int i = 0; i < bodies; ++i)
+            for (int cx = minCellX[i]; cx <= maxCellX[i]; ++cx)
+                for (int cy = minCellY[i]; cy <= maxCellY[i]; ++cy)
+                    ++start[bucket(cx, cy, mask) + 1];
+        for (int b = 0; b <= mask; ++b)
+            start[b + 1] += start[b];
+        // fill moving bucket starts forward, shifted back below
+        for (int i = 0; i < bodies; ++i) {
+            for (int cx = minCellX[i]; cx <= maxCellX[i]; ++cx) {
+                for (int cy = minCellY[i]; cy <= maxCellY[i]; ++cy) {
+                    int e = start[bucket(cx, cy, mask)]++;
+                    entryBody[e] = i;
+                    entryCellX[e] = cx;
+                    entryCellY[e] = cy;
+                }
+            }
+        }
+        System.arraycopy(start, 0, start, 1, mask + 1);
+        start[0] = 0;
+
+        int pairs = 0;
+        for (int b = 0; b <= mask; ++b) {
+            int end = start[b + 1];
+            for (int p = start[b]; p < end; ++p) {
+                int i = entryBody[p];
+                int cx = entryCellX[p];
+                int cy = entryCellY[p];
+                for (int q = p + 1; q < end; ++q) {
+                    if (entryCellX[q] != cx || entryCellY[q] != cy)
+                        continue;
+                    int j = entryBody[q];
+                    if (cx != Math.max(minCellX[i], minCellX[j]) || cy != Math.max(minCellY[i], minCellY[j]))
+                        continue;
+                    if (pairs == first.length) {
+                        first = Arrays.copyOf(first, pairs * 2);
+                        second = Arrays.copyOf(second, pairs * 2);
+                    }
+                    first[pairs] = Math.min(i, j);
+                    second[pairs] = Math.max(i, j);
+                    ++pairs;
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.max(-MAX_CELL, Math.min(MAX_CELL, Math.floor(coordinate / cellSize)));
+    }
+
+    private int bucketsFor(int entries) {
+        int buckets = Integer.highestOneBit(Math.max(entries, 1) * 2 - 1) << 1;
+        if (bucketStart.length < buckets + 1)
+            bucketStart = new int[buckets + 1];
+        return buckets;
+    }
+
+    private static int bucket(int cx, int cy, int mask) {
+        return (cx * 0x9E3779B1 ^ cy * 0x85EBCA77) >>> 7 & mask;
+    }
+}
@@ -0,0 +1,392 @@
+package ru.zyulyaev.webrtc.shooter.game;
+
+import java.util.Arrays;
+
+/**
+ * Port of {@code phys.World} keeping bodies in parallel primitive arrays, indexed by slot.
+ * Slots are dense: removing a body moves the last one into its slot.
+ * <p>
+ * Candidate pairs come from a {@link UniformGrid} instead of testing every pair of bodies, otherwise
+ * the step is the one of {@code phys.World.simulate}: friction, collision forces and impulses,
+ * internal forces of motion bodies, then positions.
+ *
+ * @param <T> object a body belongs to
+ */
+public class World<T> {
+    static final double EPS = 1e-4;
+    private static final double RIGIDNESS = 100;
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Called for each pair of colliding bodies, lower slot first
+     */
+    public interface CollisionListener<T> {
+        void onCollision(T a, T b);
+    }
+
+    private final double gravity;
+    private final double cof;
+    private final UniformGrid grid;
+    private CollisionListener<T> listener = (a, b) -> {
+    };
+
+    private int size;
+    private Object[] tags = new Object[INITIAL_CAPACITY];
+    private boolean[] circle = new boolean[INITIAL_CAPACITY];
+    private boolean[] motion = new boolean[INITIAL_CAPACITY];
+    /**
+     * Radius of circles, half width of rectangles
+     */
+    private double[] extentX = new double[INITIAL_CAPACITY];
+    /**
+     * Radius of circles, half height of rectangles
+     */
+    private double[] extentY = new double[INITIAL_CAPACITY];
+    private double[] weight = new double[INITIAL_CAPACITY];
+    private double[] maxSpeed = new double[INITIAL_CAPACITY];
+    private double[] x = new double[INITIAL_CAPACITY];
+    private double[] y = new double[INITIAL_CAPACITY];
+    private double[] speedX = new double[INITIAL_CAPACITY];
+    private double[] speedY = new double[INITIAL_CAPACITY];
+    private double[] forceX = new double[INITIAL_CAPACITY];
+    private double[] forceY = new double[INITIAL_CAPACITY];
+    private double[] previousX = new double[INITIAL_CAPACITY];
+    private double[] previousY = new double[INITIAL_CAPACITY];
+    private double[] impulseX = new double[INITIAL_CAPACITY];
+    private double[] impulseY = new double[INITIAL_CAPACITY];
+
+    // result of the last collision test, kept in fields so that testing allocates nothing
+    private double effectForceX;
+    private double effectForceY;
+    private double effectImpulseX;
+    private double effectImpulseY;
+
+    public World(double gravity, double cof, double cellSize) {
+        if (!(cellSize > 0))
+            throw new IllegalArgumentException("Cell size should be positive: " + cellSize);
+        this.gravity = gravity;
+        this.cof = cof;
+        this.grid = new UniformGrid(cellSize);
+    }
+
+    public void setCollisionListener(CollisionListener<T> listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T tag(int slot) {
+        return (T) tags[slot];
+    }
+
+    public int addCircle(T tag, double x, double y, double radius, double weight) {
+        return add(tag, true, radius, radius, x, y, weight);
+    }
+
+    public int addRectangle(T tag, double x, double y, double width, double height, double weight) {
+        return add(tag, false, width / 2, height / 2, x, y, weight);
+    }
+
+    private int add(T tag, boolean circle, double extentX, double extentY, double x, double y, double weight) {
+        if (size == tags.length)
+            grow(size * 2);
+        int slot = size++;
+        this.tags[slot] = tag;
+        this.circle[slot] = circle;
+        this.motion[slot] = false;
+        this.extentX[slot] = extentX;
+        this.extentY[slot] = extentY;
+        this.weight[slot] = weight;
+        this.maxSpeed[slot] = 0;
+        this.x[slot] = this.previousX[slot] = x;
+        this.y[slot] = this.previousY[slot] = y;
+        this.speedX[slot] = this.speedY[slot] = 0;
+        this.forceX[slot] = this.forceY[slot] = 0;
+        return slot;
+    }
+
+    /**
+     * Turns a body into a motion one, moved by its internal force up to the max speed
+     */
+    public void setMotion(int slot, double maxSpeed) {
+        this.motion[slot] = true;
+        this.maxSpeed[slot] = maxSpeed;
+    }
+
+    /**
+     * @return slot of the body moved into the removed one's place, or -1 if the last body was removed
+     */
+    public int remove(int slot) {
+        int last = --size;
+        if (slot != last) {
+            tags[slot] = tags[last];
+            circle[slot] = circle[last];
+            motion[slot] = motion[last];
+            extentX[slot] = extentX[last];
+            extentY[slot] = extentY[last];
+            weight[slot] = weight[last];
+            maxSpeed[slot] = maxSpeed[last];
+            x[slot] = x[last];
+            y[slot] = y[last];
+            speedX[slot] = speedX[last];
+            speedY[slot] = speedY[last];
+            forceX[slot] = forceX[last];
+            forceY[slot] = forceY[last];
+            previousX[slot] = previousX[last];
+            previousY[slot] = previousY[last];
+        }
+        tags[last] = null;
+        return slot != last ? last : -1;
+    }
+
+    private void grow(int capacity) {
+        tags = Arrays.copyOf(tags, capacity);
+        circle = Arrays.copyOf(circle, capacity);
+        motion = Arrays.copyOf(motion, capacity);
+        extentX = Arrays.copyOf(extentX, capacity);
+        extentY = Arrays.copyOf(extentY, capacity);
+        weight = Arrays.copyOf(weight, capacity);
+        maxSpeed = Arrays.copyOf(maxSpeed, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        speedX = Arrays.copyOf(speedX, capacity);
+        speedY = Arrays.copyOf(speedY, capacity);
+        forceX = Arrays.copyOf(forceX, capacity);
+        forceY = Arrays.copyOf(forceY, capacity);
+        previousX = Arrays.copyOf(previousX, capacity);
+        previousY = Arrays.copyOf(previousY, capacity);
+        impulseX = Arrays.copyOf(impulseX, capacity);
+        impulseY = Arrays.copyOf(impulseY, capacity);
+    }
+
+    public boolean isCircle(int slot) {
+        return circle[slot];
+    }
+
+    public boolean isMotion(int slot) {
+        return motion[slot];
+    }
+
+    public double getX(int slot) {
+        return x[slot];
+    }
+
+    public double getY(int slot) {
+        return y[slot];
+    }
+
+    public void setPosition(int slot, double x, double y) {
+        this.x[slot] = x;
+        this.y[slot] = y;
+    }
+
+    public double getSpeedX(int slot) {
+        return speedX[slot];
+    }
+
+    public double getSpeedY(int slot) {
+        return speedY[slot];
+    }
+
+    public void setSpeed(int slot, double x, double y) {
+        speedX[slot] = x;
+        speedY[slot] = y;
+    }
+
+    public double getForceX(int slot) {
+        return forceX[slot];
+    }
+
+    public double getForceY(int slot) {
+        return forceY[slot];
+    }
+
+    public void setForce(int slot, double x, double y) {
+        forceX[slot] = x;
+        forceY[slot] = y;
+    }
+
+    public double getMaxSpeed(int slot) {
+        return maxSpeed[slot];
+    }
+
+    public void setMaxSpeed(int slot, double maxSpeed) {
+        this.maxSpeed[slot] = maxSpeed;
+    }
+
+    /**
+     * Whether the body moved during the last step
+     */
+    public boolean hasMoved(int slot) {
+        return Math.abs(x[slot] - previousX[slot]) >= EPS || Math.abs(y[slot] - previousY[slot]) >= EPS;
+    }
+
+    public void step(double time) {
+        int n = size;
+        System.arraycopy(x, 0, previousX, 0, n);
+        System.arraycopy(y, 0, previousY, 0, n);
+        Arrays.fill(impulseX, 0, n, 0);
+        Arrays.fill(impulseY, 0, n, 0);
+        applyFriction(time);
+        int pairs = grid.collectPairs(n, x, y, extentX, extentY);
+        int[] first = grid.getFirst();
+        int[] second = grid.getSecond();
+        for (int p = 0; p < pairs; ++p)
+            collide(first[p], second[p], time);
+        for (int i = 0; i < n; ++i) {
+            if (weight[i] != Double.POSITIVE_INFINITY) {
+                speedX[i] += impulseX[i] / weight[i];
+                speedY[i] += impulseY[i] / weight[i];
+            }
+            if (motion[i])
+                applyInternal(i, time);
+        }
+        for (int i = 0; i < n; ++i) {
+            x[i] += speedX[i] * time;
+            y[i] += speedY[i] * time;
+        }
+    }
+
+    private void applyFriction(double time) {
+        double deceleration = cof * gravity * time;
+        for (int i = 0; i < size; ++i) {
+            double vx = speedX[i];
+            double vy = speedY[i];
+            if (Math.abs(vx) < EPS && Math.abs(vy) < EPS)
+                continue;
+            double length = Math.sqrt(vx * vx + vy * vy);
+            double newX = vx - vx / length * deceleration;
+            double newY = vy - vy / length * deceleration;
+            if (vx * newX + vy * newY < EPS) {
+                speedX[i] = speedY[i] = 0;
+            } else {
+                speedX[i] = newX;
+                speedY[i] = newY;
+            }
+        }
+    }
+
+    private void applyInternal(int i, double time) {
+        double fx = forceX[i];
+        double fy = forceY[i];
+        if (Math.abs(fx) < EPS && Math.abs(fy) < EPS)
+            return;
+        double vx = speedX[i] + fx * time / weight[i];
+        double vy = speedY[i] + fy * time / weight[i];
+        double length = Math.sqrt(vx * vx + vy * vy);
+        if (length == 0)
+            return;
+        double scale = Math.min(length, maxSpeed[i]) / length;
+        speedX[i] = vx * scale;
+        speedY[i] = vy * scale;
+    }
+
+    private void collide(int a, int b, double time) {
+        boolean collided;
+        int from;
+        int to;
+        if (circle[a] && circle[b]) {
+            collided = collideCircles(a, b);
+            from = a;
+            to = b;
+        } else if (circle[a]) {
+            collided = collideCircleWithRectangle(a, b);
+            from = a;
+            to = b;
+        } else if (circle[b]) {
+            collided = collideCircleWithRectangle(b, a);
+            from = b;
+            to = a;
+        } else {
+            // rectangles never collide with each other
+            return;
+        }
+        if (!collided)
+            return;
+        listener.onCollision(tag(a), tag(b));
+        double dx = effectImpulseX + effectForceX * time;
+        double dy = effectImpulseY + effectForceY * time;
+        impulseX[from] += dx;
+        impulseY[from] += dy;
+        impulseX[to] -= dx;
+        impulseY[to] -= dy;
+    }
+
+    private boolean collideCircles(int a, int b) {
+        double moveX = x[a] - x[b];
+        double moveY = y[a] - y[b];
+        double length = Math.sqrt(moveX * moveX + moveY * moveY);
+        double delta = extentX[a] + extentX[b] - length;
+        if (delta < EPS || Math.abs(moveX) < EPS && Math.abs(moveY) < EPS)
+            return false;
+        double normX = moveX / length;
+        double normY = moveY / length;
+        setEffect(a, b, normX, normY, delta);
+        return true;
+    }
+
+    private boolean collideCircleWithRectangle(int circ, int rect) {
+        double radius = extentX[circ];
+        double halfWidth = extentX[rect];
+        double halfHeight = extentY[rect];
+        double moveX = x[circ] - x[rect];
+        double moveY = y[circ] - y[rect];
+        if (Math.abs(moveX) > radius + halfWidth - EPS
+                || Math.abs(moveY) > radius + halfHeight - EPS
+                || Math.abs(moveX) < EPS && Math.abs(moveY) < EPS)
+            return false;
+        double left = x[rect] - halfWidth;
+        double right = x[rect] + halfWidth;
+        double top = y[rect] - halfHeight;
+        double bottom = y[rect] + halfHeight;
+        double px = x[circ];
+        double py = y[circ];
+        double reach = radius - EPS;
+        boolean touches = Math.abs(moveX) <= halfWidth - EPS && Math.abs(moveY) <= halfHeight - EPS // center inside
+                || distance(px, py, left, top, right, top) < reach
+                || distance(px, py, right, top, right, bottom) < reach
+                || distance(px, py, right, bottom, left, bottom) < reach
+                || distance(px, py, left, bottom, left, top) < reach;
+        if (!touches)
+            return false;
+        if (Math.abs(moveX) * halfHeight > Math.abs(moveY) * halfWidth)
+            setEffect(circ, rect, Math.signum(moveX), 0, halfWidth - Math.abs(moveX) + radius);
+        else
+            setEffect(circ, rect, 0, Math.signum(moveY), halfHeight - Math.abs(moveY) + radius);
+        return true;
+    }
+
+    /**
+     * Distance from point to segment, as {@code geom.distance} of vector and segment
+     */
+    private static double distance(double px, double py, double ax, double ay, double bx, double by) {
+        double sx = bx - ax;
+        double sy = by - ay;
+        if ((px - bx) * sx + (py - by) * sy > 0)
+            return Math.hypot(px - bx, py - by);
+        if ((px - ax) * -sx + (py - ay) * -sy > 0)
+            return Math.hypot(px - ax, py - ay);
+        return Math.abs(sx * (py - ay) - sy * (px - ax)) / Math.hypot(sx, sy);
+    }
+
+    private void setEffect(int a, int b, double normX, double normY, double delta) {
+        effectForceX = normX * delta * RIGIDNESS;
+        effectForceY = normY * delta * RIGIDNESS;
+        effectImpulseX = 0;
+        effectImpulseY = 0;
+        double aImpulse = speedX[a] * normX + speedY[a] * normY;
+        double bImpulse = speedX[b] * normX + speedY[b] * normY;
+        // immovable bodies transfer no impulse, where the script would end up with NaN speeds
+        if (bImpulse > EPS && weight[b] != Double.POSITIVE_INFINITY) {
+            effectImpulseX = normX * bImpulse * weight[b];
+            effectImpulseY = normY * bImpulse * weight[b];
+        }
+        if (aImpulse < EPS && weight[a] != Double.POSITIVE_INFINITY) {
+            effectImpulseX -= normX * aImpulse * weight[a];
+            effectImpulseY -= normY * aImpulse * weight[a];
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.zyulyaev.webrtc.shooter.js;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes gzip variants next to static assets, served instead of the originals to clients accepting gzip,
+ * so nothing is compressed per request. Run in the prepare-package phase.
+ * <p>
+ * Arguments: webapp source directory, output directory and the asset directories to compress, e.g. {@code js css}.
+ */
+public class AssetCompressor {
+    /**
+     * Smaller files don't gain enough to pay for the extra lookup
+     */
+    private static final int MIN_SIZE = 1024;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3)
+            throw new IllegalArgumentException("Usage: AssetCompressor <sourceDir> <outputDir> <assetDir>...");
+        Path sourceDir = Paths.get(args[0]);
+        Path outputDir = Paths.get(args[1]);
+        for (int i = 2; i < args.length; ++i) {
+            List<Path> assets;
+            try (Stream<Path> paths = Files.list(sourceDir.resolve(args[i]))) {
+                assets = paths.filter(p -> isCompressible(p.getFileName().toString())).collect(Collectors.toList());
+            }
+            Files.createDirectories(outputDir.resolve(args[i]));
+            for (Path asset : assets)
+                compress(Files.readAllBytes(asset), outputDir.resolve(args[i]).resolve(asset.getFileName().toString()));
+        }
+    }
+
+    private static boolean isCompressible(String filename) {
+        return filename.endsWith(".js") || filename.endsWith(".css");
+    }
+
+    /**
+     * Writes {@code target.gz} holding the compressed content, unless compression doesn't pay off
+     */
+    static void compress(byte[] content, Path target) throws IOException {
+        Path compressedPath = target.resolveSibling(target.getFileName() + ".gz");
+        if (content.length < MIN_SIZE) {
+            Files.deleteIfExists(compressedPath);
+            return;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            out.write(content);
+        }
+        if (compressed.size() < content.length)
+            ScriptCompiler.write(compressedPath, compressed.toByteArray());
+        else
+            Files.deleteIfExists(compressedPath);
+    }
+}
@@ -1,96 +1,96 @@
 package ru.zyulyaev.webrtc.shooter.js;
 
-import com.google.javascript.jscomp.*;
-import com.google.javascript.jscomp.Compiler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by nikita on 29.01.15.
+ *
+ * Bursts of file events are debounced into a single compilation, which is skipped when the sources
+ * hash the same as in the last one. Minified and debug scripts are compiled in parallel and replace
+ * the previous ones by rename, so clients never fetch a half-written script. Gzip variants are written along.
  */
 class CompilingWatcher implements Runnable {
     private static final Log LOG = LogFactory.getLog(CompilingWatcher.class);
+    private static final long DEBOUNCE_MILLIS = 300;
 
     private final Path sourceDir;
     private final Path outputDir;
     private final String scriptName;
+    private final ScriptCompiler compiler;
+    private byte[] compiledHash;
 
     CompilingWatcher(Path sourceDir, Path outputDir, String scriptName) {
         this.sourceDir = sourceDir;
         this.outputDir = outputDir;
         this.scriptName = scriptName;
+        this.compiler = new ScriptCompiler(sourceDir, outputDir.resolve("externs.js"));
     }
 
     @Override
     public void run() {
+        ExecutorService compilers = Executors.newFixedThreadPool(2);
         try {
-            recompile();
+            recompile(compilers);
             WatchService watchService = sourceDir.getFileSystem().newWatchService();
             sourceDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
             while (!Thread.interrupted()) {
                 WatchKey key = watchService.take();
-                recompile();
-                key.pollEvents();
-                key.reset();
+                do {
+                    key.pollEvents();
+                    key.reset();
+                } while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+                recompile(compilers);
             }
         } catch (InterruptedException e) {
             // done
         } catch (IOException e) {
             LOG.error("Couldn't create WatchService");
+        } finally {
+            compilers.shutdownNow();
         }
     }
 
-    private String compile(boolean debug) throws IOException {
-        CompilerOptions options = new CompilerOptions();
-        options.setDefineToBooleanLiteral("DEBUG", debug);
-        if (debug) {
-            CompilationLevel.WHITESPACE_ONLY.setOptionsForCompilationLevel(options);
-        } else {
-            CompilationLevel.ADVANCED_OPTIMIZATIONS.setOptionsForCompilationLevel(options);
-            CompilationLevel.ADVANCED_OPTIMIZATIONS.setTypeBasedOptimizationOptions(options);
-        }
-        WarningLevel.VERBOSE.setOptionsForWarningLevel(options);
-        options.setOutputCharset("utf-8");
-        options.setLanguageIn(CompilerOptions.LanguageMode.ECMASCRIPT5);
-        options.setDependencyOptions(new DependencyOptions().setDependencySorting(true));
-
-        DirectoryStream<Path> paths = Files.newDirectoryStream(sourceDir, "*.js");
-        List<SourceFile> sources = StreamSupport.stream(paths.spliterator(), false)
-                .map(p -> SourceFile.fromFile(p.toFile()))
-                .collect(Collectors.toList());
-        List<SourceFile> externs = CommandLineRunner.getDefaultExterns();
-        Path externsPath = outputDir.resolve("externs.js");
-        externs.add(SourceFile.fromFile(externsPath.toFile()));
-
-        Compiler compiler = new Compiler();
-        compiler.compile(externs, sources, options);
-
-        if (compiler.hasErrors())
-            return null;
-
-        return compiler.toSource();
-    }
-
     private void writeJs(String filename, String code) throws IOException {
         if (code == null)
             return;
-        Files.write(
-                outputDir.resolve(filename),
-                code.getBytes(),
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING,
-                StandardOpenOption.WRITE
-        );
+        byte[] content = code.getBytes(StandardCharsets.UTF_8);
+        ScriptCompiler.write(outputDir.resolve(filename), content);
+        AssetCompressor.compress(content, outputDir.resolve(filename));
     }
 
-    private void recompile() throws IOException {
-        writeJs(scriptName + ".min.js", compile(false));
-        writeJs(scriptName + ".js", compile(true));
+    private void recompile(ExecutorService compilers) throws IOException, InterruptedException {
+        List<Path> sourcePaths = compiler.listSources();
+        byte[] sourceHash = compiler.hash(sourcePaths);
+        if (Arrays.equals(sourceHash, compiledHash)) {
+            LOG.debug("Sources unchanged, skipping compilation");
+            return;
+        }
+        long start = System.nanoTime();
+        Future<String> minified = compilers.submit(() -> compiler.compile(sourcePaths, false));
+        Future<String> debug = compilers.submit(() -> compiler.compile(sourcePaths, true));
+        try {
+            String minifiedCode = minified.get();
+            String debugCode = debug.get();
+            writeJs(scriptName + ".min.js", minifiedCode);
+            writeJs(scriptName + ".js", debugCode);
+            if (minifiedCode != null && debugCode != null)
+                compiledHash = sourceHash;
+        } catch (ExecutionException e) {
+            LOG.error("Compilation failed", e.getCause());
+            return;
+        }
+        LOG.info("Compiled " + scriptName + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
     }
 }
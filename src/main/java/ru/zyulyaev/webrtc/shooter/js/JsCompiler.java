@@ -3,6 +3,7 @@ package ru.zyulyaev.webrtc.shooter.js;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
@@ -16,8 +17,11 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * Created by nikita on 29.01.15.
+ *
+ * Recompiles scripts on change while developing, packaged builds serve bundles made by {@link ScriptBundler}
  */
 @Component
+@Profile("dev")
 public class JsCompiler {
     private static final Log LOG = LogFactory.getLog(JsCompiler.class);
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
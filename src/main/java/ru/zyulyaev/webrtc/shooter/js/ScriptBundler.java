@@ -0,0 +1,54 @@
+package ru.zyulyaev.webrtc.shooter.js;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Build-time compilation of the game scripts, run in the prepare-package phase.
+ * Writes minified and debug bundles with their gzip variants, URLs of the bundles are fingerprinted
+ * by content when served.
+ * <p>
+ * Arguments: source directory, externs file, output directory and script name.
+ */
+public class ScriptBundler {
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4)
+            throw new IllegalArgumentException("Usage: ScriptBundler <sourceDir> <externs> <outputDir> <scriptName>");
+        Path outputDir = Paths.get(args[2]);
+        String scriptName = args[3];
+        ScriptCompiler compiler = new ScriptCompiler(Paths.get(args[0]), Paths.get(args[1]));
+        List<Path> sources = compiler.listSources();
+
+        long start = System.nanoTime();
+        CompletableFuture<String> minified = compile(compiler, sources, false);
+        CompletableFuture<String> debug = compile(compiler, sources, true);
+        if (minified.get() == null || debug.get() == null)
+            throw new IllegalStateException("Compilation of " + scriptName + " failed, see errors above");
+
+        Files.createDirectories(outputDir);
+        write(outputDir.resolve(scriptName + ".min.js"), minified.get());
+        write(outputDir.resolve(scriptName + ".js"), debug.get());
+        System.out.println("Bundled " + scriptName + " in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+    }
+
+    private static CompletableFuture<String> compile(ScriptCompiler compiler, List<Path> sources, boolean debug) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return compiler.compile(sources, debug);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static void write(Path target, String code) throws IOException {
+        byte[] content = code.getBytes(StandardCharsets.UTF_8);
+        ScriptCompiler.write(target, content);
+        AssetCompressor.compress(content, target);
+    }
+}
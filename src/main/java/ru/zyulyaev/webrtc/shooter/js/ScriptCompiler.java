@@ -0,0 +1,115 @@
+package ru.zyulyaev.webrtc.shooter.js;
+
+import com.google.javascript.jscomp.*;
+import com.google.javascript.jscomp.Compiler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Closure compilation of the game scripts, shared by the runtime watcher and the build-time bundler
+ */
+class ScriptCompiler {
+    private static List<SourceFile> defaultExterns;
+
+    private final Path sourceDir;
+    private final Path externsPath;
+
+    ScriptCompiler(Path sourceDir, Path externsPath) {
+        this.sourceDir = sourceDir;
+        this.externsPath = externsPath;
+    }
+
+    private static synchronized List<SourceFile> getDefaultExterns() throws IOException {
+        if (defaultExterns == null)
+            defaultExterns = CommandLineRunner.getDefaultExterns();
+        return defaultExterns;
+    }
+
+    List<Path> listSources() throws IOException {
+        try (Stream<Path> paths = Files.list(sourceDir)) {
+            return paths.filter(p -> p.getFileName().toString().endsWith(".js"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Hash of source names and contents, externs included
+     */
+    byte[] hash(List<Path> sourcePaths) throws IOException {
+        MessageDigest digest = sha256();
+        List<Path> inputs = new ArrayList<>(sourcePaths);
+        inputs.add(externsPath);
+        for (Path path : inputs) {
+            digest.update(path.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            if (Files.exists(path))
+                digest.update(Files.readAllBytes(path));
+            digest.update((byte) 0);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @return compiled code, or {@code null} if there were errors, which the compiler has logged
+     */
+    String compile(List<Path> sourcePaths, boolean debug) throws IOException {
+        CompilerOptions options = new CompilerOptions();
+        options.setDefineToBooleanLiteral("DEBUG", debug);
+        if (debug) {
+            CompilationLevel.WHITESPACE_ONLY.setOptionsForCompilationLevel(options);
+        } else {
+            CompilationLevel.ADVANCED_OPTIMIZATIONS.setOptionsForCompilationLevel(options);
+            CompilationLevel.ADVANCED_OPTIMIZATIONS.setTypeBasedOptimizationOptions(options);
+        }
+        WarningLevel.VERBOSE.setOptionsForWarningLevel(options);
+        options.setOutputCharset("utf-8");
+        options.setLanguageIn(CompilerOptions.LanguageMode.ECMASCRIPT5);
+        options.setDependencyOptions(new DependencyOptions().setDependencySorting(true));
+
+        List<SourceFile> sources = sourcePaths.stream()
+                .map(p -> SourceFile.fromFile(p.toFile()))
+                .collect(Collectors.toList());
+        List<SourceFile> externs = new ArrayList<>(getDefaultExterns());
+        externs.add(SourceFile.fromFile(externsPath.toFile()));
+
+        Compiler compiler = new Compiler();
+        compiler.compile(externs, sources, options);
+
+        if (compiler.hasErrors())
+            return null;
+
+        return compiler.toSource();
+    }
+
+    /**
+     * Writes the file next to the target and renames it over, so readers never see it half-written
+     */
+    static void write(Path target, byte[] content) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, content);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
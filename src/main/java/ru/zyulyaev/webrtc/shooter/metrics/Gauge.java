@@ -0,0 +1,29 @@
+package ru.zyulyaev.webrtc.shooter.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.function.LongSupplier;
+
+/**
+ * Value read from its owner on every scrape
+ */
+class Gauge extends Metric {
+    private final String type;
+    private final LongSupplier value;
+
+    Gauge(String name, String type, LongSupplier value) {
+        super(name, "");
+        this.type = type;
+        this.value = value;
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void writeTo(Writer writer) throws IOException {
+        writeSample(writer, "", null, value.getAsLong());
+    }
+}
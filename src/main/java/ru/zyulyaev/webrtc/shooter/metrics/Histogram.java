@@ -0,0 +1,51 @@
+package ru.zyulyaev.webrtc.shooter.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values over power of two buckets, bucket {@code i} counts values
+ * below {@code 2^i}. Recording is a couple of lock-free additions.
+ */
+public class Histogram extends Metric {
+    private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+    private final LongAdder sum = new LongAdder();
+
+    Histogram(String name, String labels) {
+        super(name, labels);
+        for (int i = 0; i < buckets.length; ++i)
+            buckets[i] = new LongAdder();
+    }
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        buckets[Long.SIZE - Long.numberOfLeadingZeros(value)].increment();
+        sum.add(value);
+    }
+
+    @Override
+    public String getType() {
+        return "histogram";
+    }
+
+    @Override
+    public void writeTo(Writer writer) throws IOException {
+        long[] counts = new long[buckets.length];
+        int last = -1;
+        for (int i = 0; i < buckets.length; ++i) {
+            counts[i] = buckets[i].sum();
+            if (counts[i] != 0)
+                last = i;
+        }
+        long cumulative = 0;
+        for (int i = 0; i <= last; ++i) {
+            cumulative += counts[i];
+            writeSample(writer, "_bucket", "le=\"" + ((1L << i) - 1) + "\"", cumulative);
+        }
+        writeSample(writer, "_bucket", "le=\"+Inf\"", cumulative);
+        writeSample(writer, "_sum", null, sum.sum());
+        writeSample(writer, "_count", null, cumulative);
+    }
+}
@@ -0,0 +1,43 @@
+package ru.zyulyaev.webrtc.shooter.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Named metric with optional labels, written in the Prometheus text exposition format
+ */
+public abstract class Metric {
+    private final String name;
+    private final String labels;
+
+    protected Metric(String name, String labels) {
+        this.name = name;
+        this.labels = labels;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public abstract String getType();
+
+    public abstract void writeTo(Writer writer) throws IOException;
+
+    protected void writeSample(Writer writer, String suffix, String extraLabel, long value) throws IOException {
+        writer.write(name);
+        writer.write(suffix);
+        if (!labels.isEmpty() || extraLabel != null) {
+            writer.write('{');
+            writer.write(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty())
+                    writer.write(',');
+                writer.write(extraLabel);
+            }
+            writer.write('}');
+        }
+        writer.write(' ');
+        writer.write(Long.toString(value));
+        writer.write('\n');
+    }
+}
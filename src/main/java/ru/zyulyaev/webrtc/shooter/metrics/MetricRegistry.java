@@ -0,0 +1,76 @@
+package ru.zyulyaev.webrtc.shooter.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metrics. Components look their metrics up once and keep them in fields,
+ * so the hot path never touches the registry.
+ * <p>
+ * Labels are given as name/value pairs, e.g. {@code counter("shooter_frames_in_total", "type", "offer")}.
+ */
+@Component
+public class MetricRegistry {
+    /**
+     * Keyed by name, a space and labels, so all samples of a metric are adjacent when written
+     */
+    private final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    public Counter counter(String name, String... labels) {
+        return get(name, labels, Counter.class, Counter::new);
+    }
+
+    public Histogram histogram(String name, String... labels) {
+        return get(name, labels, Histogram.class, Histogram::new);
+    }
+
+    /**
+     * Counter maintained by its owner
+     */
+    public void counter(String name, LongSupplier value) {
+        metrics.put(name + ' ', new Gauge(name, "counter", value));
+    }
+
+    public void gauge(String name, LongSupplier value) {
+        metrics.put(name + ' ', new Gauge(name, "gauge", value));
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        String lastName = null;
+        for (Metric metric : metrics.values()) {
+            if (!metric.getName().equals(lastName)) {
+                lastName = metric.getName();
+                writer.write("# TYPE " + lastName + ' ' + metric.getType() + '\n');
+            }
+            metric.writeTo(writer);
+        }
+    }
+
+    private <T extends Metric> T get(String name, String[] labels, Class<T> type, BiFunction<String, String, T> factory) {
+        String renderedLabels = renderLabels(labels);
+        Metric metric = metrics.computeIfAbsent(name + ' ' + renderedLabels, key -> factory.apply(name, renderedLabels));
+        if (!type.isInstance(metric))
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + metric.getType());
+        return type.cast(metric);
+    }
+
+    private static String renderLabels(String[] labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels should be name/value pairs");
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0)
+                result.append(',');
+            result.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,177 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import ru.zyulyaev.webrtc.shooter.metrics.Counter;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+
+import javax.annotation.PostConstruct;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether to accept a signaling or relay connection before the handshake does any work. Connections are
+ * capped server-wide and per client address, and so is the rate of new ones. Over the server-wide limits
+ * the handshake is answered with an empty 503, over the per-address ones with 429, both asking to retry
+ * in {@code shooter.admission.retryAfterSeconds}.
+ * <p>
+ * Caps are checked against established connections, so handshakes in flight may overshoot them a little,
+ * the connect rate limits bound by how much. A handshake which fails after being admitted, like one which
+ * a later interceptor rejects, gives its connect tokens back.
+ * <p>
+ * Per-address limits are meant to stop a single client from hogging the server, but players behind one NAT
+ * share an address, so the defaults leave room for a few dozen of them.
+ */
+@Component
+public class AdmissionControl implements HandshakeInterceptor, WebSocketConnectionEstablishedHandler,
+        WebSocketConnectionClosedHandler {
+    private static final Log logger = LogFactory.getLog(AdmissionControl.class);
+
+    @Value("${shooter.admission.maxConnections:10000}")
+    private int maxConnections;
+    @Value("${shooter.admission.maxConnectionsPerAddress:100}")
+    private int maxConnectionsPerAddress;
+    @Value("${shooter.admission.connectRate:200}")
+    private double connectRate;
+    @Value("${shooter.admission.connectBurst:400}")
+    private double connectBurst;
+    @Value("${shooter.admission.addressConnectRate:10}")
+    private double addressConnectRate;
+    @Value("${shooter.admission.addressConnectBurst:50}")
+    private double addressConnectBurst;
+    @Value("${shooter.admission.retryAfterSeconds:5}")
+    private int retryAfterSeconds;
+
+    @Autowired
+    private MetricRegistry metrics;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ConcurrentMap<InetAddress, Integer> connectionsByAddress = new ConcurrentHashMap<>();
+    /**
+     * Addresses of established connections, a closed session may no longer know its own
+     */
+    private final ConcurrentMap<String, InetAddress> addresses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<InetAddress, RateLimiter.TokenBucket> connectsByAddress = new ConcurrentHashMap<>();
+    private RateLimiter.TokenBucket connects;
+    private RateLimiter.Limit addressConnectLimit;
+    private Counter overCapacity;
+    private Counter overRate;
+    private Counter addressOverCapacity;
+    private Counter addressOverRate;
+
+    @PostConstruct
+    protected void init() {
+        connects = new RateLimiter.TokenBucket(new RateLimiter.Limit(connectRate, connectBurst));
+        addressConnectLimit = new RateLimiter.Limit(addressConnectRate, addressConnectBurst);
+        overCapacity = metrics.counter("shooter_handshakes_rejected_total", "reason", "capacity");
+        overRate = metrics.counter("shooter_handshakes_rejected_total", "reason", "rate");
+        addressOverCapacity = metrics.counter("shooter_handshakes_rejected_total", "reason", "addresscapacity");
+        addressOverRate = metrics.counter("shooter_handshakes_rejected_total", "reason", "addressrate");
+        metrics.gauge("shooter_connections", connections::get);
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        InetAddress address = addressOf(request.getRemoteAddress());
+        if (connections.get() >= maxConnections)
+            return reject(response, HttpStatus.SERVICE_UNAVAILABLE, overCapacity);
+        Integer fromAddress = address == null ? null : connectionsByAddress.get(address);
+        if (fromAddress != null && fromAddress >= maxConnectionsPerAddress)
+            return reject(response, HttpStatus.TOO_MANY_REQUESTS, addressOverCapacity);
+        RateLimiter.TokenBucket bucket = null;
+        if (address != null) {
+            bucket = connectsByAddress.get(address);
+            if (bucket == null)
+                bucket = connectsByAddress.computeIfAbsent(address, key -> new RateLimiter.TokenBucket(addressConnectLimit));
+            if (!bucket.tryTake())
+                return reject(response, HttpStatus.TOO_MANY_REQUESTS, addressOverRate);
+        }
+        // taken last, so that clients over their own limits don't use up everyone's rate
+        if (!connects.tryTake()) {
+            // the handshake isn't told of its own rejection, so the client's token is given back here
+            if (bucket != null)
+                bucket.refund();
+            return reject(response, HttpStatus.SERVICE_UNAVAILABLE, overRate);
+        }
+        return true;
+    }
+
+    private boolean reject(ServerHttpResponse response, HttpStatus status, Counter reason) {
+        reason.increment();
+        response.setStatusCode(status);
+        response.getHeaders().set("Retry-After", Integer.toString(retryAfterSeconds));
+        return false;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Exception exception) {
+        if (exception == null && isUpgraded(response))
+            return;
+        connects.refund();
+        InetAddress address = addressOf(request.getRemoteAddress());
+        RateLimiter.TokenBucket bucket = address == null ? null : connectsByAddress.get(address);
+        if (bucket != null)
+            bucket.refund();
+    }
+
+    /**
+     * Only servlet responses tell their status, others are taken as upgraded unless the handshake threw
+     */
+    private static boolean isUpgraded(ServerHttpResponse response) {
+        return !(response instanceof ServletServerHttpResponse)
+                || ((ServletServerHttpResponse) response).getServletResponse().getStatus() == HttpStatus.SWITCHING_PROTOCOLS.value();
+    }
+
+    @Override
+    public void onClientConnected(WebSocketSession session) {
+        connections.incrementAndGet();
+        InetAddress address = addressOf(session.getRemoteAddress());
+        if (address != null) {
+            addresses.put(session.getId(), address);
+            connectionsByAddress.merge(address, 1, Integer::sum);
+        }
+    }
+
+    @Override
+    public void onClientDisconnected(WebSocketSession session, CloseStatus status) {
+        connections.decrementAndGet();
+        InetAddress address = addresses.remove(session.getId());
+        if (address != null)
+            connectionsByAddress.computeIfPresent(address, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Forgets connect rates of addresses which haven't connected for a while
+     */
+    @Scheduled(fixedDelayString = "${shooter.admission.sweepMillis:10000}")
+    public void sweep() {
+        int before = connectsByAddress.size();
+        connectsByAddress.values().removeIf(RateLimiter.TokenBucket::isFull);
+        if (logger.isDebugEnabled() && before != connectsByAddress.size())
+            logger.debug("Forgot connect rates of " + (before - connectsByAddress.size()) + " addresses");
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    private static InetAddress addressOf(InetSocketAddress socketAddress) {
+        return socketAddress == null ? null : socketAddress.getAddress();
+    }
+}
@@ -3,36 +3,170 @@ package ru.zyulyaev.webrtc.shooter.websocket;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.security.crypto.keygen.BytesKeyGenerator;
-import org.springframework.security.crypto.keygen.KeyGenerators;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.PingMessage;
 import org.springframework.web.socket.WebSocketSession;
-import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+import ru.zyulyaev.webrtc.shooter.metrics.Counter;
+import ru.zyulyaev.webrtc.shooter.metrics.Histogram;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by nikita on 14.01.15.
+ *
+ * Sessions are spread over the slots of a hashed timing wheel, every tick pings one slot only,
+ * so each session is pinged once per wheel revolution. Ping payload is the send time, which
+ * the pong echoes back and which gives the round trip time. Sessions which miss too many pongs
+ * in a row are closed. The wheel turns on a thread of its own, so pings keep their rate however long
+ * the scheduled flushes and sweeps take.
  */
 @Component
-public class HeartbeatSender {
+public class HeartbeatSender implements WebSocketConnectionEstablishedHandler, WebSocketConnectionClosedHandler {
     private static final Log logger = LogFactory.getLog(HeartbeatSender.class);
 
+    /**
+     * 0 disables heartbeats
+     */
+    @Value("${shooter.heartbeat.tickMillis:50}")
+    private long tickMillis;
+    @Value("${shooter.heartbeat.wheelSize:20}")
+    private int wheelSize;
+    @Value("${shooter.heartbeat.maxMissedPongs:5}")
+    private int maxMissedPongs;
+
+    @Autowired
+    private MessageSender sender;
     @Autowired
-    private SessionManagerHandler sessionManager;
-    private final BytesKeyGenerator payloadGenerator = KeyGenerators.secureRandom();
+    private MetricRegistry metrics;
+
+    private final ConcurrentMap<String, Heartbeat> heartbeats = new ConcurrentHashMap<>();
+    private List<Set<Heartbeat>> wheel;
+    private int currentSlot;
+    private ScheduledExecutorService ticker;
+    private Counter pings;
+    private Counter evictions;
+    private Histogram roundTrips;
 
-    @Scheduled(fixedRate = 1000)
-    public void sendHeartbeat() {
-        for (WebSocketSession session : sessionManager.getSessions()) {
+    @PostConstruct
+    protected void init() {
+        wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; ++i)
+            wheel.add(ConcurrentHashMap.newKeySet());
+        pings = metrics.counter("shooter_heartbeat_pings_total");
+        evictions = metrics.counter("shooter_heartbeat_evictions_total");
+        roundTrips = metrics.histogram("shooter_heartbeat_rtt_nanos");
+        if (tickMillis <= 0)
+            return;
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shooter-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> {
             try {
-                session.sendMessage(new PingMessage(ByteBuffer.wrap(payloadGenerator.generateKey())));
-            } catch (IOException e) {
-                logger.warn("Error sending ping message", e);
+                tick();
+            } catch (RuntimeException e) {
+                // an exception would cancel the task
+                logger.error("Error sending pings", e);
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        if (ticker != null)
+            ticker.shutdownNow();
+    }
+
+    @Override
+    public void onClientConnected(WebSocketSession session) {
+        int jitter = ThreadLocalRandom.current().nextInt(wheelSize);
+        int slot = Math.floorMod(session.getId().hashCode() + jitter, wheelSize);
+        Heartbeat heartbeat = new Heartbeat(session, slot);
+        heartbeats.put(session.getId(), heartbeat);
+        wheel.get(slot).add(heartbeat);
+    }
+
+    @Override
+    public void onClientDisconnected(WebSocketSession session, CloseStatus status) {
+        Heartbeat heartbeat = heartbeats.remove(session.getId());
+        if (heartbeat != null)
+            wheel.get(heartbeat.slot).remove(heartbeat);
+    }
+
+    public void tick() {
+        Set<Heartbeat> slot = wheel.get(currentSlot);
+        currentSlot = (currentSlot + 1) % wheelSize;
+        for (Heartbeat heartbeat : slot) {
+            // a pong may reset the count at any moment
+            int missed = heartbeat.missedPongs.getAndIncrement();
+            if (missed >= maxMissedPongs) {
+                evict(heartbeat, missed);
+                continue;
             }
+            ByteBuffer payload = ByteBuffer.allocate(Long.BYTES);
+            payload.putLong(0, System.nanoTime());
+            sender.send(heartbeat.session, new PingMessage(payload));
+            pings.increment();
+        }
+    }
+
+    public void onPong(WebSocketSession session, ByteBuffer payload) {
+        Heartbeat heartbeat = heartbeats.get(session.getId());
+        if (heartbeat == null || payload.remaining() != Long.BYTES)
+            return;
+        long rtt = System.nanoTime() - payload.getLong(payload.position());
+        if (rtt < 0)
+            return;
+        heartbeat.rttNanos = rtt;
+        roundTrips.record(rtt);
+        heartbeat.missedPongs.set(0);
+    }
+
+    /**
+     * @return last measured round trip time in nanoseconds, or -1 if unknown
+     */
+    public long getRoundTripNanos(WebSocketSession session) {
+        Heartbeat heartbeat = heartbeats.get(session.getId());
+        return heartbeat == null ? -1 : heartbeat.rttNanos;
+    }
+
+    private void evict(Heartbeat heartbeat, int missed) {
+        wheel.get(heartbeat.slot).remove(heartbeat);
+        evictions.increment();
+        logger.info("Closing session " + heartbeat.session.getId() + " after " + missed + " missed pongs");
+        try {
+            heartbeat.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            logger.warn("Error closing unresponsive session", e);
+        }
+    }
+
+    private static class Heartbeat {
+        final WebSocketSession session;
+        final int slot;
+        final AtomicInteger missedPongs = new AtomicInteger();
+        volatile long rttNanos = -1;
+
+        Heartbeat(WebSocketSession session, int slot) {
+            this.session = session;
+            this.slot = slot;
         }
     }
 }
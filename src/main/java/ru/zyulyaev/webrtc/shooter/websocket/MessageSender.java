@@ -0,0 +1,433 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.metrics.Counter;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+import ru.zyulyaev.webrtc.shooter.websocket.binary.BinaryCodec;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single place where outgoing messages are encoded for a session and written to it.
+ * <p>
+ * Sending never blocks: messages are queued to the session's outbox, which a shared pool of writers
+ * drains a batch at a time, so a client with a full TCP window holds one writer at most and a broadcast
+ * costs the same however slow its recipients are. Being the only writer of a session, the pool also keeps
+ * the container from seeing concurrent sends. Messages which only carry the latest state, like host lists,
+ * replace their unsent predecessor instead of queueing behind it. A session whose outbox grows beyond
+ * {@code shooter.send.highWaterBytes} anyway is a slow consumer and is closed, as holding messages for it
+ * would only grow the heap. Messages to closed sessions are discarded.
+ * <p>
+ * Container writes block, so a single write which stalls for longer than {@code shooter.send.timeoutMillis}
+ * gets its writer interrupted, which gives it back to the other sessions, and its session closed. Writers pick
+ * sessions with pending messages from a shared queue and are only woken up when they idle, so a broadcast
+ * hands its frames off without waking a thread per recipient.
+ */
+@Component
+public class MessageSender implements WebSocketConnectionClosedHandler {
+    private static final Log logger = LogFactory.getLog(MessageSender.class);
+
+    private static final int DRAIN_BATCH = 64;
+    /**
+     * Number of message types which can be sent with {@link #sendLatest}, each takes a slot in every outbox
+     */
+    private static final int LATEST_TYPES = 8;
+    private static final CloseStatus SLOW_CONSUMER = CloseStatus.SESSION_NOT_RELIABLE.withReason("Slow consumer");
+    private static final CloseStatus SEND_TIMEOUT = CloseStatus.SESSION_NOT_RELIABLE.withReason("Send timeout");
+
+    @Value("${shooter.send.highWaterBytes:1048576}")
+    private long highWaterBytes;
+    /**
+     * Number of writers, 0 means one per processor
+     */
+    @Value("${shooter.send.threads:0}")
+    private int threads;
+    /**
+     * 0 lets writes take as long as the container does
+     */
+    @Value("${shooter.send.timeoutMillis:10000}")
+    private long timeoutMillis;
+
+    @Autowired
+    private BinaryCodec binaryCodec;
+    @Autowired
+    private MetricRegistry metrics;
+
+    private final ConcurrentMap<String, Counter> framesByType = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> latestSlots = new ConcurrentHashMap<>();
+    /**
+     * Outboxes with messages and no writer yet
+     */
+    private final Queue<Outbox> ready = new ConcurrentLinkedQueue<>();
+    private final Queue<Thread> idleWriters = new ConcurrentLinkedQueue<>();
+    private Thread[] writers;
+    private volatile boolean stopped;
+    /**
+     * Checks write deadlines and closes sessions, which writes a frame too and must not hold a writer
+     */
+    private ScheduledExecutorService watchdog;
+    private Counter bytes;
+    private Counter errors;
+    private Counter superseded;
+    private Counter slowConsumers;
+    private Counter timeouts;
+
+    @PostConstruct
+    protected void init() {
+        bytes = metrics.counter("shooter_bytes_out_total");
+        errors = metrics.counter("shooter_send_errors_total");
+        superseded = metrics.counter("shooter_send_superseded_total");
+        slowConsumers = metrics.counter("shooter_send_slow_consumers_total");
+        timeouts = metrics.counter("shooter_send_timeouts_total");
+        metrics.gauge("shooter_send_queued_bytes", this::getQueuedBytes);
+        writers = new Thread[threads > 0 ? threads : Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < writers.length; ++i) {
+            writers[i] = new Thread(this::write, "shooter-send-" + i);
+            writers[i].setDaemon(true);
+            writers[i].start();
+        }
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shooter-send-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (timeoutMillis > 0) {
+            long period = Math.max(1, timeoutMillis / 4);
+            watchdog.scheduleWithFixedDelay(() -> {
+                try {
+                    checkDeadlines();
+                } catch (RuntimeException e) {
+                    // an exception would cancel the task
+                    logger.error("Error checking write deadlines", e);
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        stopped = true;
+        for (Thread writer : writers)
+            writer.interrupt();
+        watchdog.shutdownNow();
+    }
+
+    public void send(WebSocketSession session, OutboundMessage message) {
+        WebSocketMessage<?> frame = message.encodeFor(session, binaryCodec);
+        enqueue(session, message.getType(), frame, message.getPayloadLength(frame), -1, true);
+    }
+
+    /**
+     * Sends a message which makes the previous message of its type obsolete, the previous one is dropped
+     * if it is still queued
+     */
+    public void sendLatest(WebSocketSession session, OutboundMessage message) {
+        int slot = latestSlot(message.getType());
+        WebSocketMessage<?> frame = message.encodeFor(session, binaryCodec);
+        enqueue(session, message.getType(), frame, message.getPayloadLength(frame), slot, true);
+    }
+
+    /**
+     * Sends a message to every one of the sessions as {@link #sendLatest} does, waking idle writers once
+     * for all of them rather than per recipient
+     *
+     * @return number of sessions
+     */
+    public int broadcastLatest(Iterable<WebSocketSession> sessions, OutboundMessage message) {
+        int slot = latestSlot(message.getType());
+        int recipients = 0;
+        for (WebSocketSession session : sessions) {
+            WebSocketMessage<?> frame = message.encodeFor(session, binaryCodec);
+            enqueue(session, message.getType(), frame, message.getPayloadLength(frame), slot, false);
+            ++recipients;
+        }
+        wakeWriters();
+        return recipients;
+    }
+
+    /**
+     * Sends a frame encoded by the caller, like a ping, in order with the rest of the session's messages
+     */
+    public void send(WebSocketSession session, WebSocketMessage<?> frame) {
+        enqueue(session, null, frame, frame.getPayloadLength(), -1, true);
+    }
+
+    /**
+     * @param bytes size of the frame, taken from the message so that a broadcast doesn't measure it per recipient
+     * @param slot slot of the type in {@link Outbox#latest}, -1 for messages which don't supersede others
+     * @param wake whether to wake an idle writer, a broadcast wakes them once when done
+     */
+    private void enqueue(WebSocketSession session, String type, WebSocketMessage<?> frame, int bytes, int slot,
+                         boolean wake) {
+        Outbox outbox = outboxOf(session);
+        if (outbox == null)
+            return;
+        Entry entry = new Entry(type, frame, bytes);
+        outbox.queuedBytes.addAndGet(entry.bytes);
+        if (slot >= 0) {
+            Entry previous = outbox.latest.getAndSet(slot, entry);
+            if (previous != null && previous.claim()) {
+                outbox.queuedBytes.addAndGet(-previous.bytes);
+                superseded.increment();
+            }
+        }
+        outbox.queue.add(entry);
+        if (outbox.queuedBytes.get() > highWaterBytes)
+            evict(outbox);
+        else
+            schedule(outbox, wake);
+    }
+
+    private int latestSlot(String type) {
+        Integer slot = latestSlots.get(type);
+        if (slot == null) {
+            synchronized (latestSlots) {
+                slot = latestSlots.computeIfAbsent(type, key -> latestSlots.size());
+            }
+        }
+        if (slot >= LATEST_TYPES)
+            throw new IllegalStateException("Too many message types superseding their predecessors: " + type);
+        return slot;
+    }
+
+    private Outbox outboxOf(WebSocketSession session) {
+        if (!session.isOpen())
+            return null;
+        Outbox outbox = outboxes.get(session.getId());
+        if (outbox != null)
+            return outbox;
+        outbox = outboxes.computeIfAbsent(session.getId(), id -> new Outbox(session));
+        // the session could have closed while the outbox was being created
+        if (!session.isOpen()) {
+            remove(session.getId());
+            return null;
+        }
+        return outbox;
+    }
+
+    private void schedule(Outbox outbox, boolean wake) {
+        if (outbox.queue.isEmpty() || !outbox.draining.compareAndSet(false, true))
+            return;
+        ready.add(outbox);
+        if (wake) {
+            Thread writer = idleWriters.poll();
+            if (writer != null)
+                LockSupport.unpark(writer);
+        }
+    }
+
+    private void wakeWriters() {
+        Thread writer;
+        while (!ready.isEmpty() && (writer = idleWriters.poll()) != null)
+            LockSupport.unpark(writer);
+    }
+
+    private void write() {
+        Thread self = Thread.currentThread();
+        while (!stopped) {
+            Outbox outbox = ready.poll();
+            if (outbox != null) {
+                drain(outbox);
+                continue;
+            }
+            idleWriters.add(self);
+            // an outbox made ready meanwhile could have found no idle writer to wake
+            if (ready.isEmpty() && !stopped)
+                LockSupport.park(this);
+            idleWriters.remove(self);
+        }
+    }
+
+    private void drain(Outbox outbox) {
+        WebSocketSession session = outbox.session;
+        outbox.claimWriter();
+        try {
+            Entry entry;
+            for (int i = 0; i < DRAIN_BATCH && (entry = outbox.queue.poll()) != null; ++i) {
+                if (!entry.claim())
+                    continue;
+                outbox.queuedBytes.addAndGet(-entry.bytes);
+                if (!session.isOpen()) {
+                    remove(session.getId());
+                    return;
+                }
+                outbox.sendStartedAt = System.nanoTime();
+                outbox.sending = true;
+                session.sendMessage(entry.frame);
+                outbox.sending = false;
+                count(entry);
+            }
+        } catch (IOException | RuntimeException e) {
+            // the watchdog has closed the session already
+            if (outbox.timedOut)
+                return;
+            errors.increment();
+            if (logger.isDebugEnabled())
+                logger.debug("Error writing to session " + session.getId() + ": " + e.getMessage());
+            remove(session.getId());
+            close(session, CloseStatus.SERVER_ERROR);
+            return;
+        } finally {
+            outbox.releaseWriter();
+            outbox.draining.set(false);
+        }
+        // a busy writer is awake already, it takes the outbox once done with its own
+        schedule(outbox, false);
+    }
+
+    /**
+     * Closes sessions whose write in flight is overdue
+     */
+    void checkDeadlines() {
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Outbox outbox : outboxes.values()) {
+            if (!outbox.sending || !outbox.interruptIfOverdue(now, timeoutNanos))
+                continue;
+            timeouts.increment();
+            logger.info("Closing session " + outbox.session.getId() + " after a write took over " + timeoutMillis + " ms");
+            remove(outbox.session.getId());
+            close(outbox.session, SEND_TIMEOUT);
+        }
+    }
+
+    private void count(Entry entry) {
+        bytes.add(entry.bytes);
+        if (entry.type == null)
+            return;
+        Counter frames = framesByType.get(entry.type);
+        if (frames == null)
+            frames = framesByType.computeIfAbsent(entry.type, type -> metrics.counter("shooter_frames_out_total", "type", type));
+        frames.increment();
+    }
+
+    private void evict(Outbox outbox) {
+        if (!outbox.evicted.compareAndSet(false, true))
+            return;
+        slowConsumers.increment();
+        logger.info("Closing session " + outbox.session.getId() + " after its outbox grew to "
+                + outbox.queuedBytes.get() + " bytes");
+        remove(outbox.session.getId());
+        // closing writes a frame too, which must not hold the sender
+        watchdog.execute(() -> close(outbox.session, SLOW_CONSUMER));
+    }
+
+    private void close(WebSocketSession session, CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Error closing session " + session.getId(), e);
+        }
+    }
+
+    private void remove(String sessionId) {
+        Outbox outbox = outboxes.remove(sessionId);
+        if (outbox != null) {
+            outbox.queue.clear();
+            for (int i = 0; i < LATEST_TYPES; ++i)
+                outbox.latest.set(i, null);
+            outbox.queuedBytes.set(0);
+        }
+    }
+
+    @Override
+    public void onClientDisconnected(WebSocketSession session, CloseStatus status) {
+        remove(session.getId());
+    }
+
+    public long getQueuedBytes() {
+        long queued = 0;
+        for (Outbox outbox : outboxes.values())
+            queued += outbox.queuedBytes.get();
+        return queued;
+    }
+
+    private static class Outbox {
+        final WebSocketSession session;
+        final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+        /**
+         * Last message of each type which a newer one replaces, if still queued, by the slot of the type.
+         * Sent ones stay until then, replacing an entry costs less than removing it on every write.
+         */
+        final AtomicReferenceArray<Entry> latest = new AtomicReferenceArray<>(LATEST_TYPES);
+        final AtomicLong queuedBytes = new AtomicLong();
+        final AtomicBoolean draining = new AtomicBoolean();
+        final AtomicBoolean evicted = new AtomicBoolean();
+        volatile long sendStartedAt;
+        volatile boolean sending;
+        volatile boolean timedOut;
+        /**
+         * Thread draining the outbox, guarded by the outbox
+         */
+        private Thread writer;
+
+        Outbox(WebSocketSession session) {
+            this.session = session;
+        }
+
+        synchronized void claimWriter() {
+            writer = Thread.currentThread();
+        }
+
+        /**
+         * Also clears an interrupt which came too late to abort a write, so that it can't hit another session
+         */
+        synchronized void releaseWriter() {
+            writer = null;
+            sending = false;
+            Thread.interrupted();
+        }
+
+        /**
+         * @return whether the write in flight was overdue and its writer has been interrupted
+         */
+        synchronized boolean interruptIfOverdue(long now, long timeoutNanos) {
+            if (writer == null || !sending || timedOut || now - sendStartedAt < timeoutNanos)
+                return false;
+            timedOut = true;
+            writer.interrupt();
+            return true;
+        }
+    }
+
+    private static class Entry {
+        final String type;
+        final WebSocketMessage<?> frame;
+        final int bytes;
+        /**
+         * Set by the writer taking the entry or by the newer message replacing it, whichever is first
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Entry(String type, WebSocketMessage<?> frame, int bytes) {
+            this.type = type;
+            this.frame = frame;
+            this.bytes = bytes;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
@@ -1,16 +1,289 @@
 package ru.zyulyaev.webrtc.shooter.websocket;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
 import org.springframework.web.socket.TextMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.ClientData;
+import ru.zyulyaev.webrtc.shooter.websocket.message.HostData;
+import ru.zyulyaev.webrtc.shooter.websocket.message.HostsMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidateMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidatesMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.PeersDeltaMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.PeersSnapshotMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RejectMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RelayMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.SessionDescriptionMessage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Created by nikita on 03.01.15.
+ *
+ * Messages the server sends are written by hand into a per-thread buffer, with the type header cached
+ * per type, instead of reflecting over them with gson and concatenating the header to the result.
+ * Output is the same as gson's, escaping included. Anything else still goes through gson.
  */
 public class MessageUtils {
     private static final Gson GSON = new Gson();
+    /**
+     * Between the type and the body of a text frame
+     */
+    public static final String SEPARATOR = "\n\n";
+    /**
+     * Buffers which grew beyond this by encoding a huge message are not kept
+     */
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+    private static final String[] ESCAPES = new String[128];
+
+    static {
+        for (int c = 0; c < 0x20; ++c)
+            ESCAPES[c] = String.format("\\u%04x", c);
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\f'] = "\\f";
+        // gson is html safe by default
+        ESCAPES['<'] = "\\u003c";
+        ESCAPES['>'] = "\\u003e";
+        ESCAPES['&'] = "\\u0026";
+        ESCAPES['='] = "\\u003d";
+        ESCAPES['\''] = "\\u0027";
+    }
+
+    private static final ThreadLocal<StringBuilder> BUFFERS = ThreadLocal.withInitial(StringBuilder::new);
+    private static final ConcurrentMap<String, String> HEADERS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Encoder<?>> ENCODERS = new HashMap<>();
+
+    static {
+        register(SessionDescriptionMessage.class, (out, message) -> {
+            int start = out.append('{').length();
+            writeStringField(out, start, "id", message.getId());
+            writeElementField(out, start, "description", message.getDescription());
+            out.append('}');
+        });
+        register(IceCandidateMessage.class, (out, message) -> {
+            int start = out.append('{').length();
+            writeStringField(out, start, "id", message.getId());
+            writeElementField(out, start, "candidate", message.getCandidate());
+            out.append('}');
+        });
+        register(IceCandidatesMessage.class, (out, message) -> {
+            int start = out.append('{').length();
+            writeStringField(out, start, "id", message.getId());
+            if (message.getCandidates() != null) {
+                field(out, start, "candidates").append('[');
+                for (int i = 0; i < message.getCandidates().size(); ++i)
+                    writeElement(out.append(i == 0 ? "" : ","), message.getCandidates().get(i));
+                out.append(']');
+            }
+            out.append('}');
+        });
+        register(RejectMessage.class, (out, message) -> {
+            int start = out.append('{').length();
+            writeStringField(out, start, "id", message.getId());
+            writeStringField(out, start, "reason", message.getReason());
+            out.append('}');
+        });
+        register(RelayMessage.class, (out, message) -> {
+            int start = out.append('{').length();
+            writeStringField(out, start, "id", message.getId());
+            field(out, start, "peerId").append(message.getPeerId());
+            writeStringField(out, start, "token", message.getToken());
+            out.append('}');
+        });
+        register(HostsMessage.class, (out, message) -> {
+            out.append('[');
+            for (int i = 0; i < message.getHosts().size(); ++i) {
+                HostData host = message.getHosts().get(i);
+                int start = out.append(i == 0 ? "{" : ",{").length();
+                writeStringField(out, start, "id", host.getId());
+                field(out, start, "secured").append(host.isSecured()).append('}');
+            }
+            out.append(']');
+        });
+        register(PeersSnapshotMessage.class, (out, message) -> {
+            int start = out.append('{').length();
+            field(out, start, "version").append(message.getVersion());
+            writeStringField(out, start, "self", message.getSelf());
+            writeClients(field(out, start, "peers"), message.getPeers());
+            out.append('}');
+        });
+        register(PeersDeltaMessage.class, (out, message) -> {
+            out.append("{\"from\":").append(message.getFrom()).append(",\"to\":").append(message.getTo());
+            writeClients(out.append(",\"joined\":"), message.getJoined());
+            out.append(",\"left\":[");
+            for (int i = 0; i < message.getLeft().size(); ++i)
+                writeString(out.append(i == 0 ? "" : ","), message.getLeft().get(i).getId());
+            out.append("]}");
+        });
+    }
 
     public static TextMessage toTextMessage(String type, Object data) {
-        return new TextMessage(type + "\n\n" + GSON.toJson(data));
+        String header = HEADERS.get(type);
+        if (header == null)
+            header = HEADERS.computeIfAbsent(type, key -> key + SEPARATOR);
+        StringBuilder out = BUFFERS.get();
+        out.setLength(0);
+        out.append(header);
+        if (!write(out, data))
+            return new TextMessage(header + GSON.toJson(data));
+        TextMessage message = new TextMessage(out.toString());
+        if (out.capacity() > MAX_POOLED_CAPACITY)
+            BUFFERS.remove();
+        return message;
+    }
+
+    /**
+     * Counterpart of {@link #toTextMessage} for frames the server gets in-process
+     *
+     * @return body of the message, or {@code null} if it is of another type
+     * @throws JsonParseException if the body isn't a message of the class
+     */
+    public static <T> T fromTextMessage(TextMessage message, String type, Class<T> clazz) {
+        String payload = message.getPayload();
+        if (!payload.startsWith(type) || !payload.startsWith(SEPARATOR, type.length()))
+            return null;
+        T body;
+        try {
+            body = GSON.fromJson(payload.substring(type.length() + SEPARATOR.length()), clazz);
+        } catch (IllegalArgumentException e) {
+            // gson reports a value of the wrong JSON kind for a field this way
+            throw new JsonParseException(e);
+        }
+        if (body == null)
+            throw new JsonParseException("No message body");
+        return body;
+    }
+
+    private static <T> void register(Class<T> clazz, Encoder<T> encoder) {
+        ENCODERS.put(clazz, encoder);
+    }
+
+    /**
+     * @return {@code false} if there is no encoder for the data
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean write(StringBuilder out, Object data) {
+        if (data == null) {
+            out.append("null");
+            return true;
+        }
+        Encoder<Object> encoder = (Encoder<Object>) ENCODERS.get(data.getClass());
+        if (encoder == null)
+            return false;
+        encoder.write(out, data);
+        return true;
+    }
+
+    private static void writeClients(StringBuilder out, List<ClientData> clients) {
+        out.append('[');
+        for (int i = 0; i < clients.size(); ++i) {
+            ClientData client = clients.get(i);
+            int start = out.append(i == 0 ? "{" : ",{").length();
+            writeStringField(out, start, "id", client.getId());
+            writeStringField(out, start, "nickname", client.getNickname());
+            out.append('}');
+        }
+        out.append(']');
+    }
+
+    /**
+     * Starts a member of the object whose body starts at {@code start}, after a comma unless it is the first one
+     */
+    private static StringBuilder field(StringBuilder out, int start, String name) {
+        if (out.length() > start)
+            out.append(',');
+        return out.append('"').append(name).append("\":");
+    }
+
+    /**
+     * Null members are left out, as gson does
+     */
+    private static void writeStringField(StringBuilder out, int start, String name, String value) {
+        if (value != null)
+            writeString(field(out, start, name), value);
+    }
+
+    private static void writeElementField(StringBuilder out, int start, String name, JsonElement value) {
+        if (value != null && !value.isJsonNull())
+            writeElement(field(out, start, name), value);
+    }
+
+    private static void writeElement(StringBuilder out, JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            out.append("null");
+        } else if (element.isJsonObject()) {
+            out.append('{');
+            boolean first = true;
+            for (Entry<String, JsonElement> member : ((JsonObject) element).entrySet()) {
+                if (member.getValue().isJsonNull())
+                    continue;
+                if (!first)
+                    out.append(',');
+                first = false;
+                writeString(out, member.getKey());
+                writeElement(out.append(':'), member.getValue());
+            }
+            out.append('}');
+        } else if (element.isJsonArray()) {
+            out.append('[');
+            JsonArray array = (JsonArray) element;
+            for (int i = 0; i < array.size(); ++i)
+                writeElement(out.append(i == 0 ? "" : ","), array.get(i));
+            out.append(']');
+        } else {
+            JsonPrimitive primitive = (JsonPrimitive) element;
+            if (primitive.isString())
+                writeString(out, primitive.getAsString());
+            else if (primitive.isBoolean())
+                out.append(primitive.getAsBoolean());
+            else
+                out.append(primitive.getAsNumber().toString());
+        }
+    }
+
+    private static void writeString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        int last = 0;
+        int length = value.length();
+        for (int i = 0; i < length; ++i) {
+            char c = value.charAt(i);
+            String escape;
+            if (c < ESCAPES.length)
+                escape = ESCAPES[c];
+            else if (c == '\u2028')
+                escape = "\\u2028";
+            else if (c == '\u2029')
+                escape = "\\u2029";
+            else
+                continue;
+            if (escape == null)
+                continue;
+            out.append(value, last, i).append(escape);
+            last = i + 1;
+        }
+        out.append(value, last, length).append('"');
+    }
+
+    @FunctionalInterface
+    private interface Encoder<T> {
+        void write(StringBuilder out, T message);
     }
 
     private MessageUtils() {}
@@ -1,17 +1,30 @@
 package ru.zyulyaev.webrtc.shooter.websocket;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.SubProtocolCapable;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import ru.zyulyaev.webrtc.shooter.metrics.Counter;
+import ru.zyulyaev.webrtc.shooter.metrics.Histogram;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+import ru.zyulyaev.webrtc.shooter.websocket.binary.BinaryCodec;
+import ru.zyulyaev.webrtc.shooter.websocket.binary.MalformedFrameException;
 
 import javax.annotation.PostConstruct;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -21,21 +34,56 @@ import java.util.Map;
  * Created by nikita on 03.01.15.
  */
 @Component
-public class ObservingHandler extends TextWebSocketHandler {
+public class ObservingHandler extends AbstractWebSocketHandler implements SubProtocolCapable {
     private static final Log logger = LogFactory.getLog(ObservingHandler.class);
 
+    /**
+     * Set on a session turned away on connect, which connection handlers never saw
+     */
+    private static final String TURNED_AWAY_ATTRIBUTE = "turnedAway";
+    private static final CloseStatus OVERLOADED = CloseStatus.SERVICE_OVERLOAD.withReason("Overloaded");
+    private static final int MAX_LOGGED_LENGTH = 64;
+
     private final Gson gson = new Gson();
-    private final Map<String, WebSocketMessageHandler<?>> handlers = new HashMap<>();
+    /**
+     * Routes bucketed by the first character of their type, frame type is matched in place
+     */
+    private final Route[][] routes = new Route[128][];
+    private final Map<String, Route> routesByType = new HashMap<>();
+    private final Counter unknownFrames;
+    private final Counter malformedFrames;
+    private final Counter limitedFrames;
 
     @Autowired
     private List<WebSocketConnectionEstablishedHandler> connectedHandlers;
     @Autowired
     private List<WebSocketConnectionClosedHandler> disconnectedHandlers;
+    @Autowired
+    private HeartbeatSender heartbeatSender;
+    @Autowired
+    private BinaryCodec binaryCodec;
+    @Autowired
+    private RateLimiter rateLimiter;
+    @Autowired
+    private SessionDispatcher dispatcher;
 
     @Autowired
-    public ObservingHandler(List<WebSocketMessageHandler> handlers) {
-        for (WebSocketMessageHandler handler : handlers) {
-            this.handlers.put(handler.acceptableType(), handler);
+    public ObservingHandler(List<WebSocketMessageHandler> handlers, MetricRegistry metrics) {
+        unknownFrames = metrics.counter("shooter_frames_dropped_total", "reason", "unknown");
+        malformedFrames = metrics.counter("shooter_frames_dropped_total", "reason", "malformed");
+        limitedFrames = metrics.counter("shooter_frames_dropped_total", "reason", "ratelimited");
+        for (WebSocketMessageHandler<?> handler : handlers) {
+            String type = handler.acceptableType();
+            char first = type.charAt(0);
+            if (first >= routes.length)
+                throw new IllegalArgumentException("Message type should start with ASCII character: " + type);
+            Route[] bucket = routes[first] == null ? new Route[0] : routes[first];
+            bucket = Arrays.copyOf(bucket, bucket.length + 1);
+            bucket[bucket.length - 1] = new Route(type, handler,
+                    metrics.counter("shooter_frames_in_total", "type", type),
+                    metrics.histogram("shooter_handler_nanos", "type", type));
+            routes[first] = bucket;
+            routesByType.put(type, bucket[bucket.length - 1]);
         }
     }
 
@@ -45,31 +93,148 @@ public class ObservingHandler extends TextWebSocketHandler {
         Collections.sort(disconnectedHandlers, AnnotationAwareOrderComparator.INSTANCE);
     }
 
-    private <T> void handle(WebSocketSession session, WebSocketMessageHandler<T> handler, String content) throws Exception {
-        handler.handle(session, gson.fromJson(content, handler.getMessageClass()));
+    private Route findRoute(String payload) {
+        if (payload.isEmpty())
+            return null;
+        char first = payload.charAt(0);
+        if (first >= routes.length || routes[first] == null)
+            return null;
+        for (Route route : routes[first]) {
+            if (payload.startsWith(route.type) && payload.startsWith(MessageUtils.SEPARATOR, route.type.length()))
+                return route;
+        }
+        return null;
+    }
+
+    private <T> void handle(WebSocketSession session, Route route, String payload, int offset) throws Exception {
+        @SuppressWarnings("unchecked")
+        WebSocketMessageHandler<T> handler = (WebSocketMessageHandler<T>) route.handler;
+        long start = System.nanoTime();
+        StringReader reader = new StringReader(payload);
+        reader.skip(offset);
+        T message;
+        try {
+            message = gson.fromJson(new JsonReader(reader), handler.getMessageClass());
+            // an empty body or a literal null
+            if (message == null)
+                throw new JsonParseException("No message body");
+        } catch (JsonParseException | IllegalArgumentException e) {
+            // gson reports a value of the wrong JSON kind for a field as IllegalArgumentException
+            malformedFrames.increment();
+            if (logger.isDebugEnabled())
+                logger.debug("Malformed '" + handler.acceptableType() + "' message: " + e.getMessage());
+            return;
+        }
+        handler.handle(session, message);
+        route.latency.record(System.nanoTime() - start);
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        String[] parts = message.getPayload().split("\n\n", 2);
-        String type = parts[0];
-        String content = parts[1];
-        if (!handlers.containsKey(type)) {
-            logger.debug("Unrecognized client message type '" + type + "' with content \n" + content);
-        } else {
-            handle(session, handlers.get(type), content);
+        // checked first, the limiter would track a session which is never closed through this handler
+        if (isTurnedAway(session))
+            return;
+        String payload = message.getPayload();
+        Route route = findRoute(payload);
+        if (!rateLimiter.tryAcquire(session, route == null ? RateLimiter.UNKNOWN_TYPE : route.type)) {
+            limitedFrames.increment();
+            return;
         }
+        if (route == null) {
+            unknownFrames.increment();
+            if (logger.isDebugEnabled())
+                logger.debug("Unrecognized client message: " + payload.substring(0, Math.min(payload.length(), MAX_LOGGED_LENGTH)));
+            return;
+        }
+        route.frames.increment();
+        dispatcher.tryExecute(session, () -> handle(session, route, payload, route.type.length() + MessageUtils.SEPARATOR.length()));
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        if (isTurnedAway(session))
+            return;
+        String type = BinaryCodec.peekType(message.getPayload());
+        if (!rateLimiter.tryAcquire(session, type == null ? RateLimiter.UNKNOWN_TYPE : type)) {
+            limitedFrames.increment();
+            return;
+        }
+        ByteBuffer payload = message.getPayload();
+        dispatcher.tryExecute(session, () -> handle(session, payload));
+    }
+
+    private void handle(WebSocketSession session, ByteBuffer payload) throws Exception {
+        long start = System.nanoTime();
+        BinaryCodec.Decoded decoded;
+        try {
+            decoded = binaryCodec.decode(payload);
+        } catch (MalformedFrameException e) {
+            malformedFrames.increment();
+            if (logger.isDebugEnabled())
+                logger.debug("Malformed binary message: " + e.getMessage());
+            return;
+        }
+        Route route = routesByType.get(decoded.getType());
+        if (route == null) {
+            unknownFrames.increment();
+            return;
+        }
+        route.frames.increment();
+        dispatch(session, route.handler, decoded.getMessage());
+        route.latency.record(System.nanoTime() - start);
+    }
+
+    private <T> void dispatch(WebSocketSession session, WebSocketMessageHandler<T> handler, Object message) throws Exception {
+        handler.handle(session, handler.getMessageClass().cast(message));
+    }
+
+    @Override
+    public List<String> getSubProtocols() {
+        return Collections.singletonList(BinaryCodec.PROTOCOL);
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) throws Exception {
+        heartbeatSender.onPong(session, message.getPayload());
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        for (WebSocketConnectionEstablishedHandler handler : connectedHandlers)
-            handler.onClientConnected(session);
+        boolean queued = dispatcher.tryConnect(session, () -> {
+            for (WebSocketConnectionEstablishedHandler handler : connectedHandlers)
+                handler.onClientConnected(session);
+        });
+        if (!queued) {
+            session.getAttributes().put(TURNED_AWAY_ATTRIBUTE, Boolean.TRUE);
+            session.close(OVERLOADED);
+        }
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        for (WebSocketConnectionClosedHandler handler : disconnectedHandlers)
-            handler.onClientDisconnected(session, status);
+        if (isTurnedAway(session))
+            return;
+        dispatcher.execute(session, () -> {
+            for (WebSocketConnectionClosedHandler handler : disconnectedHandlers)
+                handler.onClientDisconnected(session, status);
+        });
+    }
+
+    private static boolean isTurnedAway(WebSocketSession session) {
+        return session.getAttributes().containsKey(TURNED_AWAY_ATTRIBUTE);
+    }
+
+    private static class Route {
+        final String type;
+        final WebSocketMessageHandler<?> handler;
+        final Counter frames;
+        final Histogram latency;
+
+        Route(String type, WebSocketMessageHandler<?> handler, Counter frames, Histogram latency) {
+            this.type = type;
+            this.handler = handler;
+            this.frames = frames;
+            this.latency = latency;
+        }
     }
 }
@@ -0,0 +1,92 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.websocket.binary.BinaryCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Message to be sent to one or many sessions. Each wire encoding is computed at most once,
+ * on first send to a session speaking it, and so is the UTF-8 size of the text one.
+ */
+public class OutboundMessage {
+    private static final ByteBuffer NOT_ENCODABLE = ByteBuffer.allocate(0);
+
+    private final String type;
+    private final Object data;
+    private volatile TextMessage text;
+    private volatile ByteBuffer binary;
+    private volatile int textLength = -1;
+
+    public OutboundMessage(String type, Object data) {
+        this.type = type;
+        this.data = data;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Object getData() {
+        return data;
+    }
+
+    public WebSocketMessage<?> encodeFor(WebSocketSession session, BinaryCodec codec) {
+        if (BinaryCodec.isBinarySession(session)) {
+            ByteBuffer encoded = binary;
+            if (encoded == null) {
+                encoded = codec.encode(type, data);
+                binary = encoded = encoded == null ? NOT_ENCODABLE : encoded;
+            }
+            if (encoded != NOT_ENCODABLE)
+                return new BinaryMessage(encoded.duplicate());
+        }
+        return toTextMessage();
+    }
+
+    /**
+     * Size in bytes of a frame which {@link #encodeFor} returned, without encoding the text one again
+     */
+    public int getPayloadLength(WebSocketMessage<?> frame) {
+        TextMessage encoded = text;
+        if (frame != encoded)
+            return frame.getPayloadLength();
+        int length = textLength;
+        if (length < 0)
+            textLength = length = utf8Length(encoded.getPayload());
+        return length;
+    }
+
+    /**
+     * Same as the length of {@code value.getBytes(UTF_8)}, unpaired surrogates included
+     */
+    static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; ++i) {
+            char c = value.charAt(i);
+            if (c < 0x80)
+                continue;
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // four bytes for the pair
+                bytes += 2;
+                ++i;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    public TextMessage toTextMessage() {
+        TextMessage encoded = text;
+        if (encoded == null)
+            text = encoded = MessageUtils.toTextMessage(type, data);
+        return encoded;
+    }
+}
@@ -0,0 +1,167 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-session, per-message-type token buckets checked before a frame is deserialized.
+ * Rejected frames are dropped, and every rejection also takes a token from the session's violation
+ * bucket, a session which exhausts it is closed.
+ * <p>
+ * Limits are {@code rate/burst} pairs, {@code shooter.ratelimit.overrides} sets them for
+ * particular message types, e.g. {@code peers=1/5,hosts=1/5}.
+ */
+@Component
+public class RateLimiter implements WebSocketConnectionEstablishedHandler, WebSocketConnectionClosedHandler {
+    private static final Log logger = LogFactory.getLog(RateLimiter.class);
+
+    /**
+     * Bucket shared by frames of unknown type
+     */
+    public static final String UNKNOWN_TYPE = "";
+
+    @Value("${shooter.ratelimit.rate:50}")
+    private double rate;
+    @Value("${shooter.ratelimit.burst:100}")
+    private double burst;
+    @Value("${shooter.ratelimit.overrides:peers=2/5,hosts=2/5,host=1/3}")
+    private String overrides;
+    @Value("${shooter.ratelimit.violationRate:1}")
+    private double violationRate;
+    @Value("${shooter.ratelimit.violationBurst:20}")
+    private double violationBurst;
+
+    @Autowired
+    private MetricRegistry metrics;
+
+    private final Map<String, Limit> limits = new HashMap<>();
+    private final ConcurrentMap<String, SessionLimits> sessions = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private Limit defaultLimit;
+    private Limit violationLimit;
+
+    @PostConstruct
+    protected void init() {
+        defaultLimit = new Limit(rate, burst);
+        violationLimit = new Limit(violationRate, violationBurst);
+        metrics.counter("shooter_ratelimit_disconnects_total", this::getDisconnectedCount);
+        for (String override : overrides.split(",")) {
+            if (override.trim().isEmpty())
+                continue;
+            String[] typeAndLimit = override.trim().split("=");
+            String[] rateAndBurst = typeAndLimit.length == 2 ? typeAndLimit[1].split("/") : new String[0];
+            if (rateAndBurst.length != 2)
+                throw new IllegalArgumentException("Rate limit should look like type=rate/burst: " + override);
+            limits.put(typeAndLimit[0], new Limit(Double.parseDouble(rateAndBurst[0]), Double.parseDouble(rateAndBurst[1])));
+        }
+    }
+
+    @Override
+    public void onClientConnected(WebSocketSession session) {
+        sessions.putIfAbsent(session.getId(), new SessionLimits(violationLimit));
+    }
+
+    @Override
+    public void onClientDisconnected(WebSocketSession session, CloseStatus status) {
+        sessions.remove(session.getId());
+    }
+
+    /**
+     * Called on the I/O thread, so frames may arrive before the dispatched connection event
+     * registered the session and its limits are created on demand
+     *
+     * @return {@code false} if the frame should be dropped, the session might be closed then
+     */
+    public boolean tryAcquire(WebSocketSession session, String type) throws IOException {
+        SessionLimits state = sessions.get(session.getId());
+        if (state == null)
+            state = sessions.computeIfAbsent(session.getId(), id -> new SessionLimits(violationLimit));
+        TokenBucket bucket = state.buckets.get(type);
+        if (bucket == null)
+            bucket = state.buckets.computeIfAbsent(type, key -> new TokenBucket(limits.getOrDefault(key, defaultLimit)));
+        if (bucket.tryTake())
+            return true;
+        rejected.increment();
+        if (!state.violations.tryTake() && sessions.remove(session.getId(), state)) {
+            disconnected.increment();
+            logger.info("Closing session " + session.getId() + " for flooding with '" + type + "' messages");
+            session.close(CloseStatus.POLICY_VIOLATION);
+        }
+        return false;
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getDisconnectedCount() {
+        return disconnected.sum();
+    }
+
+    static class Limit {
+        final double tokensPerNano;
+        final double burst;
+
+        Limit(double perSecond, double burst) {
+            this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+        }
+    }
+
+    private static class SessionLimits {
+        final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+        final TokenBucket violations;
+
+        SessionLimits(Limit violationLimit) {
+            this.violations = new TokenBucket(violationLimit);
+        }
+    }
+
+    static class TokenBucket {
+        private final Limit limit;
+        private double tokens;
+        private long updated = System.nanoTime();
+
+        TokenBucket(Limit limit) {
+            this.limit = limit;
+            this.tokens = limit.burst;
+        }
+
+        synchronized boolean tryTake() {
+            long now = System.nanoTime();
+            tokens = Math.min(limit.burst, tokens + (now - updated) * limit.tokensPerNano);
+            updated = now;
+            if (tokens < 1)
+                return false;
+            --tokens;
+            return true;
+        }
+
+        /**
+         * Gives back a token taken for something which didn't happen after all
+         */
+        synchronized void refund() {
+            tokens = Math.min(limit.burst, tokens + 1);
+        }
+
+        synchronized boolean isFull() {
+            return tokens + (System.nanoTime() - updated) * limit.tokensPerNano >= limit.burst;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.metrics.Counter;
+import ru.zyulyaev.webrtc.shooter.metrics.Histogram;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves handling of inbound frames and connection events off the I/O thread which delivered them.
+ * Sessions are striped over single-threaded workers by id, so everything of one session is handled
+ * in arrival order while different sessions proceed in parallel. Worker queues are bounded: a full
+ * queue holds the I/O thread up to {@code shooter.dispatch.offerTimeoutMillis}, which stops reading
+ * from the connection, and then the frame is dropped. A new session waits for room up to
+ * {@code shooter.dispatch.connectTimeoutMillis} and is turned away after that. A closed session's event
+ * never waits and is never dropped: there is at most one per session, so such events can't outgrow
+ * the number of sessions.
+ * <p>
+ * With {@code shooter.dispatch.mode=inline} everything runs on the I/O thread, as before.
+ */
+@Component
+public class SessionDispatcher {
+    private static final Log logger = LogFactory.getLog(SessionDispatcher.class);
+
+    @Value("${shooter.dispatch.mode:striped}")
+    private String mode;
+    /**
+     * Number of workers, 0 means one per processor
+     */
+    @Value("${shooter.dispatch.threads:0}")
+    private int threads;
+    @Value("${shooter.dispatch.queueCapacity:1024}")
+    private int queueCapacity;
+    @Value("${shooter.dispatch.offerTimeoutMillis:1000}")
+    private long offerTimeoutMillis;
+    @Value("${shooter.dispatch.connectTimeoutMillis:5000}")
+    private long connectTimeoutMillis;
+
+    @Autowired
+    private MetricRegistry metrics;
+
+    private Stripe[] stripes;
+    private Counter dropped;
+    private Counter turnedAway;
+    private Histogram queueWait;
+
+    @PostConstruct
+    protected void init() {
+        if ("inline".equals(mode))
+            return;
+        if (!"striped".equals(mode))
+            throw new IllegalArgumentException("Dispatch mode should be either inline or striped: " + mode);
+        int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; ++i) {
+            stripes[i] = new Stripe(queueCapacity);
+            Thread thread = new Thread(stripes[i], "shooter-dispatch-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            stripes[i].thread = thread;
+        }
+        dropped = metrics.counter("shooter_frames_dropped_total", "reason", "overloaded");
+        turnedAway = metrics.counter("shooter_sessions_rejected_total", "reason", "overloaded");
+        queueWait = metrics.histogram("shooter_dispatch_wait_nanos");
+        metrics.gauge("shooter_dispatch_queued", this::getQueuedCount);
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        if (stripes == null)
+            return;
+        for (Stripe stripe : stripes)
+            stripe.thread.interrupt();
+    }
+
+    /**
+     * Queues a frame of the session, waiting a bounded time for room in the queue
+     *
+     * @return {@code false} if the frame was dropped because the worker is overloaded
+     */
+    public boolean tryExecute(WebSocketSession session, SessionTask task) throws Exception {
+        if (stripes == null) {
+            task.run();
+            return true;
+        }
+        if (stripeOf(session).offer(new Job(session, task, true), offerTimeoutMillis))
+            return true;
+        dropped.increment();
+        if (logger.isDebugEnabled())
+            logger.debug("Dropping frame of session " + session.getId() + ", dispatch queue is full");
+        return false;
+    }
+
+    /**
+     * Queues the event of a session having connected, waiting a bounded time for room in the queue
+     *
+     * @return {@code false} if the worker is overloaded, the session should be turned away then
+     */
+    public boolean tryConnect(WebSocketSession session, SessionTask task) throws Exception {
+        if (stripes == null) {
+            task.run();
+            return true;
+        }
+        if (stripeOf(session).offer(new Job(session, task, true), connectTimeoutMillis))
+            return true;
+        turnedAway.increment();
+        logger.warn("Turning away session " + session.getId() + ", dispatch queue is full");
+        return false;
+    }
+
+    /**
+     * Queues the event of a session having closed, such events are never dropped and never wait
+     */
+    public void execute(WebSocketSession session, SessionTask task) throws Exception {
+        if (stripes == null)
+            task.run();
+        else
+            stripeOf(session).queue.add(new Job(session, task, false));
+    }
+
+    public long getQueuedCount() {
+        long queued = 0;
+        if (stripes != null) {
+            for (Stripe stripe : stripes)
+                queued += stripe.queue.size();
+        }
+        return queued;
+    }
+
+    private Stripe stripeOf(WebSocketSession session) {
+        return stripes[Math.floorMod(session.getId().hashCode(), stripes.length)];
+    }
+
+    /**
+     * Work done for a session, failures close the session as they would on the I/O thread
+     */
+    @FunctionalInterface
+    public interface SessionTask {
+        void run() throws Exception;
+    }
+
+    private class Job {
+        final WebSocketSession session;
+        final SessionTask task;
+        /**
+         * Whether the job holds a permit of the queue
+         */
+        final boolean bounded;
+        final long queuedAt = System.nanoTime();
+
+        Job(WebSocketSession session, SessionTask task, boolean bounded) {
+            this.session = session;
+            this.task = task;
+            this.bounded = bounded;
+        }
+
+        void run() {
+            queueWait.record(System.nanoTime() - queuedAt);
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.error("Error handling message of session " + session.getId() + ", closing it", e);
+                try {
+                    session.close(CloseStatus.SERVER_ERROR);
+                } catch (IOException | RuntimeException closeError) {
+                    logger.warn("Error closing session " + session.getId(), closeError);
+                }
+            }
+        }
+    }
+
+    private static class Stripe implements Runnable {
+        final BlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+        /**
+         * Room for frames and connects, the queue's capacity
+         */
+        final Semaphore permits;
+        Thread thread;
+
+        Stripe(int capacity) {
+            this.permits = new Semaphore(capacity);
+        }
+
+        boolean offer(Job job, long timeoutMillis) throws InterruptedException {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS))
+                return false;
+            queue.add(job);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Job job;
+                try {
+                    job = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (job.bounded)
+                    permits.release();
+                job.run();
+            }
+        }
+    }
+}
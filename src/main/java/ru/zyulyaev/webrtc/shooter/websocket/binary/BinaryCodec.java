@@ -0,0 +1,310 @@
+package ru.zyulyaev.webrtc.shooter.websocket.binary;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.AcceptMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.ClientListSendingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.HostManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.IceMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.OfferMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.RejectMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.ClientData;
+import ru.zyulyaev.webrtc.shooter.websocket.message.HostData;
+import ru.zyulyaev.webrtc.shooter.websocket.message.HostMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.HostsMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidateMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidatesMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.PeersDeltaMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.PeersSnapshotMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RejectMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.SessionDescriptionMessage;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Compact binary encoding of signaling messages, negotiated with the {@value #PROTOCOL} subprotocol.
+ * <p>
+ * Frame is a message type byte followed by its fields. Integers are unsigned LEB128 varints,
+ * strings are UTF-8 prefixed with their byte length, peers are referred to by numeric peer id
+ * instead of session id. The id of a peer being its peer id in decimal, the two map onto each other
+ * without a lookup, so messages to a peer which is away are held as any others:
+ * <pre>
+ * offer, accept:  peerId, sdpType byte (offer, answer, pranswer, rollback), sdp
+ * ice:            peerId, candidate, sdpMid (nullable), sdpMLineIndex + 1 (0 is null)
+ * ices:           peerId, count, (candidate, sdpMid (nullable), sdpMLineIndex + 1)*
+ * end of ice:     peerId
+ * reject:         peerId, reason (nullable)
+ * host, hosts and peers requests have no fields
+ * hosts:          count, (peerId, secured byte)*
+ * peers:          version, self peerId, count, (peerId, nickname)*
+ * peersdelta:     from, to, joined count, (peerId, nickname)*, left count, peerId*
+ * </pre>
+ */
+@Component
+public class BinaryCodec {
+    public static final String PROTOCOL = "shooter.bin.1";
+
+    static final int OFFER = 1;
+    static final int ACCEPT = 2;
+    static final int ICE = 3;
+    static final int REJECT = 4;
+    static final int HOST = 5;
+    static final int HOSTS = 6;
+    static final int PEERS = 7;
+    static final int PEERS_DELTA = 8;
+    static final int ICES = 9;
+    static final int END_OF_ICE = 10;
+
+    private static final String[] SDP_TYPES = {"offer", "answer", "pranswer", "rollback"};
+    private static final int INITIAL_CAPACITY = 256;
+    private static final String[] TYPES = new String[END_OF_ICE + 1];
+
+    static {
+        TYPES[OFFER] = OfferMessageHandler.OFFER_TYPE;
+        TYPES[ACCEPT] = AcceptMessageHandler.ACCEPT_TYPE;
+        TYPES[ICE] = IceMessageHandler.ICE_TYPE;
+        TYPES[END_OF_ICE] = IceMessageHandler.ICE_TYPE;
+        TYPES[REJECT] = RejectMessageHandler.REJECT_TYPE;
+        TYPES[HOST] = HostManagerHandler.HOST_TYPE;
+        TYPES[HOSTS] = HostManagerHandler.HOSTS_TYPE;
+        TYPES[PEERS] = ClientListSendingHandler.PEERS_TYPE;
+    }
+
+    public static boolean isBinarySession(WebSocketSession session) {
+        return PROTOCOL.equals(session.getAcceptedProtocol());
+    }
+
+    /**
+     * @return encoded frame, or {@code null} if this message has no binary representation
+     */
+    public ByteBuffer encode(String type, Object data) {
+        BinaryWriter writer = new BinaryWriter(INITIAL_CAPACITY);
+        boolean encoded;
+        switch (type) {
+            case OfferMessageHandler.OFFER_TYPE:
+                encoded = writeDescription(writer.writeByte(OFFER), (SessionDescriptionMessage) data);
+                break;
+            case AcceptMessageHandler.ACCEPT_TYPE:
+                encoded = writeDescription(writer.writeByte(ACCEPT), (SessionDescriptionMessage) data);
+                break;
+            case IceMessageHandler.ICE_TYPE:
+                encoded = writeCandidate(writer.writeByte(ICE), (IceCandidateMessage) data);
+                break;
+            case IceMessageHandler.ICES_TYPE:
+                encoded = writeCandidates(writer.writeByte(ICES), (IceCandidatesMessage) data);
+                break;
+            case RejectMessageHandler.REJECT_TYPE:
+                encoded = writeReject(writer.writeByte(REJECT), (RejectMessage) data);
+                break;
+            case HostManagerHandler.HOSTS_TYPE:
+                encoded = writeHosts(writer.writeByte(HOSTS), (HostsMessage) data);
+                break;
+            case ClientListSendingHandler.PEERS_TYPE:
+                encoded = writeSnapshot(writer.writeByte(PEERS), (PeersSnapshotMessage) data);
+                break;
+            case ClientListSendingHandler.PEERS_DELTA_TYPE:
+                encoded = writeDelta(writer.writeByte(PEERS_DELTA), (PeersDeltaMessage) data);
+                break;
+            default:
+                encoded = false;
+        }
+        return encoded ? writer.toByteBuffer() : null;
+    }
+
+    /**
+     * @return type of the message in the frame without decoding it, or {@code null} if unknown
+     */
+    public static String peekType(ByteBuffer frame) {
+        if (!frame.hasRemaining())
+            return null;
+        int type = frame.get(frame.position()) & 0xff;
+        return type < TYPES.length ? TYPES[type] : null;
+    }
+
+    /**
+     * @throws MalformedFrameException if the frame isn't exactly one valid message
+     */
+    public Decoded decode(ByteBuffer frame) {
+        BinaryReader reader = new BinaryReader(frame);
+        Decoded decoded = read(reader);
+        if (reader.hasRemaining())
+            throw new MalformedFrameException("Trailing bytes after '" + decoded.getType() + "' message");
+        return decoded;
+    }
+
+    private Decoded read(BinaryReader reader) {
+        int type = reader.readByte();
+        switch (type) {
+            case OFFER:
+                return new Decoded(OfferMessageHandler.OFFER_TYPE, readDescription(reader));
+            case ACCEPT:
+                return new Decoded(AcceptMessageHandler.ACCEPT_TYPE, readDescription(reader));
+            case ICE:
+                return new Decoded(IceMessageHandler.ICE_TYPE, readCandidate(reader));
+            case END_OF_ICE:
+                return new Decoded(IceMessageHandler.ICE_TYPE, new IceCandidateMessage(readSessionId(reader), null));
+            case REJECT:
+                return new Decoded(RejectMessageHandler.REJECT_TYPE, new RejectMessage(readSessionId(reader), reader.readNullableString()));
+            case HOST:
+                return new Decoded(HostManagerHandler.HOST_TYPE, new HostMessage());
+            case HOSTS:
+                return new Decoded(HostManagerHandler.HOSTS_TYPE, JsonNull.INSTANCE);
+            case PEERS:
+                return new Decoded(ClientListSendingHandler.PEERS_TYPE, JsonNull.INSTANCE);
+            default:
+                throw new MalformedFrameException("Unknown message type " + type);
+        }
+    }
+
+    private boolean writePeer(BinaryWriter writer, String id) {
+        int peerId = SessionManagerHandler.toPeerId(id);
+        if (peerId < 0)
+            return false;
+        writer.writeVarInt(peerId);
+        return true;
+    }
+
+    private String readSessionId(BinaryReader reader) {
+        int peerId = reader.readVarInt();
+        if (peerId <= 0)
+            throw new MalformedFrameException("Invalid peer id " + peerId);
+        return Integer.toString(peerId);
+    }
+
+    private boolean writeDescription(BinaryWriter writer, SessionDescriptionMessage message) {
+        JsonObject description = message.getDescription();
+        String sdpType = getString(description, "type");
+        String sdp = getString(description, "sdp");
+        int sdpTypeCode = indexOf(SDP_TYPES, sdpType);
+        if (sdp == null || sdpTypeCode < 0 || !writePeer(writer, message.getId()))
+            return false;
+        writer.writeByte(sdpTypeCode).writeString(sdp);
+        return true;
+    }
+
+    private SessionDescriptionMessage readDescription(BinaryReader reader) {
+        String id = readSessionId(reader);
+        int sdpTypeCode = reader.readByte();
+        if (sdpTypeCode >= SDP_TYPES.length)
+            throw new MalformedFrameException("Unknown sdp type " + sdpTypeCode);
+        JsonObject description = new JsonObject();
+        description.addProperty("type", SDP_TYPES[sdpTypeCode]);
+        description.addProperty("sdp", reader.readString());
+        return new SessionDescriptionMessage(id, description);
+    }
+
+    private boolean writeCandidate(BinaryWriter writer, IceCandidateMessage message) {
+        JsonObject candidate = message.getCandidate();
+        if (getString(candidate, "candidate") == null || !writePeer(writer, message.getId()))
+            return false;
+        writeCandidateFields(writer, candidate);
+        return true;
+    }
+
+    private boolean writeCandidates(BinaryWriter writer, IceCandidatesMessage message) {
+        for (JsonObject candidate : message.getCandidates()) {
+            if (getString(candidate, "candidate") == null)
+                return false;
+        }
+        if (!writePeer(writer, message.getId()))
+            return false;
+        writer.writeVarInt(message.getCandidates().size());
+        for (JsonObject candidate : message.getCandidates())
+            writeCandidateFields(writer, candidate);
+        return true;
+    }
+
+    private static void writeCandidateFields(BinaryWriter writer, JsonObject candidate) {
+        JsonElement index = candidate.get("sdpMLineIndex");
+        writer.writeString(getString(candidate, "candidate"))
+                .writeNullableString(getString(candidate, "sdpMid"))
+                .writeVarInt(index == null || !index.isJsonPrimitive() || !index.getAsJsonPrimitive().isNumber() ? 0 : index.getAsInt() + 1);
+    }
+
+    private IceCandidateMessage readCandidate(BinaryReader reader) {
+        String id = readSessionId(reader);
+        JsonObject candidate = new JsonObject();
+        candidate.addProperty("candidate", reader.readString());
+        String sdpMid = reader.readNullableString();
+        if (sdpMid != null)
+            candidate.addProperty("sdpMid", sdpMid);
+        int index = reader.readVarInt();
+        if (index != 0)
+            candidate.add("sdpMLineIndex", new JsonPrimitive(index - 1));
+        return new IceCandidateMessage(id, candidate);
+    }
+
+    private boolean writeReject(BinaryWriter writer, RejectMessage message) {
+        if (!writePeer(writer, message.getId()))
+            return false;
+        writer.writeNullableString(message.getReason());
+        return true;
+    }
+
+    private boolean writeHosts(BinaryWriter writer, HostsMessage message) {
+        writer.writeVarInt(message.getHosts().size());
+        for (HostData data : message.getHosts())
+            writer.writeVarInt(data.getPeerId()).writeByte(data.isSecured() ? 1 : 0);
+        return true;
+    }
+
+    private boolean writeSnapshot(BinaryWriter writer, PeersSnapshotMessage snapshot) {
+        writer.writeVarLong(snapshot.getVersion())
+                .writeVarInt(snapshot.getSelfPeerId());
+        writeClients(writer, snapshot.getPeers());
+        return true;
+    }
+
+    private boolean writeDelta(BinaryWriter writer, PeersDeltaMessage delta) {
+        writer.writeVarLong(delta.getFrom())
+                .writeVarLong(delta.getTo());
+        writeClients(writer, delta.getJoined());
+        writer.writeVarInt(delta.getLeft().size());
+        for (ClientData data : delta.getLeft())
+            writer.writeVarInt(data.getPeerId());
+        return true;
+    }
+
+    private static void writeClients(BinaryWriter writer, List<ClientData> clients) {
+        writer.writeVarInt(clients.size());
+        for (ClientData data : clients)
+            writer.writeVarInt(data.getPeerId()).writeString(data.getNickname());
+    }
+
+    private static String getString(JsonObject object, String property) {
+        JsonElement element = object == null ? null : object.get(property);
+        return element == null || !element.isJsonPrimitive() ? null : element.getAsString();
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i].equals(value))
+                return i;
+        }
+        return -1;
+    }
+
+    public static class Decoded {
+        private final String type;
+        private final Object message;
+
+        Decoded(String type, Object message) {
+            this.type = type;
+            this.message = message;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public Object getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ru.zyulyaev.webrtc.shooter.websocket.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Counterpart of {@link BinaryWriter}, throws {@link MalformedFrameException} on truncated or invalid input
+ */
+class BinaryReader {
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private final ByteBuffer buffer;
+
+    BinaryReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    int readByte() {
+        if (!buffer.hasRemaining())
+            throw new MalformedFrameException("Unexpected end of frame");
+        return buffer.get() & 0xFF;
+    }
+
+    long readVarLong() {
+        long result = 0;
+        for (int i = 0; i < MAX_VARINT_BYTES; ++i) {
+            int b = readByte();
+            result |= (long) (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new MalformedFrameException("Varint is too long");
+    }
+
+    int readVarInt() {
+        long value = readVarLong();
+        if (value > Integer.MAX_VALUE)
+            throw new MalformedFrameException("Value is out of int range: " + value);
+        return (int) value;
+    }
+
+    String readString() {
+        return readBytes(readVarInt());
+    }
+
+    String readNullableString() {
+        int length = readVarInt();
+        return length == 0 ? null : readBytes(length - 1);
+    }
+
+    boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    private String readBytes(int length) {
+        if (length > buffer.remaining())
+            throw new MalformedFrameException("String is longer than the rest of frame");
+        String result;
+        if (buffer.hasArray()) {
+            result = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            result = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+}
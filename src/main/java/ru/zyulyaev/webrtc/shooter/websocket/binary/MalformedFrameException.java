@@ -0,0 +1,12 @@
+package ru.zyulyaev.webrtc.shooter.websocket.binary;
+
+/**
+ * Thrown when a binary frame can't be decoded
+ */
+public class MalformedFrameException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public MalformedFrameException(String message) {
+        super(message);
+    }
+}
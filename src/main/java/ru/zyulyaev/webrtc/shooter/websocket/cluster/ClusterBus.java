@@ -0,0 +1,24 @@
+package ru.zyulyaev.webrtc.shooter.websocket.cluster;
+
+/**
+ * Transport between signaling nodes of a cluster
+ */
+public interface ClusterBus {
+    String getNodeId();
+
+    /**
+     * @return position of this node in the cluster, stable while the cluster configuration doesn't change
+     */
+    int getNodeIndex();
+
+    void start(ClusterListener listener) throws Exception;
+
+    void stop();
+
+    void broadcast(ClusterEvent event);
+
+    /**
+     * @return {@code false} if there is no link to the node at the moment
+     */
+    boolean send(String nodeId, ClusterEvent event);
+}
@@ -0,0 +1,90 @@
+package ru.zyulyaev.webrtc.shooter.websocket.cluster;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Message exchanged between cluster nodes
+ */
+public class ClusterEvent {
+    public enum Kind {
+        SESSION_UP,
+        SESSION_DOWN,
+        HOST_UP,
+        RELAY
+    }
+
+    private Kind kind;
+    private String node;
+    private String id;
+    private int peerId;
+    private String nickname;
+    private String room;
+    private String type;
+    private JsonElement data;
+
+    ClusterEvent() { /* for gson */ }
+
+    private ClusterEvent(Kind kind, String node, String id) {
+        this.kind = kind;
+        this.node = node;
+        this.id = id;
+    }
+
+    public static ClusterEvent sessionUp(String node, String id, int peerId, String nickname, String room) {
+        ClusterEvent event = new ClusterEvent(Kind.SESSION_UP, node, id);
+        event.peerId = peerId;
+        event.nickname = nickname;
+        event.room = room;
+        return event;
+    }
+
+    public static ClusterEvent sessionDown(String node, String id) {
+        return new ClusterEvent(Kind.SESSION_DOWN, node, id);
+    }
+
+    public static ClusterEvent hostUp(String node, String id) {
+        return new ClusterEvent(Kind.HOST_UP, node, id);
+    }
+
+    /**
+     * @param id recipient session id
+     */
+    public static ClusterEvent relay(String node, String id, String type, JsonElement data) {
+        ClusterEvent event = new ClusterEvent(Kind.RELAY, node, id);
+        event.type = type;
+        event.data = data;
+        return event;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getPeerId() {
+        return peerId;
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public JsonElement getData() {
+        return data;
+    }
+}
@@ -0,0 +1,12 @@
+package ru.zyulyaev.webrtc.shooter.websocket.cluster;
+
+/**
+ * Receives events from other nodes of the cluster
+ */
+public interface ClusterListener {
+    void onNodeUp(String nodeId);
+
+    void onNodeDown(String nodeId);
+
+    void onEvent(ClusterEvent event);
+}
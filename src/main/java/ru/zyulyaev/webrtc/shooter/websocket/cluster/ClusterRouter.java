@@ -0,0 +1,215 @@
+package ru.zyulyaev.webrtc.shooter.websocket.cluster;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.websocket.OutboundMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.WebSocketConnectionEstablishedHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.AcceptMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.ClientListSendingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.HostManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.IceMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.MailboxHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.OfferMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.PeerLeftHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.RejectMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionInfo;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.ClientData;
+import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidateMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidatesMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RejectMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.SessionDescriptionMessage;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps track of sessions connected to other nodes and routes signaling to the node owning the recipient.
+ * Every node announces its own sessions and hosts, so peer and host lists of a room are merged
+ * across the cluster. Does nothing unless a {@link ClusterBus} is configured.
+ */
+@Component
+public class ClusterRouter implements WebSocketConnectionEstablishedHandler, PeerLeftHandler, ClusterListener {
+    private static final Log logger = LogFactory.getLog(ClusterRouter.class);
+
+    private static final Map<String, Class<?>> RELAYED_TYPES = new HashMap<>();
+
+    static {
+        RELAYED_TYPES.put(OfferMessageHandler.OFFER_TYPE, SessionDescriptionMessage.class);
+        RELAYED_TYPES.put(AcceptMessageHandler.ACCEPT_TYPE, SessionDescriptionMessage.class);
+        RELAYED_TYPES.put(IceMessageHandler.ICE_TYPE, IceCandidateMessage.class);
+        RELAYED_TYPES.put(IceMessageHandler.ICES_TYPE, IceCandidatesMessage.class);
+        RELAYED_TYPES.put(RejectMessageHandler.REJECT_TYPE, RejectMessage.class);
+    }
+
+    @Autowired(required = false)
+    private ClusterBus bus;
+    @Autowired
+    private SessionManagerHandler sessionManager;
+    @Autowired
+    private ClientListSendingHandler clientList;
+    @Autowired
+    private HostManagerHandler hostManager;
+    @Autowired
+    private MailboxHandler mailbox;
+
+    private final Gson gson = new Gson();
+    private final ConcurrentMap<String, RemotePeer> remotePeers = new ConcurrentHashMap<>();
+    private final Set<String> localHosts = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    protected void init() throws Exception {
+        if (bus != null)
+            bus.start(this);
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        if (bus != null)
+            bus.stop();
+    }
+
+    @Override
+    public void onClientConnected(WebSocketSession session) {
+        if (bus != null && !SessionManagerHandler.isResumed(session))
+            bus.broadcast(sessionUp(session));
+    }
+
+    @Override
+    public void onPeerLeft(SessionInfo info) {
+        if (bus == null)
+            return;
+        localHosts.remove(info.getId());
+        bus.broadcast(ClusterEvent.sessionDown(bus.getNodeId(), info.getId()));
+    }
+
+    public void onHostAdded(WebSocketSession session) {
+        if (bus == null)
+            return;
+        String id = SessionManagerHandler.getId(session);
+        localHosts.add(id);
+        bus.broadcast(ClusterEvent.hostUp(bus.getNodeId(), id));
+    }
+
+    /**
+     * Forwards message to the node owning the recipient
+     *
+     * @return {@code false} if the recipient isn't known to be connected to another node
+     */
+    public boolean route(String recipientId, OutboundMessage message) {
+        RemotePeer peer = bus == null ? null : remotePeers.get(recipientId);
+        if (peer == null || !RELAYED_TYPES.containsKey(message.getType()))
+            return false;
+        return bus.send(peer.node, ClusterEvent.relay(bus.getNodeId(), recipientId, message.getType(),
+                gson.toJsonTree(message.getData())));
+    }
+
+    @Override
+    public void onNodeUp(String nodeId) {
+        for (WebSocketSession session : sessionManager.getSessions())
+            bus.send(nodeId, sessionUp(session));
+        for (String host : localHosts)
+            bus.send(nodeId, ClusterEvent.hostUp(bus.getNodeId(), host));
+    }
+
+    @Override
+    public void onNodeDown(String nodeId) {
+        for (RemotePeer peer : remotePeers.values()) {
+            if (peer.node.equals(nodeId))
+                remove(peer);
+        }
+    }
+
+    @Override
+    public void onEvent(ClusterEvent event) {
+        try {
+            switch (event.getKind()) {
+                case SESSION_UP:
+                    add(new RemotePeer(event.getNode(), event.getId(), event.getPeerId(), event.getRoom()), event.getNickname());
+                    break;
+                case SESSION_DOWN:
+                    RemotePeer peer = remotePeers.get(event.getId());
+                    if (peer != null && peer.node.equals(event.getNode()))
+                        remove(peer);
+                    break;
+                case HOST_UP:
+                    RemotePeer host = remotePeers.get(event.getId());
+                    if (host != null)
+                        hostManager.addRemoteHost(host.room, host.id, host.peerId);
+                    break;
+                case RELAY:
+                    relay(event);
+                    break;
+            }
+        } catch (IOException e) {
+            logger.warn("Error applying cluster event " + event.getKind() + " from " + event.getNode(), e);
+        }
+    }
+
+    private void add(RemotePeer peer, String nickname) {
+        RemotePeer previous = remotePeers.put(peer.id, peer);
+        if (previous != null)
+            clientList.onRemoteLeft(previous.room, previous.id);
+        clientList.onRemoteJoined(peer.room, new ClientData(peer.id, nickname, peer.peerId));
+        mailbox.redirect(peer.id);
+    }
+
+    private void remove(RemotePeer peer) {
+        if (!remotePeers.remove(peer.id, peer))
+            return;
+        clientList.onRemoteLeft(peer.room, peer.id);
+        try {
+            hostManager.removeRemoteHost(peer.room, peer.id);
+        } catch (IOException e) {
+            logger.warn("Error refreshing hosts list", e);
+        }
+    }
+
+    private void relay(ClusterEvent event) throws IOException {
+        Class<?> messageClass = RELAYED_TYPES.get(event.getType());
+        // a peer which is away is held for in the mailbox, like messages from this node's own sessions
+        if (messageClass == null || !sessionManager.hasPeer(event.getId())) {
+            if (logger.isDebugEnabled())
+                logger.debug("Dropping cluster relay '" + event.getType() + "' to " + event.getId());
+            return;
+        }
+        Object data;
+        try {
+            data = gson.fromJson(event.getData(), messageClass);
+        } catch (JsonParseException e) {
+            logger.warn("Malformed cluster relay '" + event.getType() + "' from " + event.getNode(), e);
+            return;
+        }
+        mailbox.deliver(event.getId(), new OutboundMessage(event.getType(), data));
+    }
+
+    private ClusterEvent sessionUp(WebSocketSession session) {
+        SessionInfo info = SessionManagerHandler.getInfo(session);
+        return ClusterEvent.sessionUp(bus.getNodeId(), info.getId(), info.getPeerId(), info.getNickname(), info.getRoom());
+    }
+
+    private static class RemotePeer {
+        final String node;
+        final String id;
+        final int peerId;
+        final String room;
+
+        RemotePeer(String node, String id, int peerId, String room) {
+            this.node = node;
+            this.id = id;
+            this.peerId = peerId;
+            this.room = room;
+        }
+    }
+}
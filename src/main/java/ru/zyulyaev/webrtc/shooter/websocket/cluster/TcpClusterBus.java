@@ -0,0 +1,384 @@
+package ru.zyulyaev.webrtc.shooter.websocket.cluster;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Full mesh of plain TCP links between the nodes listed in the configuration, nodes are identified
+ * by their {@code host:port} address. To avoid duplicate links a node only dials nodes whose address
+ * is lower than its own and accepts connections from the rest. Frames are length-prefixed JSON events.
+ * <p>
+ * The bus listens on the host of its own address only, which should be a private interface. A link starts
+ * with a handshake in which both nodes prove they know the cluster's shared secret: the dialing node sends
+ * its address and a nonce, the accepting node answers with a nonce of its own and an HMAC of its address
+ * and the dialer's nonce, and the dialer replies with an HMAC of its address and the accepting node's nonce.
+ * <p>
+ * Every link has an outgoing queue drained by its own thread. Relayed messages are dropped once
+ * {@value #RELAY_QUEUE_CAPACITY} of them wait in the queue. Membership events are never dropped: when
+ * {@value #MEMBERSHIP_QUEUE_LIMIT} of them wait the link is reset instead, and as every node forgets
+ * the peers of a node whose link went down and announces all of its own when a link comes up, the nodes
+ * resync once it is back. Events for a node whose link is down are dropped, for the same reason.
+ */
+public class TcpClusterBus implements ClusterBus {
+    private static final Log logger = LogFactory.getLog(TcpClusterBus.class);
+
+    private static final int MAX_FRAME_LENGTH = 1 << 20;
+    private static final int MAX_HANDSHAKE_FRAME_LENGTH = 256;
+    private static final int RELAY_QUEUE_CAPACITY = 4096;
+    private static final int MEMBERSHIP_QUEUE_LIMIT = 1 << 16;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    private static final long DIAL_INTERVAL_MILLIS = 1000;
+    private static final int NONCE_BYTES = 16;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final Frame END_OF_LINK = new Frame(new byte[0], false);
+
+    private final Gson gson = new Gson();
+    private final SecureRandom random = new SecureRandom();
+    private final String nodeId;
+    private final int nodeIndex;
+    private final List<String> nodes;
+    private final SecretKeySpec secret;
+    private final ConcurrentMap<String, Link> links = new ConcurrentHashMap<>();
+    private final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "cluster-link");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService dialer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cluster-dialer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile ClusterListener listener;
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     * @param secret shared by all nodes of the cluster
+     */
+    public TcpClusterBus(String self, List<String> nodes, String secret) {
+        this.nodeId = self;
+        this.nodes = new ArrayList<>(nodes);
+        this.nodeIndex = this.nodes.indexOf(self);
+        if (nodeIndex < 0)
+            throw new IllegalArgumentException("Node " + self + " is not listed in cluster nodes " + nodes);
+        if (secret == null || secret.isEmpty())
+            throw new IllegalArgumentException("Cluster secret is not set");
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public int getNodeIndex() {
+        return nodeIndex;
+    }
+
+    @Override
+    public void start(ClusterListener listener) throws IOException {
+        this.listener = listener;
+        running = true;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(toAddress(nodeId));
+        workers.execute(this::acceptLinks);
+        dialer.scheduleWithFixedDelay(this::dialLinks, 0, DIAL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        logger.info("Cluster node " + nodeId + " started");
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        dialer.shutdownNow();
+        try {
+            if (serverSocket != null)
+                serverSocket.close();
+        } catch (IOException e) {
+            logger.warn("Error closing cluster socket", e);
+        }
+        links.values().forEach(Link::close);
+        workers.shutdownNow();
+    }
+
+    @Override
+    public void broadcast(ClusterEvent event) {
+        Frame frame = encode(event);
+        for (Link link : links.values())
+            link.offer(frame);
+    }
+
+    @Override
+    public boolean send(String nodeId, ClusterEvent event) {
+        Link link = links.get(nodeId);
+        return link != null && link.offer(encode(event));
+    }
+
+    private Frame encode(ClusterEvent event) {
+        return new Frame(gson.toJson(event).getBytes(StandardCharsets.UTF_8), event.getKind() != ClusterEvent.Kind.RELAY);
+    }
+
+    private void acceptLinks() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                workers.execute(() -> {
+                    try {
+                        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                        String remote = new String(readFrame(in, MAX_HANDSHAKE_FRAME_LENGTH), StandardCharsets.UTF_8);
+                        if (!nodes.contains(remote) || remote.compareTo(nodeId) <= 0)
+                            throw new IOException("Unexpected cluster node " + remote);
+                        byte[] remoteNonce = readFrame(in, MAX_HANDSHAKE_FRAME_LENGTH);
+                        byte[] nonce = newNonce();
+                        writeFrame(out, nonce);
+                        writeFrame(out, prove(nodeId, remoteNonce));
+                        out.flush();
+                        if (!MessageDigest.isEqual(prove(remote, nonce), readFrame(in, MAX_HANDSHAKE_FRAME_LENGTH)))
+                            throw new IOException("Cluster node " + remote + " failed to authenticate");
+                        socket.setSoTimeout(0);
+                        register(remote, socket, in);
+                    } catch (IOException e) {
+                        logger.warn("Rejected cluster link from " + socket.getRemoteSocketAddress(), e);
+                        closeQuietly(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (running)
+                    logger.warn("Error accepting cluster link", e);
+            }
+        }
+    }
+
+    private void dialLinks() {
+        for (String node : nodes) {
+            if (node.compareTo(nodeId) >= 0 || links.containsKey(node))
+                continue;
+            Socket socket = new Socket();
+            try {
+                socket.connect(toAddress(node), CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                byte[] nonce = newNonce();
+                writeFrame(out, nodeId.getBytes(StandardCharsets.UTF_8));
+                writeFrame(out, nonce);
+                out.flush();
+                byte[] remoteNonce = readFrame(in, MAX_HANDSHAKE_FRAME_LENGTH);
+                if (!MessageDigest.isEqual(prove(node, nonce), readFrame(in, MAX_HANDSHAKE_FRAME_LENGTH)))
+                    throw new IOException("Cluster node " + node + " failed to authenticate");
+                writeFrame(out, prove(nodeId, remoteNonce));
+                out.flush();
+                socket.setSoTimeout(0);
+                register(node, socket, in);
+            } catch (IOException e) {
+                if (logger.isDebugEnabled())
+                    logger.debug("Cluster node " + node + " is not reachable: " + e.getMessage());
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void register(String remote, Socket socket, DataInputStream in) throws IOException {
+        socket.setTcpNoDelay(true);
+        Link link = new Link(remote, socket, in);
+        Link previous = links.putIfAbsent(remote, link);
+        if (previous != null) {
+            // stale link of a restarted node is still around, the new one wins
+            previous.close();
+            links.put(remote, link);
+        }
+        logger.info("Cluster link to " + remote + " is up");
+        listener.onNodeUp(remote);
+        workers.execute(link::readLoop);
+        workers.execute(link::writeLoop);
+    }
+
+    private byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * @return proof that the node knows the secret, bound to the other node's nonce
+     */
+    private byte[] prove(String node, byte[] nonce) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(node.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] readFrame(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength)
+            throw new IOException("Bad cluster frame length " + length);
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    private static void writeFrame(DataOutputStream out, byte[] frame) throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+    }
+
+    private static InetSocketAddress toAddress(String node) {
+        int colon = node.lastIndexOf(':');
+        if (colon < 0)
+            throw new IllegalArgumentException("Cluster node should be host:port: " + node);
+        return new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)));
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private class Link {
+        private final String remote;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final BlockingQueue<Frame> outbox = new LinkedBlockingQueue<>();
+        private final AtomicInteger queuedRelays = new AtomicInteger();
+        private final AtomicInteger queuedMembership = new AtomicInteger();
+        private volatile boolean closed;
+
+        Link(String remote, Socket socket, DataInputStream in) {
+            this.remote = remote;
+            this.socket = socket;
+            this.in = in;
+        }
+
+        boolean offer(Frame frame) {
+            if (closed)
+                return false;
+            if (frame.membership) {
+                if (queuedMembership.incrementAndGet() > MEMBERSHIP_QUEUE_LIMIT) {
+                    logger.warn("Cluster link to " + remote + " is congested, resetting it to resync membership");
+                    close();
+                    return false;
+                }
+            } else if (queuedRelays.incrementAndGet() > RELAY_QUEUE_CAPACITY) {
+                queuedRelays.decrementAndGet();
+                logger.warn("Cluster link to " + remote + " is congested, dropping event");
+                return false;
+            }
+            outbox.add(frame);
+            return true;
+        }
+
+        void readLoop() {
+            try {
+                while (!closed) {
+                    byte[] frame = readFrame(in, MAX_FRAME_LENGTH);
+                    ClusterEvent event;
+                    try {
+                        event = gson.fromJson(new String(frame, StandardCharsets.UTF_8), ClusterEvent.class);
+                    } catch (JsonParseException e) {
+                        logger.warn("Malformed cluster event from " + remote, e);
+                        continue;
+                    }
+                    listener.onEvent(event);
+                }
+            } catch (IOException e) {
+                if (!closed && logger.isDebugEnabled())
+                    logger.debug("Cluster link to " + remote + " failed: " + e.getMessage());
+            } catch (RuntimeException e) {
+                logger.error("Error handling cluster event from " + remote, e);
+            }
+            close();
+        }
+
+        void writeLoop() {
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                Frame frame;
+                while ((frame = outbox.take()) != END_OF_LINK) {
+                    do {
+                        (frame.membership ? queuedMembership : queuedRelays).decrementAndGet();
+                        writeFrame(out, frame.bytes);
+                    } while ((frame = outbox.poll()) != null && frame != END_OF_LINK);
+                    out.flush();
+                    if (frame == END_OF_LINK)
+                        break;
+                }
+            } catch (IOException e) {
+                if (!closed && logger.isDebugEnabled())
+                    logger.debug("Cluster link to " + remote + " failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            close();
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+            }
+            outbox.offer(END_OF_LINK);
+            closeQuietly(socket);
+            if (links.remove(remote, this)) {
+                logger.info("Cluster link to " + remote + " is down");
+                if (running)
+                    listener.onNodeDown(remote);
+            }
+        }
+    }
+
+    private static class Frame {
+        final byte[] bytes;
+        /**
+         * Whether the frame carries a membership event rather than a relayed message
+         */
+        final boolean membership;
+
+        Frame(byte[] bytes, boolean membership) {
+            this.bytes = bytes;
+            this.membership = membership;
+        }
+    }
+}
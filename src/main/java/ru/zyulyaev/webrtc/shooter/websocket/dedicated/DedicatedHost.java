@@ -0,0 +1,274 @@
+package ru.zyulyaev.webrtc.shooter.websocket.dedicated;
+
+import com.google.gson.JsonParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.game.Connector;
+import ru.zyulyaev.webrtc.shooter.game.GameServer;
+import ru.zyulyaev.webrtc.shooter.metrics.Histogram;
+import ru.zyulyaev.webrtc.shooter.websocket.MessageUtils;
+import ru.zyulyaev.webrtc.shooter.websocket.OutboundMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.OfferMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.RejectMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.RelayMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RejectMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RelayMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.SessionDescriptionMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.relay.RelayEndpoint;
+import ru.zyulyaev.webrtc.shooter.websocket.relay.RelayHub;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Game server of a room run by this node instead of a player's browser. Signaling sees it as one more
+ * session of the room: it is listed among the hosts and gets offers, which it answers by linking the client
+ * to itself over the relay, being the relay connection of its own endpoint as well. Everything delivered to
+ * the session is queued and handled by the game loop at the start of the next tick.
+ */
+class DedicatedHost implements WebSocketSession, Connector {
+    private static final Log logger = LogFactory.getLog(DedicatedHost.class);
+
+    static final String NICKNAME = "dedicated";
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 0);
+    /**
+     * Game frames beyond this many per tick are dropped, as the relay drops frames to slow peers
+     */
+    private static final int FRAMES_CAPACITY = 4096;
+
+    private final String id = UUID.randomUUID().toString();
+    private final String room;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private final AtomicBoolean open = new AtomicBoolean(true);
+    private final Queue<Event> inbox = new ConcurrentLinkedQueue<>();
+    private final Queue<Event> frames = new ArrayBlockingQueue<>(FRAMES_CAPACITY);
+    private final DedicatedHosts owner;
+    private final GameServer server;
+    private final double tickSeconds;
+    private final Histogram tickNanos;
+    // accessed by the game loop only
+    private final Map<String, Integer> peerIds = new HashMap<>();
+    private final Map<Integer, String> clientIds = new HashMap<>();
+    private RelayEndpoint endpoint;
+    volatile ScheduledFuture<?> ticker;
+
+    DedicatedHost(DedicatedHosts owner, String room, double cellSize, long tickMillis, Histogram tickNanos) {
+        this.owner = owner;
+        this.room = room;
+        this.server = new GameServer(this, owner.hub.getMaxFrameBytes() - Integer.BYTES, cellSize, new Random());
+        this.tickSeconds = tickMillis / 1000.0;
+        this.tickNanos = tickNanos;
+        attributes.put(SessionManagerHandler.NICKNAME_ATTRIBUTE, NICKNAME);
+        attributes.put(SessionManagerHandler.ROOM_ATTRIBUTE, room);
+    }
+
+    void tick() {
+        long start = System.nanoTime();
+        drain(inbox);
+        drain(frames);
+        server.tick(tickSeconds);
+        tickNanos.record(System.nanoTime() - start);
+    }
+
+    private void drain(Queue<Event> events) {
+        Event event;
+        while ((event = events.poll()) != null) {
+            try {
+                event.run();
+            } catch (IOException e) {
+                logger.warn("Error handling event of dedicated host " + id, e);
+            }
+        }
+    }
+
+    void onClientDisconnected(String clientId) {
+        inbox.add(() -> {
+            Integer peerId = peerIds.remove(clientId);
+            if (peerId != null) {
+                clientIds.remove(peerId);
+                server.onClose(clientId);
+            }
+        });
+    }
+
+    private void accept(String clientId) throws IOException {
+        WebSocketSession client = owner.sessionManager.getSessionById(clientId);
+        RelayEndpoint[] endpoints = client == null || !room.equals(SessionManagerHandler.getRoom(client))
+                ? null : owner.hub.link(client, this);
+        if (endpoints == null) {
+            owner.mailbox.deliver(clientId, new OutboundMessage(RejectMessageHandler.REJECT_TYPE,
+                    new RejectMessage(SessionManagerHandler.getId(this), "Relay unavailable")));
+            return;
+        }
+        if (endpoint == null) {
+            endpoint = endpoints[1];
+            owner.hub.attach(endpoint.getToken(), this);
+        }
+        owner.mailbox.deliver(clientId, new OutboundMessage(RelayMessageHandler.RELAY_TYPE,
+                new RelayMessage(SessionManagerHandler.getId(this), endpoint.getPeerId(), endpoints[0].getToken())));
+        peerIds.put(clientId, endpoints[0].getPeerId());
+        clientIds.put(endpoints[0].getPeerId(), clientId);
+        server.onOpen(clientId);
+    }
+
+    @Override
+    public void send(String clientId, String message) {
+        Integer peerId = peerIds.get(clientId);
+        if (peerId != null)
+            forward(peerId, message);
+    }
+
+    @Override
+    public void sendAll(String message) {
+        if (!peerIds.isEmpty())
+            forward(RelayHub.BROADCAST, message);
+    }
+
+    private void forward(int peerId, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+        frame.putInt(peerId).put(bytes);
+        frame.flip();
+        owner.hub.forward(endpoint, frame);
+    }
+
+    /**
+     * Offers and relayed game frames are queued for the game loop, pings are answered right away,
+     * the rest of signaling doesn't concern the host. Offers which can't be parsed are dropped.
+     */
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+        if (message instanceof BinaryMessage) {
+            ByteBuffer frame = ((BinaryMessage) message).getPayload().duplicate();
+            int peerId = frame.getInt();
+            String text = StandardCharsets.UTF_8.decode(frame).toString();
+            frames.offer(() -> {
+                String clientId = clientIds.get(peerId);
+                if (clientId != null)
+                    server.onMessage(clientId, text);
+            });
+        } else if (message instanceof TextMessage) {
+            SessionDescriptionMessage offer;
+            try {
+                offer = MessageUtils.fromTextMessage((TextMessage) message, OfferMessageHandler.OFFER_TYPE,
+                        SessionDescriptionMessage.class);
+            } catch (JsonParseException e) {
+                logger.warn("Dropping malformed offer to dedicated host " + id + ": " + e.getMessage());
+                return;
+            }
+            if (offer != null && offer.getId() != null)
+                inbox.add(() -> accept(offer.getId()));
+        } else if (message instanceof PingMessage) {
+            owner.heartbeatSender.onPong(this, ((PingMessage) message).getPayload());
+        }
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public URI getUri() {
+        return null;
+    }
+
+    @Override
+    public HttpHeaders getHandshakeHeaders() {
+        return new HttpHeaders();
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Principal getPrincipal() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return ADDRESS;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return ADDRESS;
+    }
+
+    @Override
+    public String getAcceptedProtocol() {
+        return null;
+    }
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getTextMessageSizeLimit() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getBinaryMessageSizeLimit() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public List<WebSocketExtension> getExtensions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open.get();
+    }
+
+    @Override
+    public void close() {
+        close(CloseStatus.NORMAL);
+    }
+
+    @Override
+    public void close(CloseStatus status) {
+        if (open.compareAndSet(true, false))
+            owner.onHostClosed(this, status);
+    }
+
+    @FunctionalInterface
+    private interface Event {
+        void run() throws IOException;
+    }
+}
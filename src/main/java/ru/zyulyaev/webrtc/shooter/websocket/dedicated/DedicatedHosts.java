@@ -0,0 +1,131 @@
+package ru.zyulyaev.webrtc.shooter.websocket.dedicated;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+import ru.zyulyaev.webrtc.shooter.websocket.HeartbeatSender;
+import ru.zyulyaev.webrtc.shooter.websocket.ObservingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.SessionDispatcher;
+import ru.zyulyaev.webrtc.shooter.websocket.WebSocketConnectionClosedHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.HostManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.MailboxHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.HostMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.relay.RelayHub;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Starts a {@link DedicatedHost} for each of the rooms listed in {@code shooter.dedicated.rooms}, once the
+ * context is up. Games are simulated at a fixed rate, each on one thread of a shared pool at a time.
+ */
+@Component
+public class DedicatedHosts implements ApplicationListener<ContextRefreshedEvent>, WebSocketConnectionClosedHandler {
+    private static final Log logger = LogFactory.getLog(DedicatedHosts.class);
+
+    /**
+     * Comma separated, none by default
+     */
+    @Value("${shooter.dedicated.rooms:}")
+    private String rooms;
+    @Value("${shooter.dedicated.tickMillis:20}")
+    private long tickMillis;
+    /**
+     * Cell size of the broadphase grid, about the size of the usual object works best
+     */
+    @Value("${shooter.dedicated.cellSize:100}")
+    private double cellSize;
+
+    @Autowired
+    private ObservingHandler observingHandler;
+    @Autowired
+    private SessionDispatcher dispatcher;
+    @Autowired
+    private HostManagerHandler hostManager;
+    @Autowired
+    private MetricRegistry metrics;
+    @Autowired
+    SessionManagerHandler sessionManager;
+    @Autowired
+    MailboxHandler mailbox;
+    @Autowired
+    RelayHub hub;
+    @Autowired
+    HeartbeatSender heartbeatSender;
+
+    private final List<DedicatedHost> hosts = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private ScheduledExecutorService ticker;
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (rooms.trim().isEmpty() || !started.compareAndSet(false, true))
+            return;
+        ticker = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "shooter-game");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String room : rooms.split(",")) {
+            if (!room.trim().isEmpty())
+                start(room.trim());
+        }
+    }
+
+    private void start(String room) {
+        DedicatedHost host = new DedicatedHost(this, room, cellSize, tickMillis,
+                metrics.histogram("shooter_game_tick_nanos", "room", room));
+        try {
+            observingHandler.afterConnectionEstablished(host);
+            dispatcher.execute(host, () -> hostManager.handle(host, new HostMessage()));
+        } catch (Exception e) {
+            throw new IllegalStateException("Error starting dedicated host of room " + room, e);
+        }
+        hosts.add(host);
+        host.ticker = ticker.scheduleAtFixedRate(() -> {
+            try {
+                host.tick();
+            } catch (RuntimeException e) {
+                // an exception would cancel the ticks for good
+                logger.error("Error simulating game of room " + room, e);
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        logger.info("Started dedicated host " + host.getId() + " of room " + room);
+    }
+
+    void onHostClosed(DedicatedHost host, CloseStatus status) {
+        hosts.remove(host);
+        if (host.ticker != null)
+            host.ticker.cancel(false);
+        try {
+            observingHandler.afterConnectionClosed(host, status);
+        } catch (Exception e) {
+            logger.warn("Error closing dedicated host " + host.getId(), e);
+        }
+    }
+
+    @Override
+    public void onClientDisconnected(WebSocketSession session, CloseStatus status) throws Exception {
+        for (DedicatedHost host : hosts)
+            host.onClientDisconnected(SessionManagerHandler.getId(session));
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        if (ticker != null)
+            ticker.shutdownNow();
+    }
+}
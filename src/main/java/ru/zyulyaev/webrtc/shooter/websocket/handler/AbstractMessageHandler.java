@@ -1,7 +1,9 @@
 package ru.zyulyaev.webrtc.shooter.websocket.handler;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.socket.WebSocketSession;
-import ru.zyulyaev.webrtc.shooter.websocket.MessageUtils;
+import ru.zyulyaev.webrtc.shooter.websocket.MessageSender;
+import ru.zyulyaev.webrtc.shooter.websocket.OutboundMessage;
 import ru.zyulyaev.webrtc.shooter.websocket.WebSocketMessageHandler;
 
 import java.io.IOException;
@@ -13,13 +15,46 @@ public abstract class AbstractMessageHandler<T> implements WebSocketMessageHandl
     private final String type;
     private final Class<T> clazz;
 
+    @Autowired
+    private MessageSender sender;
+    @Autowired
+    private MailboxHandler mailbox;
+
     protected AbstractMessageHandler(String type, Class<T> clazz) {
         this.type = type;
         this.clazz = clazz;
     }
 
-    protected void send(WebSocketSession session, String type, Object data) throws IOException {
-        session.sendMessage(MessageUtils.toTextMessage(type, data));
+    protected void send(WebSocketSession session, String type, Object data) {
+        send(session, new OutboundMessage(type, data));
+    }
+
+    protected void send(WebSocketSession session, OutboundMessage message) {
+        sender.send(session, message);
+    }
+
+    /**
+     * Sends a message superseding the previous one of its type, see {@link MessageSender#sendLatest}
+     */
+    protected void sendLatest(WebSocketSession session, OutboundMessage message) {
+        sender.sendLatest(session, message);
+    }
+
+    /**
+     * Sends a message superseding the previous one of its type to every one of the sessions, see
+     * {@link MessageSender#broadcastLatest}
+     *
+     * @return number of sessions
+     */
+    protected int broadcastLatest(Iterable<WebSocketSession> sessions, OutboundMessage message) {
+        return sender.broadcastLatest(sessions, message);
+    }
+
+    /**
+     * Sends message to a peer, holding it for a while if the peer isn't connected
+     */
+    protected void relay(String recipientId, String type, Object data) throws IOException {
+        mailbox.deliver(recipientId, new OutboundMessage(type, data));
     }
 
     @Override
@@ -1,6 +1,5 @@
 package ru.zyulyaev.webrtc.shooter.websocket.handler;
 
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.WebSocketSession;
 import ru.zyulyaev.webrtc.shooter.websocket.message.SessionDescriptionMessage;
@@ -12,16 +11,12 @@ import ru.zyulyaev.webrtc.shooter.websocket.message.SessionDescriptionMessage;
 public class AcceptMessageHandler extends AbstractMessageHandler<SessionDescriptionMessage> {
     public static final String ACCEPT_TYPE = "accept";
 
-    @Autowired
-    private SessionManagerHandler sessionManager;
-
     public AcceptMessageHandler() {
         super(ACCEPT_TYPE, SessionDescriptionMessage.class);
     }
 
     @Override
     public void handle(WebSocketSession session, SessionDescriptionMessage message) throws Exception {
-        WebSocketSession recipient = sessionManager.getSessionById(message.getId());
-        send(recipient, ACCEPT_TYPE, new SessionDescriptionMessage(session.getId(), message.getDescription()));
+        relay(message.getId(), ACCEPT_TYPE, new SessionDescriptionMessage(SessionManagerHandler.getId(session), message.getDescription()));
     }
 }
@@ -2,69 +2,186 @@ package ru.zyulyaev.webrtc.shooter.websocket.handler;
 
 import com.google.gson.JsonElement;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.WebSocketSession;
-import ru.zyulyaev.webrtc.shooter.websocket.WebSocketConnectionClosedHandler;
+import ru.zyulyaev.webrtc.shooter.metrics.Histogram;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+import ru.zyulyaev.webrtc.shooter.websocket.OutboundMessage;
 import ru.zyulyaev.webrtc.shooter.websocket.WebSocketConnectionEstablishedHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.ClientData;
+import ru.zyulyaev.webrtc.shooter.websocket.message.PeersDeltaMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.PeersSnapshotMessage;
 
-import java.io.IOException;
-import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by nikita on 03.01.15.
+ *
+ * Clients receive a full snapshot of their room's peer list on connect (or on request) and versioned
+ * join/leave deltas afterwards. Events are coalesced over a short window and every delta is
+ * serialized once for all recipients in the room. Versions are drawn from one counter for all rooms,
+ * so a room which empties and is created again carries on from above any version it had before.
  */
 @Component
 public class ClientListSendingHandler extends AbstractMessageHandler<JsonElement>
-        implements WebSocketConnectionEstablishedHandler,
-        WebSocketConnectionClosedHandler {
+        implements WebSocketConnectionEstablishedHandler, PeerLeftHandler {
     public static final String PEERS_TYPE = "peers";
+    public static final String PEERS_DELTA_TYPE = "peersdelta";
 
     @Autowired
     private SessionManagerHandler sessionManager;
+    @Autowired
+    private MetricRegistry metrics;
+
+    private final ConcurrentMap<String, RoomPeers> rooms = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private Histogram fanOut;
 
     public ClientListSendingHandler() {
         super(PEERS_TYPE, JsonElement.class);
     }
 
+    @PostConstruct
+    protected void init() {
+        fanOut = metrics.histogram("shooter_broadcast_fanout", "type", PEERS_DELTA_TYPE);
+    }
+
     @Override
     public void onClientConnected(WebSocketSession session) throws Exception {
-        refreshLists();
+        SessionInfo info = SessionManagerHandler.getInfo(session);
+        // a resumed peer never left the list
+        RoomPeers peers = SessionManagerHandler.isResumed(session)
+                ? rooms.get(info.getRoom()) : join(info.getRoom(), info.getClientData());
+        if (peers != null)
+            sendSnapshot(session, peers);
     }
 
     @Override
-    public void onClientDisconnected(WebSocketSession session, CloseStatus status) throws Exception {
-        refreshLists();
+    public void onPeerLeft(SessionInfo info) {
+        leave(info.getRoom(), info.getId());
+    }
+
+    /**
+     * Peer connected to another node of the cluster
+     */
+    public void onRemoteJoined(String room, ClientData data) {
+        join(room, data);
     }
 
-    private void refreshLists() throws IOException {
-        for (WebSocketSession client : sessionManager.getSessions())
-            sendList(client);
+    public void onRemoteLeft(String room, String id) {
+        leave(room, id);
     }
 
-    private void sendList(WebSocketSession client) throws IOException {
-        send(
-                client,
-                PEERS_TYPE,
-                sessionManager.getSessions().stream()
-                        .filter(ws -> ws != client)
-                        .map(ws -> new ClientData(ws.getId(), ws.getAttributes().get("nickname").toString()))
-                        .collect(Collectors.toList())
-        );
+    private RoomPeers join(String room, ClientData data) {
+        return rooms.compute(room, (key, existing) -> {
+            RoomPeers result = existing == null ? new RoomPeers(versions) : existing;
+            result.join(data);
+            return result;
+        });
+    }
+
+    private void leave(String room, String id) {
+        RoomPeers peers = rooms.get(room);
+        if (peers != null)
+            peers.leave(id);
+    }
+
+    @Scheduled(fixedDelayString = "${shooter.peers.coalesceMillis:100}")
+    public void flush() {
+        for (Map.Entry<String, RoomPeers> entry : rooms.entrySet()) {
+            String room = entry.getKey();
+            PeersDeltaMessage delta = entry.getValue().drain();
+            rooms.computeIfPresent(room, (key, peers) -> peers.isIdle() ? null : peers);
+            if (delta == null)
+                continue;
+            // a client which hasn't received the previous delta yet catches up with a snapshot on the gap
+            OutboundMessage message = new OutboundMessage(PEERS_DELTA_TYPE, delta);
+            fanOut.record(broadcastLatest(sessionManager.getRoomSessions(room), message));
+        }
+    }
+
+    private void sendSnapshot(WebSocketSession client, RoomPeers peers) {
+        SessionInfo info = SessionManagerHandler.getInfo(client);
+        send(client, PEERS_TYPE, peers.snapshot(info.getId(), info.getPeerId()));
     }
 
     @Override
     public void handle(WebSocketSession session, JsonElement message) throws Exception {
-        sendList(session);
+        RoomPeers peers = rooms.get(SessionManagerHandler.getRoom(session));
+        if (peers != null)
+            sendSnapshot(session, peers);
     }
 
-    private static class ClientData {
-        String id;
-        String nickname;
+    private static class RoomPeers {
+        private final AtomicLong versions;
+        private final Map<String, ClientData> peers = new LinkedHashMap<>();
+        /**
+         * Net change since the last flush, a peer is in at most one of these
+         */
+        private Map<String, ClientData> joined = new LinkedHashMap<>();
+        private Map<String, ClientData> left = new LinkedHashMap<>();
+        private long version;
+        private long flushedVersion;
+
+        RoomPeers(AtomicLong versions) {
+            this.versions = versions;
+            this.version = this.flushedVersion = versions.get();
+        }
+
+        synchronized void join(ClientData data) {
+            peers.put(data.getId(), data);
+            left.remove(data.getId());
+            joined.put(data.getId(), data);
+            version = versions.incrementAndGet();
+        }
+
+        synchronized void leave(String id) {
+            ClientData data = peers.remove(id);
+            if (data == null)
+                return;
+            joined.remove(id);
+            left.put(id, data);
+            version = versions.incrementAndGet();
+        }
+
+        synchronized boolean isIdle() {
+            return peers.isEmpty() && joined.isEmpty() && left.isEmpty();
+        }
+
+        synchronized PeersSnapshotMessage snapshot(String self, int selfPeerId) {
+            List<ClientData> list = new ArrayList<>(peers.size());
+            for (ClientData data : peers.values()) {
+                if (!data.getId().equals(self))
+                    list.add(data);
+            }
+            return new PeersSnapshotMessage(version, self, selfPeerId, list);
+        }
 
-        public ClientData(String id, String nickname) {
-            this.id = id;
-            this.nickname = nickname;
+        PeersDeltaMessage drain() {
+            Map<String, ClientData> joinedChanges;
+            Map<String, ClientData> leftChanges;
+            PeersDeltaMessage delta;
+            synchronized (this) {
+                if (joined.isEmpty() && left.isEmpty())
+                    return null;
+                joinedChanges = joined;
+                leftChanges = left;
+                joined = new LinkedHashMap<>();
+                left = new LinkedHashMap<>();
+                delta = new PeersDeltaMessage(flushedVersion, version);
+                flushedVersion = version;
+            }
+            joinedChanges.values().forEach(delta::addJoined);
+            leftChanges.values().forEach(delta::addLeft);
+            return delta;
         }
     }
 }
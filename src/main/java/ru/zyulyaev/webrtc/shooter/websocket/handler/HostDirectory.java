@@ -0,0 +1,47 @@
+package ru.zyulyaev.webrtc.shooter.websocket.handler;
+
+import ru.zyulyaev.webrtc.shooter.websocket.OutboundMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.HostData;
+import ru.zyulyaev.webrtc.shooter.websocket.message.HostsMessage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hosts list which is encoded once per change, the same frame is then sent to every session.
+ * Clients filter themselves out of the list.
+ */
+class HostDirectory {
+    static final OutboundMessage EMPTY_FRAME = new OutboundMessage(HostManagerHandler.HOSTS_TYPE, HostsMessage.EMPTY);
+
+    private final Map<String, HostData> hosts = new LinkedHashMap<>();
+    private volatile OutboundMessage frame = EMPTY_FRAME;
+
+    synchronized boolean add(String id, int peerId, boolean secured) {
+        if (hosts.containsKey(id))
+            return false;
+        hosts.put(id, new HostData(id, secured, peerId));
+        frame = new OutboundMessage(HostManagerHandler.HOSTS_TYPE, new HostsMessage(new ArrayList<>(hosts.values())));
+        return true;
+    }
+
+    synchronized boolean remove(String id) {
+        if (hosts.remove(id) == null)
+            return false;
+        frame = hosts.isEmpty() ? EMPTY_FRAME : new OutboundMessage(HostManagerHandler.HOSTS_TYPE, new HostsMessage(new ArrayList<>(hosts.values())));
+        return true;
+    }
+
+    synchronized boolean contains(String id) {
+        return hosts.containsKey(id);
+    }
+
+    synchronized boolean isEmpty() {
+        return hosts.isEmpty();
+    }
+
+    OutboundMessage getFrame() {
+        return frame;
+    }
+}
@@ -3,71 +3,129 @@ package ru.zyulyaev.webrtc.shooter.websocket.handler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
-import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.WebSocketSession;
-import ru.zyulyaev.webrtc.shooter.websocket.WebSocketConnectionClosedHandler;
+import ru.zyulyaev.webrtc.shooter.metrics.Histogram;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+import ru.zyulyaev.webrtc.shooter.websocket.OutboundMessage;
 import ru.zyulyaev.webrtc.shooter.websocket.WebSocketConnectionEstablishedHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.cluster.ClusterRouter;
 import ru.zyulyaev.webrtc.shooter.websocket.message.HostMessage;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Created by nikita on 04.01.15.
+ *
+ * A change of a room's hosts list and its fan-out happen under a lock striped by room, as does sending
+ * the list to a connecting client, so frames of a room are queued in the order of changes and the last
+ * list a client receives is the current one.
  */
 @Component
 @Order(1)
 public class HostManagerHandler extends AbstractMessageHandler<HostMessage>
-        implements WebSocketConnectionEstablishedHandler, WebSocketConnectionClosedHandler {
+        implements WebSocketConnectionEstablishedHandler, PeerLeftHandler {
     public static final String HOST_TYPE = "host";
     public static final String HOSTS_TYPE = "hosts";
 
+    private static final int LOCK_STRIPES = 64;
+
     @Autowired
     private SessionManagerHandler sessionManager;
+    @Autowired
+    private ClusterRouter clusterRouter;
+    @Autowired
+    private MetricRegistry metrics;
 
-    private final Map<WebSocketSession, HostData> hosts = new HashMap<>();
+    private final ConcurrentMap<String, HostDirectory> rooms = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private Histogram fanOut;
 
     public HostManagerHandler() {
         super(HOST_TYPE, HostMessage.class);
+        for (int i = 0; i < locks.length; ++i)
+            locks[i] = new Object();
+    }
+
+    @PostConstruct
+    protected void init() {
+        fanOut = metrics.histogram("shooter_broadcast_fanout", "type", HOSTS_TYPE);
+    }
+
+    private void refreshLists(String room, OutboundMessage frame) throws IOException {
+        fanOut.record(broadcastLatest(sessionManager.getRoomSessions(room), frame));
     }
 
-    private void refreshLists() throws IOException {
-        for (WebSocketSession session : sessionManager.getSessions())
-            sendHosts(session);
+    private Object lockOf(String room) {
+        return locks[Math.floorMod(room.hashCode(), locks.length)];
     }
 
     public void sendHosts(WebSocketSession session) throws IOException {
-        send(session, HOSTS_TYPE, hosts.values().stream()
-                                                    .filter(data -> !data.id.equals(session.getId()))
-                                                    .collect(Collectors.toList()));
+        String room = SessionManagerHandler.getRoom(session);
+        synchronized (lockOf(room)) {
+            HostDirectory hosts = rooms.get(room);
+            sendLatest(session, hosts == null ? HostDirectory.EMPTY_FRAME : hosts.getFrame());
+        }
+    }
+
+    public boolean isHost(String room, String id) {
+        HostDirectory hosts = rooms.get(room);
+        return hosts != null && hosts.contains(id);
     }
 
     @Override
     public void handle(WebSocketSession session, HostMessage message) throws Exception {
-        hosts.put(session, new HostData(session.getId(), false));
-        refreshLists();
+        SessionInfo info = SessionManagerHandler.getInfo(session);
+        if (addHost(info.getRoom(), info.getId(), info.getPeerId()))
+            clusterRouter.onHostAdded(session);
     }
 
-    @Override
-    public void onClientConnected(WebSocketSession session) throws Exception {
-        sendHosts(session);
+    /**
+     * Host connected to another node of the cluster
+     */
+    public void addRemoteHost(String room, String id, int peerId) throws IOException {
+        addHost(room, id, peerId);
     }
 
-    @Override
-    public void onClientDisconnected(WebSocketSession session, CloseStatus status) throws Exception {
-        if (hosts.remove(session) != null)
-            refreshLists();
+    public void removeRemoteHost(String room, String id) throws IOException {
+        removeHost(room, id);
     }
 
-    private static class HostData {
-        final String id;
-        final boolean secured;
+    private boolean addHost(String room, String id, int peerId) throws IOException {
+        synchronized (lockOf(room)) {
+            boolean[] added = new boolean[1];
+            HostDirectory hosts = rooms.compute(room, (key, existing) -> {
+                HostDirectory result = existing == null ? new HostDirectory() : existing;
+                added[0] = result.add(id, peerId, false);
+                return result;
+            });
+            if (added[0])
+                refreshLists(room, hosts.getFrame());
+            return added[0];
+        }
+    }
 
-        HostData(String id, boolean secured) {
-            this.id = id;
-            this.secured = secured;
+    private void removeHost(String room, String id) throws IOException {
+        synchronized (lockOf(room)) {
+            boolean[] removed = new boolean[1];
+            HostDirectory hosts = rooms.computeIfPresent(room, (key, existing) -> {
+                removed[0] = existing.remove(id);
+                return existing.isEmpty() ? null : existing;
+            });
+            if (removed[0])
+                refreshLists(room, hosts == null ? HostDirectory.EMPTY_FRAME : hosts.getFrame());
         }
     }
+
+    @Override
+    public void onClientConnected(WebSocketSession session) throws Exception {
+        sendHosts(session);
+    }
+
+    @Override
+    public void onPeerLeft(SessionInfo info) throws Exception {
+        removeHost(info.getRoom(), info.getId());
+    }
 }
@@ -1,19 +1,39 @@
 package ru.zyulyaev.webrtc.shooter.websocket.handler;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import com.google.gson.JsonObject;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.WebSocketSession;
 import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidateMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidatesMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by nikita on 03.01.15.
+ *
+ * Candidates trickled from one peer to another are collected for a short window and delivered
+ * in one frame. A message without candidate marks the end of candidates and flushes the batch at once.
  */
 @Component
 public class IceMessageHandler extends AbstractMessageHandler<IceCandidateMessage> {
+    private static final Log logger = LogFactory.getLog(IceMessageHandler.class);
+
     public static final String ICE_TYPE = "ice";
+    public static final String ICES_TYPE = "ices";
+
+    @Value("${shooter.ice.batchMillis:20}")
+    private long batchMillis;
 
-    @Autowired
-    private SessionManagerHandler sessionManager;
+    private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<>();
 
     public IceMessageHandler() {
         super(ICE_TYPE, IceCandidateMessage.class);
@@ -21,7 +41,61 @@ public class IceMessageHandler extends AbstractMessageHandler<IceCandidateMessag
 
     @Override
     public void handle(WebSocketSession session, IceCandidateMessage message) throws Exception {
-        WebSocketSession recipient = sessionManager.getSessionById(message.getId());
-        send(recipient, ICE_TYPE, new IceCandidateMessage(session.getId(), message.getCandidate()));
+        String sender = SessionManagerHandler.getId(session);
+        String key = sender + ' ' + message.getId();
+        JsonObject candidate = message.getCandidate();
+        if (candidate == null) {
+            Batch batch = batches.remove(key);
+            if (batch != null)
+                deliver(batch);
+            return;
+        }
+        batches.compute(key, (k, batch) -> {
+            if (batch == null)
+                batch = new Batch(sender, message.getId(), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchMillis));
+            batch.candidates.add(candidate);
+            return batch;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${shooter.ice.flushMillis:10}")
+    public void flush() {
+        long now = System.nanoTime();
+        for (String key : batches.keySet()) {
+            Batch[] due = new Batch[1];
+            batches.computeIfPresent(key, (k, batch) -> {
+                if (now - batch.deadline < 0)
+                    return batch;
+                due[0] = batch;
+                return null;
+            });
+            if (due[0] != null) {
+                try {
+                    deliver(due[0]);
+                } catch (IOException e) {
+                    logger.warn("Error sending ice candidates", e);
+                }
+            }
+        }
+    }
+
+    private void deliver(Batch batch) throws IOException {
+        if (batch.candidates.size() == 1)
+            relay(batch.to, ICE_TYPE, new IceCandidateMessage(batch.from, batch.candidates.get(0)));
+        else
+            relay(batch.to, ICES_TYPE, new IceCandidatesMessage(batch.from, batch.candidates));
+    }
+
+    private static class Batch {
+        final String from;
+        final String to;
+        final long deadline;
+        final List<JsonObject> candidates = new ArrayList<>();
+
+        Batch(String from, String to, long deadline) {
+            this.from = from;
+            this.to = to;
+            this.deadline = deadline;
+        }
     }
 }
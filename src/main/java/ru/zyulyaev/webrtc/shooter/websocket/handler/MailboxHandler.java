@@ -0,0 +1,186 @@
+package ru.zyulyaev.webrtc.shooter.websocket.handler;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+import ru.zyulyaev.webrtc.shooter.websocket.MessageSender;
+import ru.zyulyaev.webrtc.shooter.websocket.OutboundMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.WebSocketConnectionEstablishedHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.cluster.ClusterRouter;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds signaling messages addressed to a peer which is not connected at the moment and
+ * delivers them in order once it appears. Mailboxes are bounded in size and messages expire.
+ */
+@Component
+public class MailboxHandler implements WebSocketConnectionEstablishedHandler {
+    private static final Log logger = LogFactory.getLog(MailboxHandler.class);
+
+    @Autowired
+    private SessionManagerHandler sessionManager;
+    @Autowired
+    private MessageSender sender;
+    @Autowired
+    private ClusterRouter clusterRouter;
+    @Autowired
+    private MetricRegistry metrics;
+
+    @Value("${shooter.mailbox.capacity:32}")
+    private int capacity;
+    @Value("${shooter.mailbox.maxMailboxes:10000}")
+    private int maxMailboxes;
+    @Value("${shooter.mailbox.ttlMillis:5000}")
+    private long ttlMillis;
+
+    private final ConcurrentMap<String, Deque<Pending>> mailboxes = new ConcurrentHashMap<>();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    @PostConstruct
+    protected void init() {
+        metrics.counter("shooter_mailbox_queued_total", this::getQueuedCount);
+        metrics.counter("shooter_mailbox_delivered_total", this::getDeliveredCount);
+        metrics.counter("shooter_mailbox_dropped_total", this::getDroppedCount);
+        metrics.counter("shooter_mailbox_expired_total", this::getExpiredCount);
+        metrics.gauge("shooter_mailboxes", this::getMailboxCount);
+    }
+
+    /**
+     * Sends message to the recipient right away if it is connected to this or another node of the cluster,
+     * otherwise keeps it in the recipient's mailbox
+     */
+    public void deliver(String recipientId, OutboundMessage message) throws IOException {
+        if (recipientId == null) {
+            dropped.increment();
+            return;
+        }
+        WebSocketSession recipient = sessionManager.getSessionById(recipientId);
+        if (recipient != null && !mailboxes.containsKey(recipientId)) {
+            sender.send(recipient, message);
+            return;
+        }
+        if (recipient == null && !mailboxes.containsKey(recipientId) && clusterRouter.route(recipientId, message)) {
+            return;
+        }
+        if (!mailboxes.containsKey(recipientId) && mailboxes.size() >= maxMailboxes) {
+            dropped.increment();
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        mailboxes.compute(recipientId, (id, mailbox) -> {
+            if (mailbox == null)
+                mailbox = new ArrayDeque<>();
+            if (mailbox.size() >= capacity) {
+                dropped.increment();
+            } else {
+                mailbox.add(new Pending(message, deadline));
+                queued.increment();
+            }
+            return mailbox;
+        });
+        // recipient could have connected while the message was being queued
+        if (recipient == null)
+            recipient = sessionManager.getSessionById(recipientId);
+        if (recipient != null)
+            flush(recipient);
+    }
+
+    @Override
+    public void onClientConnected(WebSocketSession session) throws Exception {
+        flush(session);
+    }
+
+    /**
+     * Forwards held messages to the node where the recipient has just appeared
+     */
+    public void redirect(String recipientId) {
+        Deque<Pending> mailbox = mailboxes.remove(recipientId);
+        if (mailbox == null)
+            return;
+        long now = System.nanoTime();
+        for (Pending pending : mailbox) {
+            if (now - pending.deadline >= 0) {
+                expired.increment();
+            } else if (clusterRouter.route(recipientId, pending.message)) {
+                delivered.increment();
+            } else {
+                dropped.increment();
+            }
+        }
+    }
+
+    private void flush(WebSocketSession session) throws IOException {
+        Deque<Pending> mailbox = mailboxes.remove(SessionManagerHandler.getId(session));
+        if (mailbox == null)
+            return;
+        long now = System.nanoTime();
+        for (Pending pending : mailbox) {
+            if (now - pending.deadline >= 0) {
+                expired.increment();
+            } else {
+                sender.send(session, pending.message);
+                delivered.increment();
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${shooter.mailbox.sweepMillis:1000}")
+    public void sweep() {
+        long now = System.nanoTime();
+        for (String recipientId : mailboxes.keySet()) {
+            mailboxes.computeIfPresent(recipientId, (id, mailbox) -> {
+                while (!mailbox.isEmpty() && now - mailbox.peekFirst().deadline >= 0) {
+                    mailbox.pollFirst();
+                    expired.increment();
+                }
+                return mailbox.isEmpty() ? null : mailbox;
+            });
+        }
+    }
+
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    public int getMailboxCount() {
+        return mailboxes.size();
+    }
+
+    private static class Pending {
+        final OutboundMessage message;
+        final long deadline;
+
+        Pending(OutboundMessage message, long deadline) {
+            this.message = message;
+            this.deadline = deadline;
+        }
+    }
+}
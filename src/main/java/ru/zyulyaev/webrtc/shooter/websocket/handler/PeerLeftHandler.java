@@ -0,0 +1,9 @@
+package ru.zyulyaev.webrtc.shooter.websocket.handler;
+
+/**
+ * Notified when a peer is gone for good: its connection closed and no reconnect resumed it in time.
+ * State of the peer rather than of its connection, like list entries, is released here.
+ */
+public interface PeerLeftHandler {
+    void onPeerLeft(SessionInfo info) throws Exception;
+}
@@ -0,0 +1,43 @@
+package ru.zyulyaev.webrtc.shooter.websocket.handler;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RejectMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RelayMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.relay.RelayEndpoint;
+import ru.zyulyaev.webrtc.shooter.websocket.relay.RelayHub;
+
+/**
+ * Falls back to relaying game traffic through the server when a peer couldn't connect to a host directly.
+ * Only hosts of the requesting peer's room, connected to this node, can be relayed to.
+ */
+@Component
+public class RelayMessageHandler extends AbstractMessageHandler<RelayMessage> {
+    public static final String RELAY_TYPE = "relay";
+
+    @Autowired
+    private SessionManagerHandler sessionManager;
+    @Autowired
+    private HostManagerHandler hostManager;
+    @Autowired
+    private RelayHub hub;
+
+    public RelayMessageHandler() {
+        super(RELAY_TYPE, RelayMessage.class);
+    }
+
+    @Override
+    public void handle(WebSocketSession session, RelayMessage message) throws Exception {
+        String room = SessionManagerHandler.getRoom(session);
+        WebSocketSession host = message.getId() == null ? null : sessionManager.getSessionById(message.getId());
+        RelayEndpoint[] endpoints = host == null || host == session || !hostManager.isHost(room, message.getId())
+                ? null : hub.link(session, host);
+        if (endpoints == null) {
+            send(session, RejectMessageHandler.REJECT_TYPE, new RejectMessage(message.getId(), "Relay unavailable"));
+            return;
+        }
+        send(session, RELAY_TYPE, new RelayMessage(message.getId(), endpoints[1].getPeerId(), endpoints[0].getToken()));
+        send(host, RELAY_TYPE, new RelayMessage(SessionManagerHandler.getId(session), endpoints[0].getPeerId(), endpoints[1].getToken()));
+    }
+}
@@ -0,0 +1,53 @@
+package ru.zyulyaev.webrtc.shooter.websocket.handler;
+
+import ru.zyulyaev.webrtc.shooter.websocket.message.ClientData;
+
+/**
+ * What the server knows about a session, fixed when it connects and kept by connections resuming it.
+ * Messages identify the session by {@link #getId()}, the decimal form of its peer id, rather than by
+ * the container's session id.
+ */
+public final class SessionInfo {
+    private final int peerId;
+    private final String id;
+    private final String nickname;
+    private final String room;
+    private final String resumeToken;
+    private final ClientData clientData;
+
+    SessionInfo(int peerId, String nickname, String room, String resumeToken) {
+        this.peerId = peerId;
+        this.id = Integer.toString(peerId);
+        this.nickname = nickname;
+        this.room = room;
+        this.resumeToken = resumeToken;
+        this.clientData = new ClientData(id, nickname, peerId);
+    }
+
+    public int getPeerId() {
+        return peerId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    /**
+     * Peer list entry of the session, shared by every list it is in
+     */
+    public ClientData getClientData() {
+        return clientData;
+    }
+}
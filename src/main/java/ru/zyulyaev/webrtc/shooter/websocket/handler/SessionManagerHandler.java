@@ -1,39 +1,374 @@
 package ru.zyulyaev.webrtc.shooter.websocket.handler;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.metrics.Counter;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+import ru.zyulyaev.webrtc.shooter.websocket.MessageSender;
+import ru.zyulyaev.webrtc.shooter.websocket.OutboundMessage;
 import ru.zyulyaev.webrtc.shooter.websocket.WebSocketConnectionClosedHandler;
 import ru.zyulyaev.webrtc.shooter.websocket.WebSocketConnectionEstablishedHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.cluster.ClusterBus;
+import ru.zyulyaev.webrtc.shooter.websocket.message.ResumeMessage;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by nikita on 03.01.15.
+ *
+ * A client is handed a resume token when it connects. When its connection drops for any reason but the
+ * client leaving, the peer is kept for {@code shooter.resume.graceMillis}: reconnecting with the token in
+ * that time makes the new connection the same peer, with the same id and list entries, so nobody else
+ * hears about the blip and messages sent to it meanwhile wait in its mailbox. Only once the grace period
+ * is over are {@link PeerLeftHandler}s told the peer has left. A reconnect may also take over from
+ * a connection which the server doesn't know is dead yet.
  */
 @Component
 @Order(0)
 public class SessionManagerHandler implements WebSocketConnectionEstablishedHandler, WebSocketConnectionClosedHandler {
-    private final Map<String, WebSocketSession> sessions = new HashMap<>();
+    public static final String ROOM_ATTRIBUTE = "room";
+    public static final String DEFAULT_ROOM = "lobby";
+    public static final String NICKNAME_ATTRIBUTE = "nickname";
+    public static final String INFO_ATTRIBUTE = "info";
+    public static final String RESUME_ATTRIBUTE = "resume";
+    public static final String RESUMED_ATTRIBUTE = "resumed";
+    public static final String RESUME_TYPE = "resume";
+
+    private static final Log logger = LogFactory.getLog(SessionManagerHandler.class);
+
+    private static final int CONCURRENCY_LEVEL = 64;
+    private static final int TOKEN_BYTES = 16;
+    private static final CloseStatus RESUMED = new CloseStatus(4001, "Resumed");
+
+    /**
+     * 0 disables resumption
+     */
+    @Value("${shooter.resume.graceMillis:30000}")
+    private long graceMillis;
+    /**
+     * Low bits of a peer id number the node's peers, the high ones the node
+     */
+    @Value("${shooter.peerIdBits:24}")
+    private int peerIdBits;
+
+    @Autowired(required = false)
+    private ClusterBus clusterBus;
+    @Autowired
+    private MetricRegistry metrics;
+    @Autowired
+    private MessageSender sender;
+    @Autowired
+    private List<PeerLeftHandler> peerLeftHandlers;
+
+    /**
+     * Keyed by {@link SessionInfo#getId()}. Mutated from connect/close callbacks while heartbeat and
+     * broadcasts iterate it: updates lock a single bin, lookups and iteration are lock-free.
+     */
+    private final ConcurrentMap<String, WebSocketSession> sessions = new ConcurrentHashMap<>(256, 0.75f, CONCURRENCY_LEVEL);
+    private final Collection<WebSocketSession> sessionsView = Collections.unmodifiableCollection(sessions.values());
+    private final ConcurrentMap<String, ConcurrentMap<String, WebSocketSession>> rooms = new ConcurrentHashMap<>();
+    private final AtomicInteger lastPeerId = new AtomicInteger();
+    private final Set<Integer> peerIds = ConcurrentHashMap.newKeySet();
+    private int peerIdBase;
+    private final ConcurrentMap<String, Peer> peersByToken = new ConcurrentHashMap<>(256, 0.75f, CONCURRENCY_LEVEL);
+    /**
+     * In order of deadlines, as the grace period is the same for all
+     */
+    private final Queue<Detachment> detachments = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger detached = new AtomicInteger();
+    private final SecureRandom random = new SecureRandom();
+    private Counter opened;
+    private Counter closed;
+    private Counter resumed;
+    private Counter expired;
+
+    @PostConstruct
+    protected void init() {
+        // every cluster node hands out peer ids from its own range
+        int nodeIndex = clusterBus == null ? 0 : clusterBus.getNodeIndex();
+        if (peerIdBits < 1 || peerIdBits > 31 || nodeIndex >= 1 << (31 - peerIdBits))
+            throw new IllegalStateException("Node " + nodeIndex + " has no range of " + peerIdBits + "-bit peer ids");
+        peerIdBase = nodeIndex << peerIdBits;
+        opened = metrics.counter("shooter_sessions_opened_total");
+        closed = metrics.counter("shooter_sessions_closed_total");
+        resumed = metrics.counter("shooter_sessions_resumed_total");
+        expired = metrics.counter("shooter_sessions_resume_expired_total");
+        metrics.gauge("shooter_sessions", sessions::size);
+        metrics.gauge("shooter_sessions_detached", detached::get);
+        metrics.gauge("shooter_rooms", rooms::size);
+        Collections.sort(peerLeftHandlers, AnnotationAwareOrderComparator.INSTANCE);
+    }
 
     @Override
     public void onClientConnected(WebSocketSession session) {
-        sessions.put(session.getId(), session);
+        opened.increment();
+        String nickname = session.getAttributes().get(NICKNAME_ATTRIBUTE).toString();
+        Peer peer = resume(session, nickname);
+        if (peer == null) {
+            byte[] token = new byte[TOKEN_BYTES];
+            random.nextBytes(token);
+            peer = new Peer(new SessionInfo(nextPeerId(), nickname, getRoom(session),
+                    Base64.getUrlEncoder().withoutPadding().encodeToString(token)), session);
+            peersByToken.put(peer.info.getResumeToken(), peer);
+        } else {
+            session.getAttributes().put(RESUMED_ATTRIBUTE, Boolean.TRUE);
+        }
+        SessionInfo info = peer.info;
+        session.getAttributes().put(INFO_ATTRIBUTE, info);
+        sessions.put(info.getId(), session);
+        rooms.compute(info.getRoom(), (room, members) -> {
+            if (members == null)
+                members = new ConcurrentHashMap<>();
+            members.put(info.getId(), session);
+            return members;
+        });
+        sender.send(session, new OutboundMessage(RESUME_TYPE, new ResumeMessage(info.getResumeToken())));
+    }
+
+    /**
+     * Peer ids cycle through the node's range, skipping the first one and those of peers which haven't left
+     */
+    private int nextPeerId() {
+        int mask = (1 << peerIdBits) - 1;
+        // a free id turns up unless the whole range is taken
+        for (int attempt = 0; attempt <= mask; ++attempt) {
+            int peerId = peerIdBase | (lastPeerId.incrementAndGet() & mask);
+            if (peerId != peerIdBase && peerIds.add(peerId))
+                return peerId;
+        }
+        throw new IllegalStateException("All " + mask + " peer ids are taken");
+    }
+
+    /**
+     * @return peer which the session's resume token was issued to, or {@code null} if it can't be resumed
+     */
+    private Peer resume(WebSocketSession session, String nickname) {
+        Object token = session.getAttributes().get(RESUME_ATTRIBUTE);
+        Peer peer = token == null || graceMillis <= 0 ? null : peersByToken.get(token);
+        if (peer == null || !peer.info.getNickname().equals(nickname) || !peer.info.getRoom().equals(getRoom(session)))
+            return null;
+        WebSocketSession previous;
+        synchronized (peer) {
+            if (peer.left)
+                return null;
+            previous = peer.session;
+            peer.session = session;
+        }
+        resumed.increment();
+        if (previous == null) {
+            detached.decrementAndGet();
+            return peer;
+        }
+        // the client has already given up on the previous connection
+        try {
+            previous.close(RESUMED);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Error closing session " + previous.getId(), e);
+        }
+        return peer;
     }
 
     @Override
     public void onClientDisconnected(WebSocketSession session, CloseStatus status) {
-        sessions.remove(session.getId(), session);
+        SessionInfo info = getInfo(session);
+        closed.increment();
+        sessions.remove(info.getId(), session);
+        rooms.computeIfPresent(info.getRoom(), (room, members) -> {
+            members.remove(info.getId(), session);
+            return members.isEmpty() ? null : members;
+        });
+        Peer peer = peersByToken.get(info.getResumeToken());
+        if (peer == null)
+            return;
+        synchronized (peer) {
+            // taken over by a resumed connection
+            if (peer.session != session)
+                return;
+            peer.session = null;
+            if (graceMillis > 0 && isResumable(status)) {
+                peer.leaveAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMillis);
+                detachments.add(new Detachment(peer, peer.leaveAt));
+                detached.incrementAndGet();
+                return;
+            }
+            peer.left = true;
+        }
+        leave(peer);
+    }
+
+    /**
+     * Closes the client didn't ask for, including those of dead connections
+     */
+    private static boolean isResumable(CloseStatus status) {
+        int code = status.getCode();
+        return code != CloseStatus.NORMAL.getCode() && code != CloseStatus.GOING_AWAY.getCode()
+                && code != CloseStatus.POLICY_VIOLATION.getCode();
+    }
+
+    /**
+     * Lets go of peers which weren't resumed in time
+     */
+    @Scheduled(fixedDelayString = "${shooter.resume.sweepMillis:1000}")
+    public void sweep() {
+        long now = System.nanoTime();
+        Detachment detachment;
+        while ((detachment = detachments.peek()) != null && now - detachment.leaveAt >= 0) {
+            detachments.poll();
+            Peer peer = detachment.peer;
+            synchronized (peer) {
+                // resumed, possibly detached again since
+                if (peer.session != null || peer.left || peer.leaveAt != detachment.leaveAt)
+                    continue;
+                peer.left = true;
+            }
+            detached.decrementAndGet();
+            expired.increment();
+            leave(peer);
+        }
+    }
+
+    private void leave(Peer peer) {
+        peersByToken.remove(peer.info.getResumeToken(), peer);
+        for (PeerLeftHandler handler : peerLeftHandlers) {
+            try {
+                handler.onPeerLeft(peer.info);
+            } catch (Exception e) {
+                logger.warn("Error handling departure of peer " + peer.info.getId(), e);
+            }
+        }
+        peerIds.remove(peer.info.getPeerId());
+    }
+
+    /**
+     * @return whether the peer is gone for good, {@link PeerLeftHandler}s have been or are being told so then
+     */
+    public boolean hasLeft(SessionInfo info) {
+        Peer peer = peersByToken.get(info.getResumeToken());
+        return peer == null || peer.info != info;
+    }
+
+    public static String getRoom(WebSocketSession session) {
+        return (String) session.getAttributes().get(ROOM_ATTRIBUTE);
     }
 
+    /**
+     * Weakly consistent view: iteration never blocks and never fails, but may or may not
+     * reflect sessions connected or closed while iterating.
+     */
     public Collection<WebSocketSession> getSessions() {
-        return sessions.values();
+        return sessionsView;
     }
 
+    public static SessionInfo getInfo(WebSocketSession session) {
+        return (SessionInfo) session.getAttributes().get(INFO_ATTRIBUTE);
+    }
+
+    /**
+     * @return whether the session resumed a peer of an earlier connection, rather than being a new one
+     */
+    public static boolean isResumed(WebSocketSession session) {
+        return session.getAttributes().containsKey(RESUMED_ATTRIBUTE);
+    }
+
+    /**
+     * Id of the session in messages
+     */
+    public static String getId(WebSocketSession session) {
+        return getInfo(session).getId();
+    }
+
+    /**
+     * Small numeric id, the binary protocol's form of {@link #getId(WebSocketSession)}
+     */
+    public static int getPeerId(WebSocketSession session) {
+        return getInfo(session).getPeerId();
+    }
+
+    /**
+     * @return peer id which the message id stands for, or -1 if it isn't one
+     */
+    public static int toPeerId(String id) {
+        int length = id == null ? 0 : id.length();
+        if (length == 0 || length > 10 || (length > 1 && id.charAt(0) == '0'))
+            return -1;
+        long peerId = 0;
+        for (int i = 0; i < length; ++i) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            peerId = peerId * 10 + (c - '0');
+        }
+        return peerId > Integer.MAX_VALUE ? -1 : (int) peerId;
+    }
+
+    public Collection<WebSocketSession> getRoomSessions(String room) {
+        Map<String, WebSocketSession> members = rooms.get(room);
+        return members == null ? Collections.emptyList() : Collections.unmodifiableCollection(members.values());
+    }
+
+    /**
+     * @param id id of the session in messages
+     */
     public WebSocketSession getSessionById(String id) {
         return sessions.get(id);
     }
+
+    /**
+     * @param id id of the session in messages
+     * @return whether the peer is connected to this node or may still resume its session here
+     */
+    public boolean hasPeer(String id) {
+        int peerId = toPeerId(id);
+        return peerId >= 0 && peerIds.contains(peerId);
+    }
+
+    /**
+     * Fields but the info are guarded by the peer
+     */
+    private static class Peer {
+        final SessionInfo info;
+        /**
+         * Current connection, {@code null} while detached
+         */
+        WebSocketSession session;
+        long leaveAt;
+        boolean left;
+
+        Peer(SessionInfo info, WebSocketSession session) {
+            this.info = info;
+            this.session = session;
+        }
+    }
+
+    private static class Detachment {
+        final Peer peer;
+        final long leaveAt;
+
+        Detachment(Peer peer, long leaveAt) {
+            this.peer = peer;
+            this.leaveAt = leaveAt;
+        }
+    }
 }
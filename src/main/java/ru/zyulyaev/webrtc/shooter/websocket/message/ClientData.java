@@ -0,0 +1,28 @@
+package ru.zyulyaev.webrtc.shooter.websocket.message;
+
+/**
+ * Peer list entry
+ */
+public class ClientData {
+    private final String id;
+    private final String nickname;
+    private final transient int peerId;
+
+    public ClientData(String id, String nickname, int peerId) {
+        this.id = id;
+        this.nickname = nickname;
+        this.peerId = peerId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    public int getPeerId() {
+        return peerId;
+    }
+}
@@ -0,0 +1,28 @@
+package ru.zyulyaev.webrtc.shooter.websocket.message;
+
+/**
+ * Hosts list entry
+ */
+public class HostData {
+    private final String id;
+    private final boolean secured;
+    private final transient int peerId;
+
+    public HostData(String id, boolean secured, int peerId) {
+        this.id = id;
+        this.secured = secured;
+        this.peerId = peerId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean isSecured() {
+        return secured;
+    }
+
+    public int getPeerId() {
+        return peerId;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.zyulyaev.webrtc.shooter.websocket.message;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hosts list of a room, sent as the bare array of its entries
+ */
+public class HostsMessage {
+    public static final HostsMessage EMPTY = new HostsMessage(Collections.emptyList());
+
+    private final List<HostData> hosts;
+
+    public HostsMessage(List<HostData> hosts) {
+        this.hosts = hosts;
+    }
+
+    public List<HostData> getHosts() {
+        return hosts;
+    }
+}
@@ -1,5 +1,6 @@
 package ru.zyulyaev.webrtc.shooter.websocket.message;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 /**
@@ -7,7 +8,10 @@ import com.google.gson.JsonObject;
  */
 public class IceCandidateMessage {
     private String id;
-    private JsonObject candidate;
+    /**
+     * Clients mark the end of candidates with an explicit null, which gson reads as {@code JsonNull}
+     */
+    private JsonElement candidate;
 
     IceCandidateMessage() { /* for gson */ }
 
@@ -21,6 +25,6 @@ public class IceCandidateMessage {
     }
 
     public JsonObject getCandidate() {
-        return candidate;
+        return candidate != null && candidate.isJsonObject() ? candidate.getAsJsonObject() : null;
     }
 }
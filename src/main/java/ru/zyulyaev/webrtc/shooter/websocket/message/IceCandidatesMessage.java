@@ -0,0 +1,26 @@
+package ru.zyulyaev.webrtc.shooter.websocket.message;
+
+import com.google.gson.JsonObject;
+
+import java.util.List;
+
+/**
+ * Several ICE candidates of one peer delivered in a single frame
+ */
+public class IceCandidatesMessage {
+    private final String id;
+    private final List<JsonObject> candidates;
+
+    public IceCandidatesMessage(String id, List<JsonObject> candidates) {
+        this.id = id;
+        this.candidates = candidates;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public List<JsonObject> getCandidates() {
+        return candidates;
+    }
+}
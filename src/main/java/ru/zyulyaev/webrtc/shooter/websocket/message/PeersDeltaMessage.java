@@ -0,0 +1,45 @@
+package ru.zyulyaev.webrtc.shooter.websocket.message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Net change of a room's peer list, applicable to any list version in {@code [from, to)}
+ */
+public class PeersDeltaMessage {
+    private final long from;
+    private final long to;
+    private final List<ClientData> joined = new ArrayList<>();
+    private final List<String> left = new ArrayList<>();
+    private final transient List<ClientData> leftPeers = new ArrayList<>();
+
+    public PeersDeltaMessage(long from, long to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    public void addJoined(ClientData data) {
+        joined.add(data);
+    }
+
+    public void addLeft(ClientData data) {
+        left.add(data.getId());
+        leftPeers.add(data);
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public List<ClientData> getJoined() {
+        return joined;
+    }
+
+    public List<ClientData> getLeft() {
+        return leftPeers;
+    }
+}
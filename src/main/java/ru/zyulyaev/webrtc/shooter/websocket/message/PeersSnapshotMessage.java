@@ -0,0 +1,36 @@
+package ru.zyulyaev.webrtc.shooter.websocket.message;
+
+import java.util.List;
+
+/**
+ * Full peer list of a room at the given version, without the recipient itself
+ */
+public class PeersSnapshotMessage {
+    private final long version;
+    private final String self;
+    private final transient int selfPeerId;
+    private final List<ClientData> peers;
+
+    public PeersSnapshotMessage(long version, String self, int selfPeerId, List<ClientData> peers) {
+        this.version = version;
+        this.self = self;
+        this.selfPeerId = selfPeerId;
+        this.peers = peers;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public int getSelfPeerId() {
+        return selfPeerId;
+    }
+
+    public List<ClientData> getPeers() {
+        return peers;
+    }
+}
@@ -0,0 +1,31 @@
+package ru.zyulyaev.webrtc.shooter.websocket.message;
+
+/**
+ * Request to relay game traffic to a host through the server, and the answer to both sides:
+ * the other side's ids and the token to open the relay connection with
+ */
+public class RelayMessage {
+    private String id;
+    private int peerId;
+    private String token;
+
+    RelayMessage() { /* for gson */ }
+
+    public RelayMessage(String id, int peerId, String token) {
+        this.id = id;
+        this.peerId = peerId;
+        this.token = token;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getPeerId() {
+        return peerId;
+    }
+
+    public String getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,18 @@
+package ru.zyulyaev.webrtc.shooter.websocket.message;
+
+/**
+ * Token a client reconnects with to stay the same peer, sent when it connects
+ */
+public class ResumeMessage {
+    private String token;
+
+    ResumeMessage() { /* for gson */ }
+
+    public ResumeMessage(String token) {
+        this.token = token;
+    }
+
+    public String getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,71 @@
+package ru.zyulyaev.webrtc.shooter.websocket.relay;
+
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Relay side of a peer: the peers it may exchange game frames with, its relay connection
+ * once opened, and the bounded buffer of frames waiting to be written to it
+ */
+public class RelayEndpoint {
+    final int peerId;
+    final String token;
+    final ConcurrentMap<Integer, RelayEndpoint> links = new ConcurrentHashMap<>();
+    final BlockingQueue<ByteBuffer> outbox;
+    final AtomicBoolean draining = new AtomicBoolean();
+    volatile WebSocketSession socket;
+    volatile long sendStartedAt;
+    volatile boolean sending;
+    /**
+     * Thread draining the outbox and the connection it writes to, guarded by the endpoint
+     */
+    private Thread writer;
+    private WebSocketSession writingTo;
+
+    RelayEndpoint(int peerId, String token, int capacity) {
+        this.peerId = peerId;
+        this.token = token;
+        this.outbox = new ArrayBlockingQueue<>(capacity);
+    }
+
+    synchronized void claimWriter(WebSocketSession socket) {
+        writer = Thread.currentThread();
+        writingTo = socket;
+    }
+
+    /**
+     * Also clears an interrupt which came too late to abort a write, so that it can't hit another endpoint
+     */
+    synchronized void releaseWriter() {
+        writer = null;
+        writingTo = null;
+        sending = false;
+        Thread.interrupted();
+    }
+
+    /**
+     * @return connection whose write in flight was overdue and has been interrupted, or {@code null}
+     */
+    synchronized WebSocketSession interruptIfOverdue(long now, long timeoutNanos) {
+        if (writer == null || !sending || now - sendStartedAt < timeoutNanos)
+            return null;
+        // interrupted once, the writer gives the endpoint up soon
+        sending = false;
+        writer.interrupt();
+        return writingTo;
+    }
+
+    public int getPeerId() {
+        return peerId;
+    }
+
+    public String getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,48 @@
+package ru.zyulyaev.webrtc.shooter.websocket.relay;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.AdmissionControl;
+
+/**
+ * Relay connections, opened with the token handed out over signaling in a {@code relay} message
+ */
+@Component
+public class RelayHandler extends BinaryWebSocketHandler {
+    public static final String TOKEN_ATTRIBUTE = "token";
+    private static final String ENDPOINT_ATTRIBUTE = "relayEndpoint";
+
+    @Autowired
+    private RelayHub hub;
+    @Autowired
+    private AdmissionControl admissionControl;
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        admissionControl.onClientConnected(session);
+        RelayEndpoint endpoint = hub.attach((String) session.getAttributes().get(TOKEN_ATTRIBUTE), session);
+        if (endpoint == null)
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Unknown relay token"));
+        else
+            session.getAttributes().put(ENDPOINT_ATTRIBUTE, endpoint);
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        RelayEndpoint endpoint = (RelayEndpoint) session.getAttributes().get(ENDPOINT_ATTRIBUTE);
+        if (endpoint != null)
+            hub.forward(endpoint, message.getPayload());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        admissionControl.onClientDisconnected(session, status);
+        RelayEndpoint endpoint = (RelayEndpoint) session.getAttributes().get(ENDPOINT_ATTRIBUTE);
+        if (endpoint != null)
+            hub.detach(endpoint, session);
+    }
+}
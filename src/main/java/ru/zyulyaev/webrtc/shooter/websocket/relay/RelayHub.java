@@ -0,0 +1,304 @@
+package ru.zyulyaev.webrtc.shooter.websocket.relay;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.metrics.Counter;
+import ru.zyulyaev.webrtc.shooter.metrics.Histogram;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.PeerLeftHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionInfo;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forwards game frames between peers which couldn't connect directly, over relay connections.
+ * <p>
+ * Frame is the 4 byte big-endian peer id of the recipient, or {@value #BROADCAST} for every linked peer,
+ * followed by the game message. The id is replaced with the sender's one in place and the same buffer is
+ * queued to each recipient, so forwarding copies nothing. Each endpoint buffers a bounded number of frames,
+ * frames to a peer which doesn't keep up are dropped, game traffic tolerates loss as data channels are
+ * unreliable anyway. Buffers are written by a shared pool a batch at a time, so a slow connection holds
+ * one writer at most and a busy match can't starve the others. A write which stalls for longer than
+ * {@code shooter.relay.timeoutMillis} gets its writer interrupted and its relay connection closed, so
+ * clients which stop reading can't hold every writer either.
+ * <p>
+ * Endpoints belong to peers rather than to their signaling connections: a signaling connection which drops
+ * and is resumed finds its endpoints, links and relay connection as they were. They are only let go of once
+ * the peer has left.
+ */
+@Component
+public class RelayHub implements PeerLeftHandler {
+    private static final Log logger = LogFactory.getLog(RelayHub.class);
+
+    public static final int BROADCAST = 0;
+    static final int HEADER_BYTES = Integer.BYTES;
+    private static final int TOKEN_BYTES = 16;
+    private static final int DRAIN_BATCH = 64;
+    private static final CloseStatus SEND_TIMEOUT = CloseStatus.SESSION_NOT_RELIABLE.withReason("Send timeout");
+
+    @Value("${shooter.relay.bufferFrames:256}")
+    private int bufferFrames;
+    @Value("${shooter.relay.maxFrameBytes:16384}")
+    private int maxFrameBytes;
+    /**
+     * Number of writers, 0 means one per processor
+     */
+    @Value("${shooter.relay.threads:0}")
+    private int threads;
+    /**
+     * 0 lets writes take as long as the container does
+     */
+    @Value("${shooter.relay.timeoutMillis:2000}")
+    private long timeoutMillis;
+
+    @Autowired
+    private MetricRegistry metrics;
+    @Autowired
+    private SessionManagerHandler sessionManager;
+
+    /**
+     * Keyed by peer id
+     */
+    private final ConcurrentMap<Integer, RelayEndpoint> endpoints = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RelayEndpoint> endpointsByToken = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private ExecutorService writers;
+    /**
+     * Checks write deadlines and closes connections, which writes a frame too and must not hold a writer
+     */
+    private ScheduledExecutorService watchdog;
+    private Counter frames;
+    private Counter bytes;
+    private Counter overflows;
+    private Counter unroutable;
+    private Counter malformed;
+    private Counter timeouts;
+    private Histogram fanOut;
+
+    @PostConstruct
+    protected void init() {
+        writers = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "shooter-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        frames = metrics.counter("shooter_relay_frames_total");
+        bytes = metrics.counter("shooter_relay_bytes_total");
+        overflows = metrics.counter("shooter_relay_dropped_total", "reason", "overflow");
+        unroutable = metrics.counter("shooter_relay_dropped_total", "reason", "unroutable");
+        malformed = metrics.counter("shooter_relay_dropped_total", "reason", "malformed");
+        timeouts = metrics.counter("shooter_relay_timeouts_total");
+        fanOut = metrics.histogram("shooter_broadcast_fanout", "type", "relay");
+        metrics.gauge("shooter_relay_endpoints", endpoints::size);
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shooter-relay-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (timeoutMillis > 0) {
+            long period = Math.max(1, timeoutMillis / 4);
+            watchdog.scheduleWithFixedDelay(() -> {
+                try {
+                    checkDeadlines();
+                } catch (RuntimeException e) {
+                    // an exception would cancel the task
+                    logger.error("Error checking relay write deadlines", e);
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        writers.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    public int getMaxFrameBytes() {
+        return maxFrameBytes;
+    }
+
+    /**
+     * Lets two signaling sessions exchange game frames through the relay
+     *
+     * @return endpoints of the sessions, in the same order, or {@code null} if either peer has left
+     */
+    public RelayEndpoint[] link(WebSocketSession first, WebSocketSession second) {
+        RelayEndpoint firstEndpoint = endpointOf(first);
+        RelayEndpoint secondEndpoint = endpointOf(second);
+        if (firstEndpoint == null || secondEndpoint == null)
+            return null;
+        firstEndpoint.links.put(secondEndpoint.peerId, secondEndpoint);
+        secondEndpoint.links.put(firstEndpoint.peerId, firstEndpoint);
+        return new RelayEndpoint[]{firstEndpoint, secondEndpoint};
+    }
+
+    private RelayEndpoint endpointOf(WebSocketSession session) {
+        SessionInfo info = SessionManagerHandler.getInfo(session);
+        RelayEndpoint endpoint = endpoints.computeIfAbsent(info.getPeerId(), peerId -> {
+            byte[] token = new byte[TOKEN_BYTES];
+            random.nextBytes(token);
+            RelayEndpoint created = new RelayEndpoint(peerId,
+                    Base64.getUrlEncoder().withoutPadding().encodeToString(token), bufferFrames);
+            endpointsByToken.put(created.token, created);
+            return created;
+        });
+        // the peer could have left while the endpoint was being created
+        if (sessionManager.hasLeft(info)) {
+            remove(info.getPeerId());
+            return null;
+        }
+        return endpoint;
+    }
+
+    /**
+     * Binds a relay connection to the endpoint its token was issued for
+     *
+     * @return the endpoint, or {@code null} if the token is unknown
+     */
+    public RelayEndpoint attach(String token, WebSocketSession socket) throws IOException {
+        RelayEndpoint endpoint = token == null ? null : endpointsByToken.get(token);
+        if (endpoint == null)
+            return null;
+        WebSocketSession previous = endpoint.socket;
+        endpoint.socket = socket;
+        if (previous != null)
+            previous.close(CloseStatus.NORMAL);
+        schedule(endpoint);
+        return endpoint;
+    }
+
+    void detach(RelayEndpoint endpoint, WebSocketSession socket) {
+        if (endpoint.socket == socket)
+            endpoint.socket = null;
+    }
+
+    /**
+     * Queues a frame received from the endpoint to its recipients, frames out of size bounds are dropped
+     */
+    public void forward(RelayEndpoint from, ByteBuffer frame) {
+        int length = frame.remaining();
+        if (length < HEADER_BYTES || length > maxFrameBytes) {
+            malformed.increment();
+            return;
+        }
+        frames.increment();
+        bytes.add(length);
+        if (frame.isReadOnly()) {
+            ByteBuffer copy = ByteBuffer.allocate(length);
+            copy.put(frame.duplicate()).flip();
+            frame = copy;
+        }
+        int to = frame.getInt(frame.position());
+        frame.putInt(frame.position(), from.peerId);
+        if (to == BROADCAST) {
+            int recipients = 0;
+            for (RelayEndpoint endpoint : from.links.values()) {
+                offer(endpoint, frame.asReadOnlyBuffer());
+                ++recipients;
+            }
+            fanOut.record(recipients);
+        } else {
+            RelayEndpoint endpoint = from.links.get(to);
+            if (endpoint == null)
+                unroutable.increment();
+            else
+                offer(endpoint, frame);
+        }
+    }
+
+    private void offer(RelayEndpoint endpoint, ByteBuffer frame) {
+        if (!endpoint.outbox.offer(frame)) {
+            overflows.increment();
+            return;
+        }
+        schedule(endpoint);
+    }
+
+    private void schedule(RelayEndpoint endpoint) {
+        if (endpoint.socket != null && !endpoint.outbox.isEmpty() && endpoint.draining.compareAndSet(false, true))
+            writers.execute(() -> drain(endpoint));
+    }
+
+    private void drain(RelayEndpoint endpoint) {
+        WebSocketSession socket = endpoint.socket;
+        endpoint.claimWriter(socket);
+        try {
+            ByteBuffer frame;
+            for (int i = 0; socket != null && i < DRAIN_BATCH && (frame = endpoint.outbox.poll()) != null; ++i) {
+                endpoint.sendStartedAt = System.nanoTime();
+                endpoint.sending = true;
+                socket.sendMessage(new BinaryMessage(frame));
+                endpoint.sending = false;
+            }
+        } catch (IOException | RuntimeException e) {
+            if (logger.isDebugEnabled())
+                logger.debug("Error writing relay frames to peer " + endpoint.peerId + ": " + e.getMessage());
+            endpoint.outbox.clear();
+        } finally {
+            endpoint.releaseWriter();
+            endpoint.draining.set(false);
+        }
+        schedule(endpoint);
+    }
+
+    /**
+     * Closes relay connections whose write in flight is overdue, their endpoints stay for the peers to reconnect
+     */
+    void checkDeadlines() {
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (RelayEndpoint endpoint : endpoints.values()) {
+            WebSocketSession socket = endpoint.sending ? endpoint.interruptIfOverdue(now, timeoutNanos) : null;
+            if (socket == null)
+                continue;
+            timeouts.increment();
+            logger.info("Closing relay connection of peer " + endpoint.peerId + " after a write took over "
+                    + timeoutMillis + " ms");
+            detach(endpoint, socket);
+            endpoint.outbox.clear();
+            try {
+                socket.close(SEND_TIMEOUT);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Error closing relay connection of peer " + endpoint.peerId, e);
+            }
+        }
+    }
+
+    @Override
+    public void onPeerLeft(SessionInfo info) throws Exception {
+        RelayEndpoint endpoint = remove(info.getPeerId());
+        WebSocketSession socket = endpoint == null ? null : endpoint.socket;
+        if (socket != null)
+            socket.close(CloseStatus.NORMAL);
+    }
+
+    private RelayEndpoint remove(int peerId) {
+        RelayEndpoint endpoint = endpoints.remove(peerId);
+        if (endpoint == null)
+            return null;
+        endpointsByToken.remove(endpoint.token, endpoint);
+        for (RelayEndpoint linked : endpoint.links.values())
+            linked.links.remove(endpoint.peerId, endpoint);
+        endpoint.outbox.clear();
+        return endpoint;
+    }
+}
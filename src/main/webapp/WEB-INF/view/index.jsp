@@ -1,4 +1,4 @@
-<%@ page contentType="text/html;charset=UTF-8" language="java" %>
+<%@ page contentType="text/html;charset=UTF-8" language="java" session="false" %>
 <html>
     <head>
         <title>Index</title>
@@ -6,8 +6,8 @@
         <meta http-equiv="X-UA-Compatible" content="IE=edge">
         <meta name="viewport" content="width=device-width, initial-scale=1">
         <script src="https://rawgit.com/webrtc/adapter/master/adapter.js"></script>
-        <link rel="stylesheet" type="text/css" href="css/normalize.css">
-        <link rel="stylesheet" type="text/css" href="/css/main.css"/>
+        <link rel="stylesheet" type="text/css" href="<%= response.encodeURL("/css/normalize.css") %>">
+        <link rel="stylesheet" type="text/css" href="<%= response.encodeURL("/css/main.css") %>"/>
     </head>
     <body>
         <div class="fullscreen" id="game-container">
@@ -48,11 +48,11 @@
         </div>
 
         <% if ("dev".equals(request.getParameter("mod"))) { %>
-        <script src="/js/goog.debug.js"></script>
-        <script src="/js/script.js"></script>
-        <script src="/js/webgl-debug.js"></script>
+        <script src="<%= response.encodeURL("/js/goog.debug.js") %>"></script>
+        <script src="<%= response.encodeURL("/js/script.js") %>"></script>
+        <script src="<%= response.encodeURL("/js/webgl-debug.js") %>"></script>
         <% } else { %>
-        <script src="/js/script.min.js"></script>
+        <script src="<%= response.encodeURL("/js/script.min.js") %>"></script>
         <% } %>
     </body>
 </html>
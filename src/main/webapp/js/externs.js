@@ -9,4 +9,27 @@ var WebGLDebugUtils = {
      * @param {Function=} onErrorFunc
      */
     makeDebugContext: function (ctx, onErrorFunc) {}
-};
\ No newline at end of file
+};
+
+/**
+ * @constructor
+ */
+function TextEncoder() {}
+
+/**
+ * @param {string=} input
+ * @return {!Uint8Array}
+ */
+TextEncoder.prototype.encode = function (input) {};
+
+/**
+ * @param {string=} label
+ * @constructor
+ */
+function TextDecoder(label) {}
+
+/**
+ * @param {(ArrayBuffer|ArrayBufferView)=} input
+ * @return {string}
+ */
+TextDecoder.prototype.decode = function (input) {};
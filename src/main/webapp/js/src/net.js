@@ -5,9 +5,31 @@ goog.require('events');
 
 (function () {
     var /** @const */ E_ICE = 'ice',
+        /** @const */ E_ICES = 'ices',
         /** @const */ E_OFFER = 'offer',
         /** @const */ E_ACCEPT = 'accept',
         /** @const */ E_REJECT = 'reject',
+        /** @const */ E_RELAY = 'relay',
+        /** @const */ E_RESUME = 'resume',
+
+        /**
+         * Close codes of the client leaving and of the server refusing it, which aren't worth reconnecting after
+         * @const
+         */
+        NO_RECONNECT_CODES = [1000, 1008],
+        /**
+         * Reconnects are delayed by this times the attempt number, all of them fitting in the server's grace period
+         * @const
+         */
+        RECONNECT_DELAY = 1000,
+        /** @const */ RECONNECT_ATTEMPTS = 5,
+
+        /**
+         * Data channels which didn't open in this time are replaced with the server relay
+         * @const
+         */
+        RELAY_FALLBACK_TIMEOUT = 10000,
+        /** @const */ RELAY_HEADER_BYTES = 4,
 
         /** @const */ ICE_SERVERS = [
             {'url': "stun:stun.l.google.com:19302"},
@@ -20,16 +42,44 @@ goog.require('events');
         ];
 
     /**
+     * Signaling connection. When it drops, it is reconnected with the resume token the server handed out,
+     * staying the same peer to everyone else.
      * @param {string} url
      * @constructor
      */
     net.Observer = function Observer(url) {
-        this._ws = new WebSocket(url);
+        /**
+         * @const
+         * @private
+         */
+        this._url = url;
+        /**
+         * @type {?string}
+         * @private
+         */
+        this._resumeToken = null;
+        /**
+         * @private
+         */
+        this._reconnects = 0;
+        /**
+         * @private
+         */
+        this._opened = false;
+        /**
+         * Messages sent while reconnecting
+         * @type {!Array.<string>}
+         * @private
+         */
+        this._pending = [];
         /**
          * @type {Object.<string,function(*)>}
          * @private
          */
         this._on = {};
+        this._on[E_RESUME] = function (message) {
+            this._resumeToken = message['token'];
+        };
         /**
          * @type {?function(Event)}
          */
@@ -38,9 +88,23 @@ goog.require('events');
          * @type {?function(Event)}
          */
         this.onClose = null;
-        initObserverEvents.call(this);
+        /**
+         * @type {WebSocket}
+         * @private
+         */
+        this._ws = null;
+        connectObserver.call(this);
     };
 
+    /**
+     * @this {net.Observer}
+     */
+    function connectObserver() {
+        var url = this._resumeToken === null ? this._url : this._url + "&resume=" + encodeURIComponent(this._resumeToken);
+        this._ws = new WebSocket(url);
+        initObserverEvents.call(this);
+    }
+
     /**
      * @this {net.Observer}
      */
@@ -57,6 +121,15 @@ goog.require('events');
      * @param {Event} evt
      */
     function wsOpen(evt) {
+        var pending = this._pending;
+        this._reconnects = 0;
+        this._pending = [];
+        pending.forEach(function (data) {
+            this._ws.send(data);
+        }, this);
+        if (this._opened)
+            return;
+        this._opened = true;
         this.onOpen && this.onOpen(evt);
     }
 
@@ -73,6 +146,13 @@ goog.require('events');
      * @param {Event} evt
      */
     function wsClose(evt) {
+        var code = evt['code'];
+        if (this._resumeToken !== null && NO_RECONNECT_CODES.indexOf(code) < 0 && this._reconnects < RECONNECT_ATTEMPTS) {
+            ++this._reconnects;
+            util.log("observing connection lost, reconnecting", evt);
+            setTimeout(connectObserver.bind(this), RECONNECT_DELAY * this._reconnects);
+            return;
+        }
         this.onClose && this.onClose(evt);
     }
 
@@ -100,10 +180,89 @@ goog.require('events');
      * @param {*} message
      */
     net.Observer.prototype.send = function (type, message) {
-        this._ws.send(type + "\n\n" + JSON.stringify(message));
+        var data = type + "\n\n" + JSON.stringify(message);
+        if (this._ws.readyState === 1) // WebSocket.OPEN
+            this._ws.send(data);
+        else
+            this._pending.push(data);
+    };
+
+    /**
+     * Connection to the server relay, carrying game messages to peers which couldn't be reached directly.
+     * Each frame is the 4 byte big-endian peer id of the recipient (of the sender when received) followed by the message.
+     * @param {string} url
+     * @constructor
+     */
+    net.Relay = function Relay(url) {
+        this._ws = new WebSocket(url);
+        this._ws.binaryType = 'arraybuffer';
+        this._encoder = new TextEncoder();
+        this._decoder = new TextDecoder();
+        /**
+         * @type {?function()}
+         */
+        this.onOpen = null;
+        /**
+         * @type {?function()}
+         */
+        this.onClose = null;
+        /**
+         * @type {?function(number, string)}
+         */
+        this.onMessage = null;
+        initRelayEvents.call(this);
+    };
+
+    /**
+     * @this {net.Relay}
+     */
+    function initRelayEvents() {
+        var self = this,
+            ws = this._ws;
+        ws.onopen = function () {
+            self.onOpen && self.onOpen();
+        };
+        ws.onerror = function (evt) {
+            util.log("relay connection failed", evt);
+        };
+        ws.onclose = function () {
+            self.onClose && self.onClose();
+        };
+        ws.onmessage = function (message) {
+            var buffer = /** @type {ArrayBuffer} */ (message.data);
+            if (buffer.byteLength < RELAY_HEADER_BYTES)
+                return;
+            var peerId = new DataView(buffer).getInt32(0),
+                data = self._decoder.decode(new Uint8Array(buffer, RELAY_HEADER_BYTES));
+            self.onMessage && self.onMessage(peerId, data);
+        };
+    }
+
+    /**
+     * @return {boolean}
+     */
+    net.Relay.prototype.isOpen = function () {
+        return this._ws.readyState === 1; // WebSocket.OPEN
     };
 
     /**
+     * @param {number} peerId
+     * @param {string} data
+     */
+    net.Relay.prototype.send = function (peerId, data) {
+        var encoded = this._encoder.encode(data),
+            frame = new Uint8Array(RELAY_HEADER_BYTES + encoded.length);
+        new DataView(frame.buffer).setInt32(0, peerId);
+        frame.set(encoded, RELAY_HEADER_BYTES);
+        this._ws.send(frame.buffer);
+    };
+
+    net.Relay.prototype.close = function () {
+        this._ws.close();
+    };
+
+    /**
+     * Peer to peer data channels, falling back to the server relay when one can't be established
      * @param {net.Observer} observer
      * @constructor
      * @implements {events.WithEvents}
@@ -122,6 +281,17 @@ goog.require('events');
          * @private
          */
         this._dataChannels = util.emptyObject();
+        /**
+         * relay peer ids of relayed connections
+         * @type {Object.<string, number>}
+         * @private
+         */
+        this._relayed = util.emptyObject();
+        /**
+         * @type {?net.Relay}
+         * @private
+         */
+        this._relay = null;
         initSubscriptions.call(this);
 
         /**
@@ -156,8 +326,37 @@ goog.require('events');
         this._peerConnections[peerId] = pc;
         this._dataChannels[peerId] = channel;
         initDataChannelHandlers.call(this, peerId);
+        initRelayFallback.call(this, peerId, pc, channel);
     };
 
+    /**
+     * Asks the server to relay the connection if ICE fails or the data channel doesn't open in time
+     * @this {net.WebRTC}
+     * @param {string} id
+     * @param {RTCPeerConnection} pc
+     * @param {RTCDataChannel} channel
+     */
+    function initRelayFallback(id, pc, channel) {
+        var observer = this._observer,
+            self = this,
+            requested = false;
+
+        function requestRelay() {
+            clearTimeout(timeout);
+            if (!requested && self._peerConnections[id] === pc && channel.readyState !== 'open') {
+                requested = true;
+                util.log("Peer to peer connection failed, requesting relay to", id);
+                observer.send(E_RELAY, {'id': id});
+            }
+        }
+
+        var timeout = setTimeout(requestRelay, RELAY_FALLBACK_TIMEOUT);
+        pc.oniceconnectionstatechange = function () {
+            if (pc.iceConnectionState === 'failed')
+                requestRelay();
+        };
+    }
+
     /**
      * @this {net.WebRTC}
      */
@@ -214,6 +413,18 @@ goog.require('events');
             }
         });
 
+        observer.on(E_RELAY, function (relay) {
+            var id = relay.id,
+                pc = self._peerConnections[id];
+            if (pc) {
+                delete self._dataChannels[id];
+                delete self._peerConnections[id];
+                pc.close();
+            }
+            self._relayed[id] = relay['peerId'];
+            openRelay.call(self, relay['token'], id);
+        });
+
         observer.on(E_ICE, function (ice) {
             var id = ice.id,
                 pc = self._peerConnections[id];
@@ -221,6 +432,16 @@ goog.require('events');
                 pc.addIceCandidate(new RTCIceCandidate(ice.candidate));
             }
         });
+
+        observer.on(E_ICES, function (ices) {
+            var id = ices.id,
+                pc = self._peerConnections[id];
+            if (pc) {
+                ices['candidates'].forEach(function (candidate) {
+                    pc.addIceCandidate(new RTCIceCandidate(candidate));
+                });
+            }
+        });
     }
 
     /**
@@ -238,12 +459,49 @@ goog.require('events');
             if (candidate) {
                 observer.send(E_ICE, {'id': id, 'candidate': candidate});
                 peerConnection.addIceCandidate(new RTCIceCandidate(candidate));
+            } else {
+                observer.send(E_ICE, {'id': id, 'candidate': null});
             }
         };
 
         return peerConnection;
     }
 
+    /**
+     * Opens the relay connection, unless already opened, and reports the relayed peer connected once it's ready
+     * @this {net.WebRTC}
+     * @param {string} token
+     * @param {string} id
+     */
+    function openRelay(token, id) {
+        var relay = this._relay,
+            self = this;
+        if (relay) {
+            relay.isOpen() && this.fire(events.E_OPEN, id);
+            return;
+        }
+        relay = this._relay = new net.Relay("ws://" + location.host + "/relay?token=" + encodeURIComponent(token));
+        relay.onOpen = function () {
+            for (var relayedId in self._relayed)
+                self.fire(events.E_OPEN, relayedId);
+        };
+        relay.onClose = function () {
+            var relayed = self._relayed;
+            self._relay = null;
+            self._relayed = util.emptyObject();
+            for (var relayedId in relayed)
+                self.fire(events.E_CLOSE, relayedId);
+        };
+        relay.onMessage = function (peerId, data) {
+            for (var relayedId in self._relayed) {
+                if (self._relayed[relayedId] === peerId) {
+                    self.fire(events.E_MESSAGE, relayedId, data);
+                    return;
+                }
+            }
+        };
+    }
+
     /**
      * @this {net.WebRTC}
      */
@@ -273,6 +531,7 @@ goog.require('events');
             delete this._dataChannels[id];
             delete this._peerConnections[id];
         }
+        delete this._relayed[id];
     };
 
     /**
@@ -281,9 +540,12 @@ goog.require('events');
      */
     net.WebRTC.prototype.send = function (id, data) {
         var dataChannel = this._dataChannels[id];
-        if (!dataChannel) {
+        if (dataChannel) {
+            dataChannel.send(data);
+        } else if (id in this._relayed && this._relay) {
+            this._relay.send(this._relayed[id], data);
+        } else {
             throw new Error("No such id");
         }
-        dataChannel.send(data);
     };
 })();
\ No newline at end of file
@@ -1,5 +1,6 @@
 goog.provide('ui');
 
+goog.require('util');
 goog.require('events');
 goog.require('net');
 goog.require('game.client');
@@ -61,7 +62,15 @@ goog.require('game.chat');
         postLoginPopup = $("post-login-popup"),
         peerList = $("peers"),
         hostList = $("hosts"),
-        chat = new ui.HtmlChat($("chat"));
+        chat = new ui.HtmlChat($("chat")),
+        /** @type {?string} */
+        selfId = null,
+        /** @type {?number} */
+        peersVersion = null,
+        /** @type {!Object.<string, Object>} */
+        peers = util.emptyObject(),
+        /** @type {!Array.<Object>} */
+        hosts = [];
 
     /**
      * @param {?Event=} evt
@@ -69,8 +78,12 @@ goog.require('game.chat');
     loginForm.onsubmit = function (evt) {
         evt.preventDefault();
 
-        var nickname = $("nickname").value;
-        observer = new net.Observer("ws://" + location.host + "/observer?nickname=" + encodeURI(nickname));
+        var nickname = $("nickname").value,
+            room = location.hash.substr(1),
+            url = "ws://" + location.host + "/observer?nickname=" + encodeURIComponent(nickname);
+        if (room)
+            url += "&room=" + encodeURI(room);
+        observer = new net.Observer(url);
         observer.onOpen = function () {
             loginPopup.classList.remove("popup-visible");
             postLoginPopup.classList.add("popup-visible");
@@ -87,23 +100,51 @@ goog.require('game.chat');
                 new game.client.GameClient(new game.net.RemoteServer(new game.net.WebRTCConnectorAdapter(webRtc), id), container, chat);
             });
         };
-        observer.on("peers", function (data) {
-            updatePeerList(data);
+        observer.on("peers", function (snapshot) {
+            selfId = snapshot['self'];
+            peersVersion = snapshot['version'];
+            peers = util.emptyObject();
+            snapshot['peers'].forEach(function (peer) {
+                peers[peer['id']] = peer;
+            });
+            updatePeerList();
+            updateHostList();
+        });
+        observer.on("peersdelta", function (delta) {
+            if (peersVersion === null || peersVersion >= delta['to'])
+                return;
+            if (peersVersion < delta['from']) {
+                peersVersion = null;
+                observer.send("peers", '');
+                return;
+            }
+            delta['joined'].forEach(function (peer) {
+                if (peer['id'] !== selfId)
+                    peers[peer['id']] = peer;
+            });
+            delta['left'].forEach(function (id) {
+                delete peers[id];
+            });
+            peersVersion = delta['to'];
+            updatePeerList();
         });
         observer.on("hosts", function (data) {
-            updateHostList(data);
+            hosts = /** @type {!Array.<Object>} */ (data);
+            updateHostList();
         });
         $("login-display").innerHTML = nickname;
     };
 
-    function updatePeerList(peers) {
-        peerList.innerHTML = peers.reduce(function (prev, peer) {
-            return prev + "<li>" + peer['nickname'] + "@" + peer['id'] + "</li>";
+    function updatePeerList() {
+        peerList.innerHTML = Object.keys(peers).reduce(function (prev, id) {
+            return prev + "<li>" + peers[id]['nickname'] + "@" + id + "</li>";
         }, "");
     }
 
-    function updateHostList(hosts) {
+    function updateHostList() {
         hostList.innerHTML = hosts.reduce(function (prev, host) {
+            if (host['id'] === selfId)
+                return prev;
             return prev + "<li>" + host['id'] + ' <button class="button-mini" data-host-id="' + host['id'] + '">Connect</button></li>';
         }, "");
     }
@@ -0,0 +1,44 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Signaling components wired as in the application, without scheduling and with rate limiting
+ * turned off, so benchmarks drive flushes themselves. Frames are handled inline, on the calling thread.
+ */
+@Configuration
+@ComponentScan("ru.zyulyaev.webrtc.shooter.websocket")
+public class BenchmarkContext {
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+        return new PropertySourcesPlaceholderConfigurer();
+    }
+
+    @Bean
+    public MetricRegistry metricRegistry() {
+        return new MetricRegistry();
+    }
+
+    public static AnnotationConfigApplicationContext create() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("shooter.ratelimit.rate", "1e12");
+        properties.put("shooter.ratelimit.burst", "1e12");
+        properties.put("shooter.ratelimit.overrides", "");
+        properties.put("shooter.dispatch.mode", "inline");
+        properties.put("shooter.heartbeat.tickMillis", "0");
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        context.register(BenchmarkContext.class);
+        context.refresh();
+        return context;
+    }
+}
@@ -0,0 +1,101 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.ObservingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.binary.BinaryCodec;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.OfferMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidateMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.SessionDescriptionMessage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full inbound path of a frame: routing, parsing, handler and relay to the recipient
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private AnnotationConfigApplicationContext context;
+    private ObservingHandler handler;
+    private InMemoryWebSocketSession caller;
+    private InMemoryWebSocketSession binaryCaller;
+    private InMemoryWebSocketSession callee;
+    private TextMessage textOffer;
+    private ByteBuffer binaryOffer;
+    private TextMessage candidate;
+    private TextMessage endOfCandidates;
+    private TextMessage unknown;
+
+    @Setup
+    public void setUp() throws Exception {
+        context = BenchmarkContext.create();
+        handler = context.getBean(ObservingHandler.class);
+        caller = new InMemoryWebSocketSession("caller", "caller", "lobby", null);
+        binaryCaller = new InMemoryWebSocketSession("binaryCaller", "binaryCaller", "lobby", BinaryCodec.PROTOCOL);
+        callee = new InMemoryWebSocketSession("callee", "callee", "lobby", null);
+        handler.afterConnectionEstablished(caller);
+        handler.afterConnectionEstablished(binaryCaller);
+        handler.afterConnectionEstablished(callee);
+
+        Gson gson = new Gson();
+        SessionDescriptionMessage offer = new SessionDescriptionMessage(SessionManagerHandler.getId(callee), Samples.description());
+        textOffer = new TextMessage("offer\n\n" + gson.toJson(offer));
+        binaryOffer = context.getBean(BinaryCodec.class).encode(OfferMessageHandler.OFFER_TYPE, offer);
+        candidate = new TextMessage("ice\n\n" + gson.toJson(new IceCandidateMessage(SessionManagerHandler.getId(callee), Samples.candidate())));
+        endOfCandidates = new TextMessage("ice\n\n" + gson.toJson(new IceCandidateMessage(SessionManagerHandler.getId(callee), null)));
+        unknown = new TextMessage("unknown\n\n{}");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        handler.afterConnectionClosed(caller, CloseStatus.NORMAL);
+        handler.afterConnectionClosed(binaryCaller, CloseStatus.NORMAL);
+        handler.afterConnectionClosed(callee, CloseStatus.NORMAL);
+        context.close();
+    }
+
+    @Benchmark
+    public void textOffer() throws Exception {
+        handler.handleMessage(caller, textOffer);
+    }
+
+    @Benchmark
+    public void binaryOffer() throws Exception {
+        handler.handleMessage(binaryCaller, new BinaryMessage(binaryOffer.duplicate()));
+    }
+
+    /**
+     * Candidate followed by end of candidates, so the batch is relayed at once
+     */
+    @Benchmark
+    public void textIce() throws Exception {
+        handler.handleMessage(caller, candidate);
+        handler.handleMessage(caller, endOfCandidates);
+    }
+
+    @Benchmark
+    public void unknownFrame() throws Exception {
+        handler.handleMessage(caller, unknown);
+    }
+}
@@ -0,0 +1,89 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.TextMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.MessageUtils;
+import ru.zyulyaev.webrtc.shooter.websocket.binary.BinaryCodec;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.ClientListSendingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.IceMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.OfferMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.ClientData;
+import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidateMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.PeersSnapshotMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.SessionDescriptionMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding an offer in both wire formats, and of the text encoding of a candidate and
+ * of a snapshot of a room with {@value #PEERS} peers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+    private static final int PEERS = 100;
+
+    private AnnotationConfigApplicationContext context;
+    private BinaryCodec codec;
+    private SessionDescriptionMessage offer;
+    private IceCandidateMessage candidate;
+    private PeersSnapshotMessage snapshot;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.create();
+        codec = context.getBean(BinaryCodec.class);
+        InMemoryWebSocketSession sender = new InMemoryWebSocketSession("sender", "sender", "lobby", null);
+        context.getBean(SessionManagerHandler.class).onClientConnected(sender);
+        offer = new SessionDescriptionMessage(SessionManagerHandler.getId(sender), Samples.description());
+        candidate = new IceCandidateMessage(SessionManagerHandler.getId(sender), Samples.candidate());
+        List<ClientData> peers = new ArrayList<>();
+        for (int i = 0; i < PEERS; ++i)
+            peers.add(new ClientData(Integer.toString(i + 2), "member" + i, i + 2));
+        snapshot = new PeersSnapshotMessage(PEERS, SessionManagerHandler.getId(sender), SessionManagerHandler.getPeerId(sender), peers);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public TextMessage textOffer() {
+        return MessageUtils.toTextMessage(OfferMessageHandler.OFFER_TYPE, offer);
+    }
+
+    @Benchmark
+    public TextMessage textCandidate() {
+        return MessageUtils.toTextMessage(IceMessageHandler.ICE_TYPE, candidate);
+    }
+
+    @Benchmark
+    public TextMessage textPeers() {
+        return MessageUtils.toTextMessage(ClientListSendingHandler.PEERS_TYPE, snapshot);
+    }
+
+    @Benchmark
+    public ByteBuffer binaryOffer() {
+        return codec.encode(OfferMessageHandler.OFFER_TYPE, offer);
+    }
+}
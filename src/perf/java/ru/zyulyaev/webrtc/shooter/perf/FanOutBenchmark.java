@@ -0,0 +1,78 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.ClientListSendingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.HostManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.HostMessage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One session joining and leaving a room of the given size, with the resulting list updates
+ * sent to everyone in the room
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    private static final String ROOM = "lobby";
+
+    @Param({"100", "1000", "10000"})
+    private int sessions;
+
+    private AnnotationConfigApplicationContext context;
+    private SessionManagerHandler sessionManager;
+    private ClientListSendingHandler clientList;
+    private HostManagerHandler hostManager;
+    private InMemoryWebSocketSession churn;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.create();
+        sessionManager = context.getBean(SessionManagerHandler.class);
+        clientList = context.getBean(ClientListSendingHandler.class);
+        hostManager = context.getBean(HostManagerHandler.class);
+        // room members only need to be reachable, their own lists are not under test
+        for (int i = 0; i < sessions; ++i)
+            sessionManager.onClientConnected(new InMemoryWebSocketSession("member" + i, "member" + i, ROOM, null));
+        churn = new InMemoryWebSocketSession("churn", "churn", ROOM, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void peersDelta() throws Exception {
+        sessionManager.onClientConnected(churn);
+        clientList.onClientConnected(churn);
+        // the client leaving, so the peer's entries go right away
+        sessionManager.onClientDisconnected(churn, CloseStatus.NORMAL);
+        clientList.flush();
+    }
+
+    @Benchmark
+    public void hostsRefresh() throws Exception {
+        sessionManager.onClientConnected(churn);
+        hostManager.handle(churn, new HostMessage());
+        sessionManager.onClientDisconnected(churn, CloseStatus.NORMAL);
+    }
+}
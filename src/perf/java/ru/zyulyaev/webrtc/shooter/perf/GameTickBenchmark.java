@@ -0,0 +1,83 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.zyulyaev.webrtc.shooter.game.Connector;
+import ru.zyulyaev.webrtc.shooter.game.GameServer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One tick of a dedicated host with the given number of moving players on top of the map. Players are
+ * spread over an area growing with their number, so density stays about one player per 60x60 square.
+ * Infinite cell size makes the grid test every pair of bodies, which is what the script does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameTickBenchmark {
+    private static final double TICK_SECONDS = 0.02;
+    private static final double SPACING = 60;
+
+    @Param({"100", "1000", "5000"})
+    private int objects;
+
+    @Param({"100", "Infinity"})
+    private String cellSize;
+
+    private GameServer server;
+    private long sent;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Random random = new Random(42);
+        server = new GameServer(new Connector() {
+            @Override
+            public void send(String clientId, String message) {
+                sent += message.length();
+            }
+
+            @Override
+            public void sendAll(String message) {
+                sent += message.length();
+            }
+        }, 16380, Double.parseDouble(cellSize), random);
+        double side = Math.sqrt(objects) * SPACING;
+        for (int i = 0; i < objects; ++i) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            server.onMessage("bench", player("player" + i, (random.nextDouble() - 0.5) * side, (random.nextDouble() - 0.5) * side,
+                    Math.cos(angle) * 1000, Math.sin(angle) * 1000));
+        }
+    }
+
+    private static String player(String id, double x, double y, double forceX, double forceY) {
+        return "{\"objects\":[{\"id\":\"" + id + "\",\"body\":{"
+                + "\"position\":{\"x\":" + x + ",\"y\":" + y + ",\"type\":\"geom.Vector\"},"
+                + "\"speed\":{\"x\":0,\"y\":0,\"type\":\"geom.Vector\"},"
+                + "\"shape\":{\"radius\":20,\"type\":\"phys.Circle\"},\"weight\":0.6,"
+                + "\"internalForce\":{\"x\":" + forceX + ",\"y\":" + forceY + ",\"type\":\"geom.Vector\"},"
+                + "\"maxSpeed\":300,\"type\":\"phys.MotionBody\"},"
+                + "\"course\":0,\"hitPoints\":15,\"teamName\":\"GreenTeam\",\"type\":\"game.data.PlayerObject\"}],"
+                + "\"type\":\"game.message.ObjectsCreationMessage\"}";
+    }
+
+    @Benchmark
+    public long tick() {
+        server.tick(TICK_SECONDS);
+        return sent;
+    }
+}
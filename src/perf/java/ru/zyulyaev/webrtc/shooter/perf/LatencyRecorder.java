@@ -0,0 +1,51 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps every sample, so percentiles are exact
+ */
+public class LatencyRecorder {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final String name;
+    private long[] samples = new long[1024];
+    private int count;
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    public synchronized void record(long nanos) {
+        if (count == samples.length)
+            samples = Arrays.copyOf(samples, count * 2);
+        samples[count++] = nanos;
+    }
+
+    public synchronized String report(long durationNanos) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        StringBuilder result = new StringBuilder(String.format("%-12s %9d %10.1f/s", name, count,
+                count / (durationNanos / (double) TimeUnit.SECONDS.toNanos(1))));
+        for (double percentile : PERCENTILES)
+            result.append(String.format("  p%-4s %8.2fms", format(percentile), toMillis(percentile(sorted, percentile))));
+        result.append(String.format("  max %8.2fms", toMillis(count == 0 ? 0 : sorted[count - 1])));
+        return result.toString();
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0)
+            return 0;
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+}
@@ -0,0 +1,318 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Boots the signaling endpoint on an embedded Jetty and drives it with synthetic clients over loopback.
+ * Clients are paired up, in every round the host connects and announces itself, the guest connects and
+ * sends an offer, the host accepts, both trickle candidates and disconnect, then the pair starts over.
+ * <p>
+ * Options are {@code key=value} arguments: clients, rooms, candidates, duration, ramp and timeout
+ * (the last three in seconds).
+ */
+public class LoadGenerator {
+    private final int clients;
+    private final int rooms;
+    private final int candidates;
+    private final long durationSeconds;
+    private final long rampSeconds;
+    private final long timeoutSeconds;
+    /**
+     * Percentage of negotiations in which the guest's connection drops with the offer in flight
+     */
+    private final int blips;
+
+    private final LatencyRecorder connectLatency = new LatencyRecorder("connect");
+    private final LatencyRecorder offerLatency = new LatencyRecorder("offer");
+    private final LatencyRecorder acceptLatency = new LatencyRecorder("accept");
+    private final LatencyRecorder iceLatency = new LatencyRecorder("ice");
+    private final LatencyRecorder negotiationLatency = new LatencyRecorder("offer>accept");
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder blipped = new LongAdder();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+
+    private WebSocketClient client;
+    private URI endpoint;
+    private volatile boolean running = true;
+
+    public LoadGenerator(Map<String, String> options) {
+        clients = Integer.parseInt(options.getOrDefault("clients", "1000"));
+        rooms = Integer.parseInt(options.getOrDefault("rooms", "10"));
+        candidates = Integer.parseInt(options.getOrDefault("candidates", "4"));
+        durationSeconds = Long.parseLong(options.getOrDefault("duration", "30"));
+        rampSeconds = Long.parseLong(options.getOrDefault("ramp", "5"));
+        timeoutSeconds = Long.parseLong(options.getOrDefault("timeout", "10"));
+        blips = Integer.parseInt(options.getOrDefault("blips", "0"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2)
+                throw new IllegalArgumentException("Options should look like key=value: " + arg);
+            options.put(parts[0], parts[1]);
+        }
+        new LoadGenerator(options).run();
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext();
+        // every synthetic client connects from the same address, at whatever rate the ramp asks for
+        Map<String, Object> admission = new HashMap<>();
+        admission.put("shooter.admission.maxConnectionsPerAddress", Integer.MAX_VALUE);
+        admission.put("shooter.admission.addressConnectRate", "1e12");
+        admission.put("shooter.admission.addressConnectBurst", "1e12");
+        admission.put("shooter.admission.connectRate", "1e12");
+        admission.put("shooter.admission.connectBurst", "1e12");
+        context.getEnvironment().getPropertySources().addLast(new MapPropertySource("load", admission));
+        context.register(LoadTestConfig.class);
+        Server server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        connector.setAcceptQueueSize(clients);
+        server.addConnector(connector);
+        ServletContextHandler handler = new ServletContextHandler();
+        ServletHolder dispatcher = new ServletHolder(new DispatcherServlet(context));
+        dispatcher.setInitOrder(0);
+        handler.addServlet(dispatcher, "/");
+        server.setHandler(handler);
+        server.start();
+        endpoint = URI.create("ws://127.0.0.1:" + connector.getLocalPort() + "/observer");
+
+        client = new WebSocketClient();
+        client.start();
+
+        int pairs = Math.max(1, clients / 2);
+        System.out.println("Running " + pairs * 2 + " clients in " + rooms + " rooms for " + durationSeconds + "s against " + endpoint);
+        long started = System.nanoTime();
+        for (int i = 0; i < pairs; ++i) {
+            String room = "room" + i % rooms;
+            scheduler.schedule(() -> new Negotiation(room).start(), TimeUnit.SECONDS.toMillis(rampSeconds) * i / pairs, TimeUnit.MILLISECONDS);
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        running = false;
+        report(System.nanoTime() - started, context.getBean(MetricRegistry.class));
+
+        scheduler.shutdownNow();
+        client.stop();
+        server.stop();
+    }
+
+    private void report(long durationNanos, MetricRegistry metrics) throws IOException {
+        System.out.println();
+        for (LatencyRecorder recorder : Arrays.asList(connectLatency, offerLatency, acceptLatency, iceLatency, negotiationLatency))
+            System.out.println(recorder.report(durationNanos));
+        System.out.printf("negotiations %d completed (%.1f/s), %d timed out, %d client errors%n", completed.sum(),
+                completed.sum() / (durationNanos / (double) TimeUnit.SECONDS.toNanos(1)), timeouts.sum(), errors.sum());
+        if (blips > 0)
+            System.out.printf("%d guests dropped their connection with the offer in flight%n", blipped.sum());
+        StringWriter server = new StringWriter();
+        metrics.writeTo(server);
+        for (String line : server.toString().split("\n")) {
+            if (line.startsWith("shooter_frames_dropped_total") || line.startsWith("shooter_send_errors_total")
+                    || line.startsWith("shooter_mailbox_dropped_total") || line.startsWith("shooter_handshakes_rejected_total")
+                    || line.startsWith("shooter_sessions_resume") || line.startsWith("shooter_frames_out_total{type=\"peersdelta\"}"))
+                System.out.println("server: " + line);
+        }
+    }
+
+    private static long sentAt(JsonElement data, String property) {
+        JsonElement payload = data.getAsJsonObject().get(property);
+        if (payload == null || !payload.isJsonObject() || !payload.getAsJsonObject().has("sentAt"))
+            return -1;
+        return payload.getAsJsonObject().get("sentAt").getAsLong();
+    }
+
+    private static JsonObject message(String recipient, String property, JsonElement payload) {
+        JsonObject message = new JsonObject();
+        message.addProperty("id", recipient);
+        message.add(property, payload);
+        return message;
+    }
+
+    private static JsonObject description(String type) {
+        JsonObject description = Samples.description();
+        description.addProperty("type", type);
+        description.addProperty("sentAt", System.nanoTime());
+        return description;
+    }
+
+    /**
+     * One round of a host and a guest negotiating a connection
+     */
+    private class Negotiation implements SyntheticClient.Listener {
+        private final String room;
+        private final SyntheticClient host = new SyntheticClient(this);
+        private SyntheticClient guest = new SyntheticClient(this);
+        /**
+         * Guest's connection before it dropped
+         */
+        private SyntheticClient dropped;
+        private long hostConnecting;
+        private long guestConnecting;
+        private long offerSent;
+        private int hostCandidates;
+        private int guestCandidates;
+        private boolean finished;
+        private ScheduledFuture<?> timeout;
+
+        Negotiation(String room) {
+            this.room = room;
+        }
+
+        synchronized void start() {
+            if (!running)
+                return;
+            timeout = scheduler.schedule(this::timedOut, timeoutSeconds, TimeUnit.SECONDS);
+            hostConnecting = System.nanoTime();
+            connect(host, "host", null);
+        }
+
+        private void connect(SyntheticClient synthetic, String nickname, String resumeToken) {
+            String query = "?nickname=" + nickname + "&room=" + room + (resumeToken == null ? "" : "&resume=" + resumeToken);
+            try {
+                client.connect(synthetic, URI.create(endpoint + query));
+            } catch (IOException e) {
+                onError(synthetic, e);
+            }
+        }
+
+        @Override
+        public synchronized void onMessage(SyntheticClient synthetic, String type, JsonElement data) {
+            if (finished || synthetic == dropped)
+                return;
+            long now = System.nanoTime();
+            switch (type) {
+                case "peers":
+                    if (synthetic == host && hostConnecting != 0) {
+                        connectLatency.record(now - hostConnecting);
+                        hostConnecting = 0;
+                        host.send("host", new JsonObject());
+                        guestConnecting = System.nanoTime();
+                        connect(guest, "guest", null);
+                    } else if (synthetic == guest && guestConnecting != 0) {
+                        connectLatency.record(now - guestConnecting);
+                        guestConnecting = 0;
+                        offerSent = System.nanoTime();
+                        guest.send("offer", message(host.getSelfId(), "description", description("offer")));
+                        if (ThreadLocalRandom.current().nextInt(100) < blips)
+                            blip();
+                    }
+                    break;
+                case "offer":
+                    record(offerLatency, now, sentAt(data, "description"));
+                    String guestId = data.getAsJsonObject().get("id").getAsString();
+                    host.send("accept", message(guestId, "description", description("answer")));
+                    sendCandidates(host, guestId);
+                    break;
+                case "accept":
+                    record(acceptLatency, now, sentAt(data, "description"));
+                    negotiationLatency.record(now - offerSent);
+                    sendCandidates(guest, host.getSelfId());
+                    break;
+                case "ice":
+                    record(iceLatency, now, sentAt(data, "candidate"));
+                    received(synthetic, 1);
+                    break;
+                case "ices":
+                    int count = 0;
+                    for (JsonElement candidate : data.getAsJsonObject().getAsJsonArray("candidates")) {
+                        JsonElement sentAt = candidate.getAsJsonObject().get("sentAt");
+                        record(iceLatency, now, sentAt == null ? -1 : sentAt.getAsLong());
+                        ++count;
+                    }
+                    received(synthetic, count);
+                    break;
+            }
+        }
+
+        /**
+         * The answer reaches the guest once it has resumed its session on a new connection
+         */
+        private void blip() {
+            blipped.increment();
+            dropped = guest;
+            guest = new SyntheticClient(this);
+            try {
+                dropped.drop();
+            } catch (IOException e) {
+                onError(dropped, e);
+            }
+            connect(guest, "guest", dropped.getResumeToken());
+        }
+
+        private void record(LatencyRecorder recorder, long now, long sentAt) {
+            if (sentAt >= 0)
+                recorder.record(now - sentAt);
+        }
+
+        private void sendCandidates(SyntheticClient from, String to) {
+            for (int i = 0; i < candidates; ++i) {
+                JsonObject candidate = Samples.candidate();
+                candidate.addProperty("sentAt", System.nanoTime());
+                from.send("ice", message(to, "candidate", candidate));
+            }
+            from.send("ice", message(to, "candidate", JsonNull.INSTANCE));
+        }
+
+        private void received(SyntheticClient synthetic, int count) {
+            if (synthetic == host)
+                hostCandidates += count;
+            else
+                guestCandidates += count;
+            if (hostCandidates >= candidates && guestCandidates >= candidates) {
+                completed.increment();
+                finish();
+            }
+        }
+
+        private synchronized void timedOut() {
+            if (finished)
+                return;
+            timeouts.increment();
+            finish();
+        }
+
+        @Override
+        public void onError(SyntheticClient synthetic, Throwable cause) {
+            errors.increment();
+        }
+
+        private void finish() {
+            finished = true;
+            timeout.cancel(false);
+            host.close();
+            guest.close();
+            if (running)
+                scheduler.execute(() -> new Negotiation(room).start());
+        }
+    }
+}
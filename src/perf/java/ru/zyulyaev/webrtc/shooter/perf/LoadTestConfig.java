@@ -0,0 +1,27 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import ru.zyulyaev.webrtc.shooter.config.WebSocketConfig;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+
+/**
+ * Signaling endpoint as deployed, without MVC and static resources
+ */
+@Configuration
+@Import(WebSocketConfig.class)
+@EnableScheduling
+public class LoadTestConfig {
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+        return new PropertySourcesPlaceholderConfigurer();
+    }
+
+    @Bean
+    public MetricRegistry metricRegistry() {
+        return new MetricRegistry();
+    }
+}
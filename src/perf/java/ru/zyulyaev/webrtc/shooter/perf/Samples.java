@@ -0,0 +1,43 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Signaling payloads of realistic size, taken from a Chrome data channel negotiation
+ */
+public final class Samples {
+    public static final String SDP = "v=0\r\n" +
+            "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n" +
+            "s=-\r\n" +
+            "t=0 0\r\n" +
+            "a=group:BUNDLE data\r\n" +
+            "a=msid-semantic: WMS\r\n" +
+            "m=application 9 DTLS/SCTP 5000\r\n" +
+            "c=IN IP4 0.0.0.0\r\n" +
+            "a=ice-ufrag:Xt6N+qyOoAOw2Ksl\r\n" +
+            "a=ice-pwd:ZdmIdOHc7VPgRN0tTtG6qE3z\r\n" +
+            "a=ice-options:google-ice\r\n" +
+            "a=fingerprint:sha-256 5B:70:D6:2B:8F:EF:13:62:83:4B:EB:4B:7A:A3:DB:65:9B:3B:65:45:0B:94:4F:8A:AE:13:2A:39:B0:65:0E:4E\r\n" +
+            "a=setup:actpass\r\n" +
+            "a=mid:data\r\n" +
+            "a=sctpmap:5000 webrtc-datachannel 1024\r\n";
+
+    public static final String CANDIDATE = "candidate:2999745851 1 udp 2122260223 192.168.56.1 54417 typ host generation 0";
+
+    public static JsonObject description() {
+        JsonObject description = new JsonObject();
+        description.addProperty("type", "offer");
+        description.addProperty("sdp", SDP);
+        return description;
+    }
+
+    public static JsonObject candidate() {
+        JsonObject candidate = new JsonObject();
+        candidate.addProperty("candidate", CANDIDATE);
+        candidate.addProperty("sdpMid", "data");
+        candidate.addProperty("sdpMLineIndex", 0);
+        return candidate;
+    }
+
+    private Samples() {}
+}
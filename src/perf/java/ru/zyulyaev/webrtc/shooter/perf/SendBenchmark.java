@@ -0,0 +1,99 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.WebSocketMessage;
+import ru.zyulyaev.webrtc.shooter.metrics.Counter;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+import ru.zyulyaev.webrtc.shooter.websocket.OutboundMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.binary.BinaryCodec;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.ClientListSendingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.ClientData;
+import ru.zyulyaev.webrtc.shooter.websocket.message.PeersSnapshotMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of send accounting: a snapshot of {@value #PEERS} peers with non-ASCII nicknames is
+ * broadcast to {@value #RECIPIENTS} sessions without accounting, with the sender's accounting, which takes
+ * the size once per message, and with the size measured per frame, which encodes the text every time
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendBenchmark {
+    private static final int PEERS = 100;
+    private static final int RECIPIENTS = 100;
+
+    private AnnotationConfigApplicationContext context;
+    private BinaryCodec codec;
+    private PeersSnapshotMessage snapshot;
+    private InMemoryWebSocketSession[] recipients;
+    private Counter bytes;
+    private Counter frames;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.create();
+        codec = context.getBean(BinaryCodec.class);
+        MetricRegistry metrics = context.getBean(MetricRegistry.class);
+        bytes = metrics.counter("shooter_bytes_out_total");
+        frames = metrics.counter("shooter_frames_out_total", "type", ClientListSendingHandler.PEERS_TYPE);
+        List<ClientData> peers = new ArrayList<>();
+        for (int i = 0; i < PEERS; ++i)
+            peers.add(new ClientData(Integer.toString(i + 2), "\u0438\u0433\u0440\u043e\u043a" + i, i + 2));
+        snapshot = new PeersSnapshotMessage(PEERS, "1", 1, peers);
+        recipients = new InMemoryWebSocketSession[RECIPIENTS];
+        for (int i = 0; i < RECIPIENTS; ++i)
+            recipients[i] = new InMemoryWebSocketSession("recipient" + i, "recipient" + i, "lobby", null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void uninstrumented() {
+        OutboundMessage message = new OutboundMessage(ClientListSendingHandler.PEERS_TYPE, snapshot);
+        for (InMemoryWebSocketSession recipient : recipients)
+            recipient.sendMessage(message.encodeFor(recipient, codec));
+    }
+
+    @Benchmark
+    public void instrumented() {
+        OutboundMessage message = new OutboundMessage(ClientListSendingHandler.PEERS_TYPE, snapshot);
+        for (InMemoryWebSocketSession recipient : recipients) {
+            WebSocketMessage<?> frame = message.encodeFor(recipient, codec);
+            recipient.sendMessage(frame);
+            bytes.add(message.getPayloadLength(frame));
+            frames.increment();
+        }
+    }
+
+    @Benchmark
+    public void measuredPerFrame() {
+        OutboundMessage message = new OutboundMessage(ClientListSendingHandler.PEERS_TYPE, snapshot);
+        for (InMemoryWebSocketSession recipient : recipients) {
+            WebSocketMessage<?> frame = message.encodeFor(recipient, codec);
+            recipient.sendMessage(frame);
+            bytes.add(frame.getPayloadLength());
+            frames.increment();
+        }
+    }
+}
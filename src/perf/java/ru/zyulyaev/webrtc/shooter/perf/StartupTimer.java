@@ -0,0 +1,92 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+import ru.zyulyaev.webrtc.shooter.config.RootConfig;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures what starting a node costs: time until the application context is up, then CPU time, live threads
+ * and heap of the whole process after it settles, which is where the runtime script compiler shows up.
+ * <p>
+ * Options are {@code key=value} arguments: profiles (comma separated, e.g. {@code dev}), webapp (directory
+ * to serve, copied first so nothing is written into it) and settle (seconds).
+ */
+public class StartupTimer {
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2)
+                throw new IllegalArgumentException("Options should look like key=value: " + arg);
+            options.put(parts[0], parts[1]);
+        }
+        String profiles = options.getOrDefault("profiles", "");
+        Path webapp = copy(Paths.get(options.getOrDefault("webapp", "src/main/webapp")));
+        long settleSeconds = Long.parseLong(options.getOrDefault("settle", "30"));
+
+        long cpuBefore = processCpuNanos();
+        long started = System.nanoTime();
+        AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext();
+        if (!profiles.isEmpty())
+            context.getEnvironment().setActiveProfiles(profiles.split(","));
+        context.register(RootConfig.class);
+        Server server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        server.addConnector(connector);
+        ServletContextHandler handler = new ServletContextHandler();
+        handler.setResourceBase(webapp.toString());
+        ServletHolder dispatcher = new ServletHolder(new DispatcherServlet(context));
+        dispatcher.setInitOrder(0);
+        handler.addServlet(dispatcher, "/");
+        server.setHandler(handler);
+        server.start();
+        long startupNanos = System.nanoTime() - started;
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(settleSeconds));
+        long cpuNanos = processCpuNanos() - cpuBefore;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+
+        System.out.println();
+        System.out.printf("profiles [%s]: context up in %dms, after %ds: cpu %dms, %d live threads, %.1fMB heap used%n",
+                profiles, TimeUnit.NANOSECONDS.toMillis(startupNanos), settleSeconds,
+                TimeUnit.NANOSECONDS.toMillis(cpuNanos), threads.getThreadCount(), heap / (1024.0 * 1024));
+        server.stop();
+        System.exit(0);
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    private static Path copy(Path source) throws IOException {
+        Path target = Files.createTempDirectory("webapp");
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path copy = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path))
+                    Files.createDirectories(copy);
+                else
+                    Files.copy(path, copy);
+            }
+        }
+        return target;
+    }
+}
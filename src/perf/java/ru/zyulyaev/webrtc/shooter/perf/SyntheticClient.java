@@ -0,0 +1,102 @@
+package ru.zyulyaev.webrtc.shooter.perf;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketListener;
+
+import java.io.IOException;
+
+/**
+ * Signaling client speaking the text protocol, reports every received message to its listener
+ */
+public class SyntheticClient implements WebSocketListener {
+    private static final String SEPARATOR = "\n\n";
+
+    public interface Listener {
+        void onMessage(SyntheticClient client, String type, JsonElement data);
+
+        void onError(SyntheticClient client, Throwable cause);
+    }
+
+    private final JsonParser parser = new JsonParser();
+    private final Listener listener;
+    private volatile Session session;
+    private volatile String selfId;
+    private volatile String resumeToken;
+    private volatile boolean closing;
+
+    public SyntheticClient(Listener listener) {
+        this.listener = listener;
+    }
+
+    public String getSelfId() {
+        return selfId;
+    }
+
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    public void send(String type, JsonElement data) {
+        Session current = session;
+        if (current != null && current.isOpen())
+            current.getRemote().sendStringByFuture(type + SEPARATOR + data);
+    }
+
+    public void close() {
+        closing = true;
+        Session current = session;
+        if (current != null)
+            current.close();
+    }
+
+    /**
+     * Drops the connection without a close frame, as a network failure would
+     */
+    public void drop() throws IOException {
+        closing = true;
+        Session current = session;
+        session = null;
+        if (current != null)
+            current.disconnect();
+    }
+
+    @Override
+    public void onWebSocketConnect(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void onWebSocketText(String message) {
+        int separator = message.indexOf(SEPARATOR);
+        if (separator < 0)
+            return;
+        String type = message.substring(0, separator);
+        JsonElement data = parser.parse(message.substring(separator + SEPARATOR.length()));
+        if (data.isJsonObject() && ((JsonObject) data).has("self"))
+            selfId = ((JsonObject) data).get("self").getAsString();
+        else if (type.equals("resume"))
+            resumeToken = data.getAsJsonObject().get("token").getAsString();
+        listener.onMessage(this, type, data);
+    }
+
+    @Override
+    public void onWebSocketBinary(byte[] payload, int offset, int len) {
+    }
+
+    @Override
+    public void onWebSocketClose(int statusCode, String reason) {
+        session = null;
+    }
+
+    /**
+     * Frames crossing the close frame, like pings which can't be answered any more, are not errors
+     */
+    @Override
+    public void onWebSocketError(Throwable cause) {
+        if (!closing)
+            listener.onError(this, cause);
+    }
+}
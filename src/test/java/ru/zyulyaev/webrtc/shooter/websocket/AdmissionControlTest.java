@@ -0,0 +1,127 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControlTest {
+    private AnnotationConfigApplicationContext context;
+    private AdmissionControl admission;
+
+    @Before
+    public void setUp() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("shooter.admission.addressConnectRate", "0.001");
+        properties.put("shooter.admission.addressConnectBurst", "1");
+        properties.put("shooter.admission.connectRate", "0.001");
+        properties.put("shooter.admission.connectBurst", "1");
+        context = TestContext.create(properties);
+        admission = context.getBean(AdmissionControl.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void tokenIsReturnedWhenALaterInterceptorRejectsTheHandshake() throws Exception {
+        ServerHttpRequest request = request();
+        ServerHttpResponse response = response();
+        assertTrue(admission.beforeHandshake(request, response, null, new HashMap<>()));
+        // as the interceptor chain does when a later interceptor returns false
+        response.setStatusCode(HttpStatus.BAD_REQUEST);
+        admission.afterHandshake(request, response, null, null);
+
+        assertTrue(admission.beforeHandshake(request(), response(), null, new HashMap<>()));
+    }
+
+    @Test
+    public void tokenIsReturnedWhenTheHandshakeFails() throws Exception {
+        ServerHttpRequest request = request();
+        assertTrue(admission.beforeHandshake(request, response(), null, new HashMap<>()));
+        admission.afterHandshake(request, response(), null, new IllegalStateException("upgrade failed"));
+
+        assertTrue(admission.beforeHandshake(request(), response(), null, new HashMap<>()));
+    }
+
+    @Test
+    public void tokenIsKeptByAnUpgradedConnection() throws Exception {
+        ServerHttpRequest request = request();
+        ServerHttpResponse response = response();
+        assertTrue(admission.beforeHandshake(request, response, null, new HashMap<>()));
+        response.setStatusCode(HttpStatus.SWITCHING_PROTOCOLS);
+        admission.afterHandshake(request, response, null, null);
+
+        ServerHttpResponse rejected = response();
+        assertFalse(admission.beforeHandshake(request(), rejected, null, new HashMap<>()));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(),
+                ((ServletServerHttpResponse) rejected).getServletResponse().getStatus());
+    }
+
+    @Test
+    public void addressTokenIsReturnedWhenTheServerIsOverRate() throws Exception {
+        ServerHttpRequest other = request("10.0.0.2");
+        assertTrue(admission.beforeHandshake(other, response(), null, new HashMap<>()));
+        ServerHttpResponse rejected = response();
+        assertFalse(admission.beforeHandshake(request(), rejected, null, new HashMap<>()));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(),
+                ((ServletServerHttpResponse) rejected).getServletResponse().getStatus());
+        admission.afterHandshake(other, response(), null, new IllegalStateException("upgrade failed"));
+
+        assertTrue(admission.beforeHandshake(request(), response(), null, new HashMap<>()));
+    }
+
+    private static ServerHttpRequest request() {
+        return request("10.0.0.1");
+    }
+
+    private static ServerHttpRequest request(String address) {
+        return new ServletServerHttpRequest((HttpServletRequest) Proxy.newProxyInstance(
+                AdmissionControlTest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getRemoteAddr":
+                        case "getRemoteHost":
+                            return address;
+                        case "getRemotePort":
+                            return 40000;
+                        default:
+                            return null;
+                    }
+                }));
+    }
+
+    private static ServerHttpResponse response() {
+        int[] status = {HttpStatus.OK.value()};
+        return new ServletServerHttpResponse((HttpServletResponse) Proxy.newProxyInstance(
+                AdmissionControlTest.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setStatus":
+                            status[0] = (Integer) args[0];
+                            return null;
+                        case "getStatus":
+                            return status[0];
+                        default:
+                            return null;
+                    }
+                }));
+    }
+}
@@ -0,0 +1,59 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HeartbeatSenderTest {
+    private AnnotationConfigApplicationContext context;
+    private HeartbeatSender heartbeat;
+
+    @Before
+    public void setUp() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("shooter.heartbeat.wheelSize", "1");
+        properties.put("shooter.heartbeat.maxMissedPongs", "3");
+        context = TestContext.create(properties);
+        heartbeat = context.getBean(HeartbeatSender.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void sessionMissingPongsIsClosed() {
+        TestSession session = new TestSession("a", "alice", "room");
+        heartbeat.onClientConnected(session);
+        for (int i = 0; i < 3; ++i)
+            heartbeat.tick();
+        assertNull(session.getCloseStatus());
+        heartbeat.tick();
+        assertEquals(CloseStatus.SESSION_NOT_RELIABLE, session.getCloseStatus());
+    }
+
+    @Test
+    public void pongResetsMissedCount() {
+        TestSession session = new TestSession("a", "alice", "room");
+        heartbeat.onClientConnected(session);
+        for (int round = 0; round < 5; ++round) {
+            for (int i = 0; i < 3; ++i)
+                heartbeat.tick();
+            ByteBuffer payload = ByteBuffer.allocate(Long.BYTES);
+            payload.putLong(0, System.nanoTime());
+            heartbeat.onPong(session, payload);
+        }
+        heartbeat.tick();
+        assertNull(session.getCloseStatus());
+    }
+}
@@ -0,0 +1,110 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.RejectMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RejectMessage;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSenderTest {
+    private static final long TIMEOUT_MILLIS = 200;
+
+    private AnnotationConfigApplicationContext context;
+    private MessageSender sender;
+
+    @Before
+    public void setUp() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("shooter.send.threads", "1");
+        properties.put("shooter.send.timeoutMillis", Long.toString(TIMEOUT_MILLIS));
+        context = TestContext.create(properties);
+        sender = context.getBean(MessageSender.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void stalledWriteIsAbortedAndItsSessionClosed() throws Exception {
+        StalledSession stalled = new StalledSession();
+        TestSession healthy = new TestSession("healthy", "healthy", "room");
+        sender.send(stalled, reject("first"));
+        assertTrue(stalled.writing.await(5, TimeUnit.SECONDS));
+        // the only writer is stuck until the deadline
+        sender.send(healthy, reject("second"));
+
+        assertNotNull(healthy.awaitText(RejectMessageHandler.REJECT_TYPE));
+        assertTrue(stalled.interrupted.await(5, TimeUnit.SECONDS));
+        // closed right after the interrupt
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stalled.getCloseStatus() == null && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(CloseStatus.SESSION_NOT_RELIABLE.getCode(), stalled.getCloseStatus().getCode());
+        assertEquals(1, context.getBean(MetricRegistry.class).counter("shooter_send_timeouts_total").get());
+        assertEquals(0, context.getBean(MetricRegistry.class).counter("shooter_send_errors_total").get());
+    }
+
+    @Test
+    public void slowWritesWithinDeadlineAreKept() throws Exception {
+        TestSession slow = new TestSession("slow", "slow", "room") {
+            @Override
+            public void sendMessage(WebSocketMessage<?> message) {
+                try {
+                    Thread.sleep(TIMEOUT_MILLIS / 4);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException("Interrupted within the deadline", e);
+                }
+                super.sendMessage(message);
+            }
+        };
+        for (int i = 0; i < 8; ++i)
+            sender.send(slow, reject(Integer.toString(i)));
+        String last = slow.lastText(RejectMessageHandler.REJECT_TYPE, TIMEOUT_MILLIS * 2);
+        assertTrue(last, last.contains("\"reason\":\"7\""));
+        assertNull(slow.getCloseStatus());
+    }
+
+    private static OutboundMessage reject(String reason) {
+        return new OutboundMessage(RejectMessageHandler.REJECT_TYPE, new RejectMessage("1", reason));
+    }
+
+    /**
+     * Session whose writes block until interrupted, as a container's do on a full TCP window
+     */
+    private static class StalledSession extends TestSession {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        StalledSession() {
+            super("stalled", "stalled", "room");
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            writing.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new IllegalStateException(new InterruptedIOException());
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+import ru.zyulyaev.webrtc.shooter.websocket.message.ClientData;
+import ru.zyulyaev.webrtc.shooter.websocket.message.HostData;
+import ru.zyulyaev.webrtc.shooter.websocket.message.HostsMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidateMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.IceCandidatesMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.PeersSnapshotMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RejectMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RelayMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.message.SessionDescriptionMessage;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class MessageUtilsTest {
+    private static final String TYPE = "type";
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void nullFieldsAreLeftOutAsGsonDoes() {
+        assertSameAsGson(new SessionDescriptionMessage(null, null));
+        assertSameAsGson(new IceCandidateMessage(null, null));
+        assertSameAsGson(new IceCandidatesMessage(null, null));
+        assertSameAsGson(new RejectMessage(null, null));
+        assertSameAsGson(new RelayMessage(null, 1, null));
+        assertSameAsGson(new PeersSnapshotMessage(1, null, 1, Collections.singletonList(new ClientData(null, null, 1))));
+    }
+
+    @Test
+    public void hostWithoutIdIsWrittenAsGsonDoes() {
+        HostsMessage hosts = new HostsMessage(Arrays.asList(new HostData(null, true, 1), new HostData("2", false, 2)));
+        assertEquals(TYPE + MessageUtils.SEPARATOR + gson.toJson(hosts.getHosts()),
+                MessageUtils.toTextMessage(TYPE, hosts).getPayload());
+    }
+
+    private void assertSameAsGson(Object message) {
+        assertEquals(TYPE + MessageUtils.SEPARATOR + gson.toJson(message), MessageUtils.toTextMessage(TYPE, message).getPayload());
+    }
+}
@@ -0,0 +1,61 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.TextMessage;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ObservingHandlerTest {
+    private AnnotationConfigApplicationContext context;
+    private ObservingHandler handler;
+    private MetricRegistry metrics;
+
+    @Before
+    public void setUp() {
+        context = TestContext.create();
+        handler = context.getBean(ObservingHandler.class);
+        metrics = context.getBean(MetricRegistry.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void emptyAndNullBodiesAreMalformed() throws Exception {
+        TestSession session = new TestSession("a", "alice", "room");
+        handler.afterConnectionEstablished(session);
+        long malformed = malformedCount();
+
+        for (String type : new String[]{"offer", "accept", "reject", "ice", "relay", "host"}) {
+            handler.handleMessage(session, new TextMessage(type + "\n\n"));
+            handler.handleMessage(session, new TextMessage(type + "\n\nnull"));
+        }
+
+        assertEquals(malformed + 12, malformedCount());
+        assertNull(session.getCloseStatus());
+    }
+
+    @Test
+    public void malformedJsonIsDropped() throws Exception {
+        TestSession session = new TestSession("a", "alice", "room");
+        handler.afterConnectionEstablished(session);
+        long malformed = malformedCount();
+
+        handler.handleMessage(session, new TextMessage("offer\n\n{\"id\":"));
+        handler.handleMessage(session, new TextMessage("offer\n\n{\"id\":[1]}"));
+
+        assertEquals(malformed + 2, malformedCount());
+        assertNull(session.getCloseStatus());
+    }
+
+    private long malformedCount() {
+        return metrics.counter("shooter_frames_dropped_total", "reason", "malformed").get();
+    }
+}
@@ -0,0 +1,30 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.junit.Test;
+import org.springframework.web.socket.WebSocketMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.RejectMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RejectMessage;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class OutboundMessageTest {
+    private static final String[] SAMPLES = {"", "ascii", "\u043d\u0438\u043a", "\u20ac", "\ud83d\ude00 pair", "\ud83d lone high", "lone low \ude00", "end \ud83d"};
+
+    @Test
+    public void utf8LengthMatchesEncoding() {
+        for (String sample : SAMPLES)
+            assertEquals(sample, sample.getBytes(StandardCharsets.UTF_8).length, OutboundMessage.utf8Length(sample));
+    }
+
+    @Test
+    public void payloadLengthOfTextFrameMatchesEncoding() {
+        for (String sample : SAMPLES) {
+            OutboundMessage message = new OutboundMessage(RejectMessageHandler.REJECT_TYPE, new RejectMessage("1", sample));
+            WebSocketMessage<?> frame = message.encodeFor(new TestSession("s", "s", "room"), null);
+            assertEquals(sample, frame.getPayloadLength(), message.getPayloadLength(frame));
+            assertEquals(sample, frame.getPayloadLength(), message.getPayloadLength(frame));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionDispatcherTest {
+    private AnnotationConfigApplicationContext context;
+    private SessionDispatcher dispatcher;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("shooter.dispatch.mode", "striped");
+        properties.put("shooter.dispatch.threads", "1");
+        properties.put("shooter.dispatch.queueCapacity", "1");
+        properties.put("shooter.dispatch.offerTimeoutMillis", "10");
+        properties.put("shooter.dispatch.connectTimeoutMillis", "100");
+        context = TestContext.create(properties);
+        dispatcher = context.getBean(SessionDispatcher.class);
+        // the worker is stuck on the first task and the second one fills the queue
+        CountDownLatch started = new CountDownLatch(1);
+        TestSession busy = new TestSession("busy", "busy", "room");
+        assertTrue(dispatcher.tryExecute(busy, () -> {
+            started.countDown();
+            release.await();
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(dispatcher.tryExecute(busy, () -> {
+        }));
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        context.close();
+    }
+
+    @Test
+    public void connectGivesUpWhenTheQueueStaysFull() throws Exception {
+        long start = System.nanoTime();
+        assertFalse(dispatcher.tryConnect(new TestSession("a", "alice", "room"), () -> {
+        }));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void closeEventIsQueuedWhenTheQueueIsFull() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        long start = System.nanoTime();
+        dispatcher.execute(new TestSession("a", "alice", "room"), closed::countDown);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+
+        release.countDown();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sessionTurnedAwayIsClosedAndNeverRegistered() throws Exception {
+        ObservingHandler handler = context.getBean(ObservingHandler.class);
+        SessionManagerHandler sessionManager = context.getBean(SessionManagerHandler.class);
+        TestSession session = new TestSession("a", "alice", "room");
+
+        handler.afterConnectionEstablished(session);
+        assertNotNull(session.getCloseStatus());
+        assertEquals(CloseStatus.SERVICE_OVERLOAD.getCode(), session.getCloseStatus().getCode());
+
+        handler.afterConnectionClosed(session, session.getCloseStatus());
+        release.countDown();
+        assertEquals(0, awaitDrained());
+        assertTrue(sessionManager.getSessions().isEmpty());
+    }
+
+    private long awaitDrained() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dispatcher.getQueuedCount() > 0 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        return dispatcher.getQueuedCount();
+    }
+}
@@ -0,0 +1,52 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Signaling components wired as in the application, without scheduling, so tests drive flushes and sweeps
+ * themselves. Frames are handled inline, on the calling thread.
+ */
+@Configuration
+@ComponentScan("ru.zyulyaev.webrtc.shooter.websocket")
+public class TestContext {
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+        return new PropertySourcesPlaceholderConfigurer();
+    }
+
+    @Bean
+    public MetricRegistry metricRegistry() {
+        return new MetricRegistry();
+    }
+
+    public static AnnotationConfigApplicationContext create() {
+        return create(new HashMap<>());
+    }
+
+    /**
+     * @param properties overrides of the defaults
+     * @param configurations more beans, like a cluster bus
+     */
+    public static AnnotationConfigApplicationContext create(Map<String, Object> properties, Class<?>... configurations) {
+        Map<String, Object> merged = new HashMap<>();
+        merged.put("shooter.dispatch.mode", "inline");
+        merged.put("shooter.heartbeat.tickMillis", "0");
+        merged.putAll(properties);
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", merged));
+        context.register(TestContext.class);
+        if (configurations.length > 0)
+            context.register(configurations);
+        context.refresh();
+        return context;
+    }
+}
@@ -0,0 +1,178 @@
+package ru.zyulyaev.webrtc.shooter.websocket;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session which keeps everything sent to it for the test to inspect
+ */
+public class TestSession implements WebSocketSession {
+    private static final long WAIT_MILLIS = 5000;
+
+    private final String id;
+    private final InetSocketAddress address;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private final BlockingQueue<WebSocketMessage<?>> sent = new LinkedBlockingQueue<>();
+    private volatile CloseStatus closeStatus;
+
+    public TestSession(String id, String nickname, String room) {
+        this(id, nickname, room, "127.0.0.1");
+    }
+
+    public TestSession(String id, String nickname, String room, String host) {
+        this.id = id;
+        this.address = new InetSocketAddress(host, 0);
+        attributes.put("nickname", nickname);
+        attributes.put("room", room);
+    }
+
+    /**
+     * Waits for the next text message of the type, skipping messages of other types
+     *
+     * @return its body, or {@code null} if none came
+     */
+    public String awaitText(String type) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS);
+        String prefix = type + "\n\n";
+        WebSocketMessage<?> message;
+        while ((message = sent.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null) {
+            if (message instanceof TextMessage && ((TextMessage) message).getPayload().startsWith(prefix))
+                return ((TextMessage) message).getPayload().substring(prefix.length());
+        }
+        return null;
+    }
+
+    /**
+     * Waits until nothing has been sent for {@code quietMillis}
+     *
+     * @return body of the last text message of the type, or {@code null} if none came
+     */
+    public String lastText(String type, long quietMillis) throws InterruptedException {
+        String prefix = type + "\n\n";
+        String last = null;
+        WebSocketMessage<?> message;
+        while ((message = sent.poll(quietMillis, TimeUnit.MILLISECONDS)) != null) {
+            if (message instanceof TextMessage && ((TextMessage) message).getPayload().startsWith(prefix))
+                last = ((TextMessage) message).getPayload().substring(prefix.length());
+        }
+        return last;
+    }
+
+    /**
+     * Waits for the next binary message, skipping text ones
+     *
+     * @return whether one came
+     */
+    public boolean awaitBinary() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS);
+        WebSocketMessage<?> message;
+        while ((message = sent.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null) {
+            if (message instanceof BinaryMessage)
+                return true;
+        }
+        return false;
+    }
+
+    public CloseStatus getCloseStatus() {
+        return closeStatus;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public URI getUri() {
+        return null;
+    }
+
+    @Override
+    public HttpHeaders getHandshakeHeaders() {
+        return new HttpHeaders();
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Principal getPrincipal() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return address;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return address;
+    }
+
+    @Override
+    public String getAcceptedProtocol() {
+        return null;
+    }
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getTextMessageSizeLimit() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getBinaryMessageSizeLimit() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public List<WebSocketExtension> getExtensions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+        sent.add(message);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return closeStatus == null;
+    }
+
+    @Override
+    public void close() {
+        close(CloseStatus.NORMAL);
+    }
+
+    @Override
+    public void close(CloseStatus status) {
+        closeStatus = status;
+    }
+}
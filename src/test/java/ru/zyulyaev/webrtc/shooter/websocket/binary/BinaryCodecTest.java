@@ -0,0 +1,91 @@
+package ru.zyulyaev.webrtc.shooter.websocket.binary;
+
+import com.google.gson.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+import ru.zyulyaev.webrtc.shooter.websocket.ObservingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.TestContext;
+import ru.zyulyaev.webrtc.shooter.websocket.TestSession;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.HostManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.OfferMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.SessionDescriptionMessage;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class BinaryCodecTest {
+    private AnnotationConfigApplicationContext context;
+    private BinaryCodec codec;
+    private TestSession peer;
+    private String peerId;
+
+    @Before
+    public void setUp() throws Exception {
+        context = TestContext.create();
+        codec = context.getBean(BinaryCodec.class);
+        peer = new TestSession("peer", "peer", "room");
+        context.getBean(ObservingHandler.class).afterConnectionEstablished(peer);
+        peerId = SessionManagerHandler.getId(peer);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void offerRoundTrips() {
+        BinaryCodec.Decoded decoded = codec.decode(codec.encode(OfferMessageHandler.OFFER_TYPE, offer()));
+        assertEquals(OfferMessageHandler.OFFER_TYPE, decoded.getType());
+        SessionDescriptionMessage message = (SessionDescriptionMessage) decoded.getMessage();
+        assertEquals(peerId, message.getId());
+        assertEquals(offer().getDescription(), message.getDescription());
+    }
+
+    @Test
+    public void offerToPeerAwayIsDecodedForItsMailbox() throws Exception {
+        // dropped without leaving, the peer may still resume
+        context.getBean(ObservingHandler.class).afterConnectionClosed(peer, CloseStatus.SESSION_NOT_RELIABLE);
+        SessionDescriptionMessage message = (SessionDescriptionMessage) codec.decode(
+                codec.encode(OfferMessageHandler.OFFER_TYPE, offer())).getMessage();
+        assertEquals(peerId, message.getId());
+    }
+
+    @Test(expected = MalformedFrameException.class)
+    public void zeroPeerIdIsRejected() {
+        codec.decode(ByteBuffer.wrap(new byte[]{BinaryCodec.REJECT, 0, 0}));
+    }
+
+    @Test(expected = MalformedFrameException.class)
+    public void trailingBytesAfterOfferAreRejected() {
+        codec.decode(withTrailingByte(codec.encode(OfferMessageHandler.OFFER_TYPE, offer())));
+    }
+
+    @Test(expected = MalformedFrameException.class)
+    public void trailingBytesAfterFieldlessMessageAreRejected() {
+        codec.decode(ByteBuffer.wrap(new byte[]{BinaryCodec.HOST, 0}));
+    }
+
+    @Test
+    public void fieldlessMessageIsDecoded() {
+        assertEquals(HostManagerHandler.HOST_TYPE, codec.decode(ByteBuffer.wrap(new byte[]{BinaryCodec.HOST})).getType());
+    }
+
+    private SessionDescriptionMessage offer() {
+        JsonObject description = new JsonObject();
+        description.addProperty("type", "offer");
+        description.addProperty("sdp", "v=0");
+        return new SessionDescriptionMessage(peerId, description);
+    }
+
+    private static ByteBuffer withTrailingByte(ByteBuffer frame) {
+        ByteBuffer result = ByteBuffer.allocate(frame.remaining() + 1);
+        result.put(frame.duplicate()).put((byte) 0).flip();
+        return result;
+    }
+}
@@ -0,0 +1,219 @@
+package ru.zyulyaev.webrtc.shooter.websocket.cluster;
+
+import com.google.gson.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.ObservingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.OutboundMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.TestContext;
+import ru.zyulyaev.webrtc.shooter.websocket.TestSession;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.ClientListSendingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.OfferMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.RejectMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.message.RejectMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterRouterTest {
+    private AnnotationConfigApplicationContext context;
+    private ObservingHandler handler;
+    private ClusterRouter router;
+    private ClientListSendingHandler clientList;
+    private RecordingBus bus;
+
+    @Before
+    public void setUp() {
+        context = TestContext.create(Collections.emptyMap(), BusConfig.class);
+        handler = context.getBean(ObservingHandler.class);
+        router = context.getBean(ClusterRouter.class);
+        clientList = context.getBean(ClientListSendingHandler.class);
+        bus = context.getBean(RecordingBus.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void localSessionsAreAnnounced() throws Exception {
+        TestSession session = new TestSession("a", "alice", "room");
+        handler.afterConnectionEstablished(session);
+        String id = SessionManagerHandler.getId(session);
+        handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+
+        assertEquals(2, bus.broadcasts.size());
+        ClusterEvent up = bus.broadcasts.get(0);
+        assertEquals(ClusterEvent.Kind.SESSION_UP, up.getKind());
+        assertEquals(id, up.getId());
+        assertEquals(SessionManagerHandler.toPeerId(id), up.getPeerId());
+        assertEquals("alice", up.getNickname());
+        assertEquals("room", up.getRoom());
+        assertEquals(ClusterEvent.Kind.SESSION_DOWN, bus.broadcasts.get(1).getKind());
+        assertEquals(id, bus.broadcasts.get(1).getId());
+    }
+
+    @Test
+    public void remotePeerJoinsRoomList() throws Exception {
+        TestSession session = new TestSession("a", "alice", "room");
+        handler.afterConnectionEstablished(session);
+        router.onEvent(ClusterEvent.sessionUp("node1", "16777217", 16777217, "bob", "room"));
+        clientList.flush();
+
+        String delta = session.awaitText(ClientListSendingHandler.PEERS_DELTA_TYPE);
+        assertNotNull(delta);
+        assertTrue(delta, delta.contains("\"id\":\"16777217\",\"nickname\":\"bob\""));
+        assertTrue(routesTo("16777217"));
+    }
+
+    @Test
+    public void offerToRemotePeerIsForwardedToItsNode() throws Exception {
+        TestSession session = new TestSession("a", "alice", "room");
+        handler.afterConnectionEstablished(session);
+        router.onEvent(ClusterEvent.sessionUp("node1", "16777217", 16777217, "bob", "room"));
+
+        handler.handleMessage(session, new TextMessage("offer\n\n{\"id\":\"16777217\",\"description\":{\"sdp\":\"v=0\"}}"));
+
+        List<ClusterEvent> sent = bus.sent.get("node1");
+        assertNotNull(sent);
+        assertEquals(1, sent.size());
+        ClusterEvent relay = sent.get(0);
+        assertEquals(ClusterEvent.Kind.RELAY, relay.getKind());
+        assertEquals("16777217", relay.getId());
+        assertEquals(OfferMessageHandler.OFFER_TYPE, relay.getType());
+        assertEquals(SessionManagerHandler.getId(session), relay.getData().getAsJsonObject().get("id").getAsString());
+    }
+
+    @Test
+    public void relayFromAnotherNodeIsDelivered() throws Exception {
+        TestSession session = new TestSession("a", "alice", "room");
+        handler.afterConnectionEstablished(session);
+        JsonObject offer = new JsonObject();
+        offer.addProperty("id", "16777217");
+        JsonObject description = new JsonObject();
+        description.addProperty("sdp", "v=0");
+        offer.add("description", description);
+
+        router.onEvent(ClusterEvent.relay("node1", SessionManagerHandler.getId(session), OfferMessageHandler.OFFER_TYPE, offer));
+
+        assertEquals("{\"id\":\"16777217\",\"description\":{\"sdp\":\"v\\u003d0\"}}", session.awaitText(OfferMessageHandler.OFFER_TYPE));
+    }
+
+    @Test
+    public void relayToPeerAwayWaitsForItToResume() throws Exception {
+        TestSession session = new TestSession("a", "alice", "room");
+        handler.afterConnectionEstablished(session);
+        handler.afterConnectionClosed(session, CloseStatus.SESSION_NOT_RELIABLE);
+        JsonObject reject = new JsonObject();
+        reject.addProperty("id", "16777217");
+        router.onEvent(ClusterEvent.relay("node1", SessionManagerHandler.getId(session), RejectMessageHandler.REJECT_TYPE, reject));
+
+        TestSession resumed = new TestSession("b", "alice", "room");
+        resumed.getAttributes().put(SessionManagerHandler.RESUME_ATTRIBUTE,
+                SessionManagerHandler.getInfo(session).getResumeToken());
+        handler.afterConnectionEstablished(resumed);
+        assertEquals("{\"id\":\"16777217\"}", resumed.awaitText(RejectMessageHandler.REJECT_TYPE));
+    }
+
+    @Test
+    public void peersOfANodeGoWithIt() {
+        router.onEvent(ClusterEvent.sessionUp("node1", "16777217", 16777217, "bob", "room"));
+        // only the owning node may take its peer down
+        router.onEvent(ClusterEvent.sessionDown("node2", "16777217"));
+        assertTrue(routesTo("16777217"));
+
+        router.onNodeDown("node1");
+        assertFalse(routesTo("16777217"));
+    }
+
+    @Test
+    public void nodeComingUpHearsOfEveryLocalSession() throws Exception {
+        TestSession first = new TestSession("a", "alice", "room");
+        TestSession second = new TestSession("b", "bob", "other");
+        handler.afterConnectionEstablished(first);
+        handler.afterConnectionEstablished(second);
+
+        router.onNodeUp("node2");
+
+        List<String> announced = new ArrayList<>();
+        for (ClusterEvent event : bus.sent.get("node2")) {
+            assertEquals(ClusterEvent.Kind.SESSION_UP, event.getKind());
+            announced.add(event.getId());
+        }
+        Collections.sort(announced);
+        List<String> expected = new ArrayList<>();
+        expected.add(SessionManagerHandler.getId(first));
+        expected.add(SessionManagerHandler.getId(second));
+        Collections.sort(expected);
+        assertEquals(expected, announced);
+    }
+
+    /**
+     * @return whether signaling to the peer is forwarded to another node
+     */
+    private boolean routesTo(String id) {
+        return router.route(id, new OutboundMessage(RejectMessageHandler.REJECT_TYPE, new RejectMessage("1", null)));
+    }
+
+    @Configuration
+    static class BusConfig {
+        @Bean
+        public RecordingBus clusterBus() {
+            return new RecordingBus();
+        }
+    }
+
+    /**
+     * Bus of the first node in a cluster, which only records what it is asked to send
+     */
+    static class RecordingBus implements ClusterBus {
+        final List<ClusterEvent> broadcasts = new CopyOnWriteArrayList<>();
+        final Map<String, List<ClusterEvent>> sent = new ConcurrentHashMap<>();
+
+        @Override
+        public String getNodeId() {
+            return "node0";
+        }
+
+        @Override
+        public int getNodeIndex() {
+            return 0;
+        }
+
+        @Override
+        public void start(ClusterListener listener) {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void broadcast(ClusterEvent event) {
+            broadcasts.add(event);
+        }
+
+        @Override
+        public boolean send(String nodeId, ClusterEvent event) {
+            sent.computeIfAbsent(nodeId, node -> new CopyOnWriteArrayList<>()).add(event);
+            return true;
+        }
+    }
+}
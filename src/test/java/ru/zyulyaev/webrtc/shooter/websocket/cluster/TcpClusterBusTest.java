@@ -0,0 +1,140 @@
+package ru.zyulyaev.webrtc.shooter.websocket.cluster;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TcpClusterBusTest {
+    private static final long WAIT_SECONDS = 10;
+
+    private final List<TcpClusterBus> buses = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        buses.forEach(TcpClusterBus::stop);
+    }
+
+    @Test
+    public void nodesWithTheSecretLinkUpAndExchangeEvents() throws Exception {
+        List<String> nodes = freeNodes();
+        Listener first = new Listener();
+        Listener second = new Listener();
+        start(nodes.get(0), nodes, "secret", first);
+        TcpClusterBus bus = start(nodes.get(1), nodes, "secret", second);
+
+        assertEquals(nodes.get(1), first.up.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(nodes.get(0), second.up.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+        bus.broadcast(ClusterEvent.sessionUp(nodes.get(1), "16777217", 16777217, "bob", "room"));
+        assertTrue(bus.send(nodes.get(0), ClusterEvent.hostUp(nodes.get(1), "16777217")));
+
+        ClusterEvent up = first.events.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(up);
+        assertEquals(ClusterEvent.Kind.SESSION_UP, up.getKind());
+        assertEquals(16777217, up.getPeerId());
+        assertEquals("bob", up.getNickname());
+        ClusterEvent host = first.events.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(host);
+        assertEquals(ClusterEvent.Kind.HOST_UP, host.getKind());
+    }
+
+    @Test
+    public void nodeWithoutTheSecretIsRejected() throws Exception {
+        List<String> nodes = freeNodes();
+        Listener first = new Listener();
+        Listener second = new Listener();
+        start(nodes.get(0), nodes, "secret", first);
+        start(nodes.get(1), nodes, "guess", second);
+
+        assertEquals(null, first.up.poll(3, TimeUnit.SECONDS));
+        assertEquals(null, second.up.poll(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void membershipEventsAreNotDroppedWhenTheLinkIsCongested() throws Exception {
+        List<String> nodes = freeNodes();
+        Listener first = new Listener();
+        Listener second = new Listener();
+        start(nodes.get(0), nodes, "secret", first);
+        TcpClusterBus bus = start(nodes.get(1), nodes, "secret", second);
+        assertNotNull(first.up.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertNotNull(second.up.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        // the receiver stops reading, so events pile up in the sender's queue
+        CountDownLatch resume = new CountDownLatch(1);
+        first.blocker = resume;
+        int count = 50000;
+        for (int i = 0; i < count; ++i) {
+            ClusterEvent event = i % 2 == 0
+                    ? ClusterEvent.sessionUp(nodes.get(1), Integer.toString(i), i, "player" + i, "room")
+                    : ClusterEvent.sessionDown(nodes.get(1), Integer.toString(i - 1));
+            assertTrue(bus.send(nodes.get(0), event));
+        }
+        resume.countDown();
+
+        for (int i = 0; i < count; ++i) {
+            ClusterEvent event = first.events.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("event " + i + " is missing", event);
+            assertEquals(Integer.toString(i - i % 2), event.getId());
+        }
+        assertFalse(first.down.contains(nodes.get(1)));
+    }
+
+    private TcpClusterBus start(String self, List<String> nodes, String secret, Listener listener) throws IOException {
+        TcpClusterBus bus = new TcpClusterBus(self, nodes, secret);
+        buses.add(bus);
+        bus.start(listener);
+        return bus;
+    }
+
+    private static List<String> freeNodes() throws IOException {
+        try (ServerSocket first = new ServerSocket(0); ServerSocket second = new ServerSocket(0)) {
+            List<String> nodes = Arrays.asList("127.0.0.1:" + first.getLocalPort(), "127.0.0.1:" + second.getLocalPort());
+            nodes.sort(null);
+            return nodes;
+        }
+    }
+
+    private static class Listener implements ClusterListener {
+        final BlockingQueue<String> up = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> down = new LinkedBlockingQueue<>();
+        final BlockingQueue<ClusterEvent> events = new LinkedBlockingQueue<>();
+        volatile CountDownLatch blocker;
+
+        @Override
+        public void onNodeUp(String nodeId) {
+            up.add(nodeId);
+        }
+
+        @Override
+        public void onNodeDown(String nodeId) {
+            down.add(nodeId);
+        }
+
+        @Override
+        public void onEvent(ClusterEvent event) {
+            CountDownLatch latch = blocker;
+            if (latch != null) {
+                try {
+                    latch.await(WAIT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            events.add(event);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ru.zyulyaev.webrtc.shooter.websocket.dedicated;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.websocket.ObservingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.TestContext;
+import ru.zyulyaev.webrtc.shooter.websocket.TestSession;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.RelayMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DedicatedHostTest {
+    private static final String ROOM = "arena";
+
+    private AnnotationConfigApplicationContext context;
+    private ObservingHandler handler;
+    private DedicatedHost host;
+
+    @Before
+    public void setUp() {
+        context = TestContext.create(Collections.singletonMap("shooter.dedicated.rooms", ROOM));
+        handler = context.getBean(ObservingHandler.class);
+        for (WebSocketSession session : context.getBean(SessionManagerHandler.class).getRoomSessions(ROOM)) {
+            if (session instanceof DedicatedHost)
+                host = (DedicatedHost) session;
+        }
+        assertNotNull(host);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void malformedOffersAreDroppedAndLaterOnesAccepted() throws Exception {
+        TestSession client = new TestSession("client", "player", ROOM);
+        handler.afterConnectionEstablished(client);
+
+        host.sendMessage(new TextMessage("offer\n\n{\"id\":"));
+        host.sendMessage(new TextMessage("offer\n\nnull"));
+        host.sendMessage(new TextMessage("offer\n\n"));
+        host.sendMessage(new TextMessage("offer\n\n{\"id\":{}}"));
+        host.sendMessage(new TextMessage("offer\n\n{\"description\":[]}"));
+        assertTrue(host.isOpen());
+
+        handler.handleMessage(client, new TextMessage("offer\n\n{\"id\":\"" + SessionManagerHandler.getId(host)
+                + "\",\"description\":{\"type\":\"offer\",\"sdp\":\"v=0\"}}"));
+        String relay = client.awaitText(RelayMessageHandler.RELAY_TYPE);
+        assertNotNull(relay);
+        assertTrue(relay, relay.contains("\"id\":\"" + SessionManagerHandler.getId(host) + "\""));
+    }
+}
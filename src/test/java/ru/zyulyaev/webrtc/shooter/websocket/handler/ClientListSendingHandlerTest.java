@@ -0,0 +1,67 @@
+package ru.zyulyaev.webrtc.shooter.websocket.handler;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+import ru.zyulyaev.webrtc.shooter.websocket.ObservingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.TestContext;
+import ru.zyulyaev.webrtc.shooter.websocket.TestSession;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClientListSendingHandlerTest {
+    private AnnotationConfigApplicationContext context;
+    private ObservingHandler handler;
+    private ClientListSendingHandler clientList;
+
+    @Before
+    public void setUp() {
+        context = TestContext.create();
+        handler = context.getBean(ObservingHandler.class);
+        clientList = context.getBean(ClientListSendingHandler.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void versionsKeepGrowingWhenRoomIsCreatedAgain() throws Exception {
+        TestSession first = new TestSession("first", "first", "room");
+        TestSession watcher = new TestSession("watcher", "watcher", "room");
+        handler.afterConnectionEstablished(first);
+        handler.afterConnectionEstablished(watcher);
+        clientList.flush();
+        long seen = version(watcher.awaitText(ClientListSendingHandler.PEERS_TYPE), "version");
+
+        handler.afterConnectionClosed(first, CloseStatus.NORMAL);
+        handler.afterConnectionClosed(watcher, CloseStatus.NORMAL);
+        clientList.flush();
+        // the room is empty now and is dropped
+        clientList.flush();
+
+        TestSession second = new TestSession("second", "second", "room");
+        handler.afterConnectionEstablished(second);
+        long snapshot = version(second.awaitText(ClientListSendingHandler.PEERS_TYPE), "version");
+        assertTrue(snapshot + " after " + seen, snapshot > seen);
+
+        TestSession third = new TestSession("third", "third", "room");
+        handler.afterConnectionEstablished(third);
+        clientList.flush();
+        String delta = second.awaitText(ClientListSendingHandler.PEERS_DELTA_TYPE);
+        assertNotNull(delta);
+        assertTrue(delta, version(delta, "to") > snapshot);
+    }
+
+    private static long version(String body, String field) {
+        assertNotNull(body);
+        JsonObject object = new JsonParser().parse(body).getAsJsonObject();
+        return object.get(field).getAsLong();
+    }
+}
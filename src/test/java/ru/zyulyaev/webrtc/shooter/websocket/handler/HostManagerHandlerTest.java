@@ -0,0 +1,91 @@
+package ru.zyulyaev.webrtc.shooter.websocket.handler;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+import ru.zyulyaev.webrtc.shooter.websocket.ObservingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.TestContext;
+import ru.zyulyaev.webrtc.shooter.websocket.TestSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class HostManagerHandlerTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 500;
+    private static final int HOSTS_PER_THREAD = 4;
+
+    private AnnotationConfigApplicationContext context;
+    private ObservingHandler handler;
+    private HostManagerHandler hostManager;
+
+    @Before
+    public void setUp() {
+        context = TestContext.create();
+        handler = context.getBean(ObservingHandler.class);
+        hostManager = context.getBean(HostManagerHandler.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void lastListReceivedIsCurrentAfterConcurrentChanges() throws Exception {
+        TestSession watcher = new TestSession("w", "watcher", "room");
+        handler.afterConnectionEstablished(watcher);
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Set<String>>> changers = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            int thread = t;
+            changers.add(pool.submit(() -> {
+                start.await();
+                Set<String> hosts = new TreeSet<>();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < ROUNDS; ++i) {
+                    int host = random.nextInt(HOSTS_PER_THREAD);
+                    String id = Integer.toString(1000 + thread * HOSTS_PER_THREAD + host);
+                    if (hosts.remove(id)) {
+                        hostManager.removeRemoteHost("room", id);
+                    } else {
+                        hostManager.addRemoteHost("room", id, Integer.parseInt(id));
+                        hosts.add(id);
+                    }
+                }
+                return hosts;
+            }));
+        }
+        start.countDown();
+        Set<String> expected = new TreeSet<>();
+        for (Future<Set<String>> changer : changers)
+            expected.addAll(changer.get(60, TimeUnit.SECONDS));
+        pool.shutdown();
+
+        String last = watcher.lastText(HostManagerHandler.HOSTS_TYPE, 500);
+        assertNotNull(last);
+        Set<String> received = new TreeSet<>();
+        for (JsonElement host : new JsonParser().parse(last).getAsJsonArray())
+            received.add(host.getAsJsonObject().get("id").getAsString());
+        assertEquals(expected, received);
+
+        handler.afterConnectionClosed(watcher, CloseStatus.NORMAL);
+    }
+}
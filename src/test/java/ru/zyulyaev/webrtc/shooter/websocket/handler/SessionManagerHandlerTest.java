@@ -0,0 +1,167 @@
+package ru.zyulyaev.webrtc.shooter.websocket.handler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import ru.zyulyaev.webrtc.shooter.websocket.ObservingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.TestContext;
+import ru.zyulyaev.webrtc.shooter.websocket.TestSession;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionManagerHandlerTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 2000;
+    private static final int ROOMS = 4;
+
+    private AnnotationConfigApplicationContext context;
+    private ObservingHandler handler;
+    private SessionManagerHandler sessionManager;
+
+    @Before
+    public void setUp() {
+        context = TestContext.create();
+        handler = context.getBean(ObservingHandler.class);
+        sessionManager = context.getBean(SessionManagerHandler.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void registryStaysConsistentUnderConcurrentChurn() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean churning = new AtomicBoolean(true);
+        List<Future<?>> churners = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            int thread = t;
+            churners.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < ROUNDS; ++i) {
+                    String room = "room" + i % ROOMS;
+                    TestSession session = new TestSession(thread + "-" + i, "player", room);
+                    handler.afterConnectionEstablished(session);
+                    String id = SessionManagerHandler.getId(session);
+                    assertSame(session, sessionManager.getSessionById(id));
+                    assertTrue(sessionManager.hasPeer(id));
+                    assertTrue(sessionManager.getRoomSessions(room).contains(session));
+                    handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+                    assertNull(sessionManager.getSessionById(id));
+                    assertFalse(sessionManager.hasPeer(id));
+                    assertFalse(sessionManager.getRoomSessions(room).contains(session));
+                }
+                return null;
+            }));
+        }
+        Future<Integer> reader = pool.submit(() -> {
+            start.await();
+            int lookups = 0;
+            while (churning.get()) {
+                for (WebSocketSession session : sessionManager.getSessions()) {
+                    SessionInfo info = SessionManagerHandler.getInfo(session);
+                    assertNotNull(info);
+                    WebSocketSession found = sessionManager.getSessionById(info.getId());
+                    // gone already, or still the same session
+                    assertTrue(found == null || found == session);
+                    ++lookups;
+                }
+                for (int room = 0; room < ROOMS; ++room) {
+                    for (WebSocketSession session : sessionManager.getRoomSessions("room" + room))
+                        assertEquals("room" + room, SessionManagerHandler.getInfo(session).getRoom());
+                }
+            }
+            return lookups;
+        });
+        start.countDown();
+        for (Future<?> churner : churners)
+            churner.get(60, TimeUnit.SECONDS);
+        churning.set(false);
+        reader.get(10, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        assertTrue(sessionManager.getSessions().isEmpty());
+        for (int room = 0; room < ROOMS; ++room)
+            assertTrue(sessionManager.getRoomSessions("room" + room).isEmpty());
+    }
+
+    @Test
+    public void peerIdsAreUniqueUnderConcurrentConnects() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<TestSession>>> connectors = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            int thread = t;
+            connectors.add(pool.submit(() -> {
+                List<TestSession> sessions = new ArrayList<>();
+                for (int i = 0; i < ROUNDS; ++i) {
+                    // a room each, so peer lists don't grow with the test
+                    TestSession session = new TestSession(thread + "-" + i, "player", "room" + thread + "-" + i);
+                    handler.afterConnectionEstablished(session);
+                    sessions.add(session);
+                }
+                return sessions;
+            }));
+        }
+        List<TestSession> all = new ArrayList<>();
+        for (Future<List<TestSession>> connector : connectors)
+            all.addAll(connector.get(60, TimeUnit.SECONDS));
+        pool.shutdown();
+
+        assertEquals(THREADS * ROUNDS, sessionManager.getSessions().size());
+        for (TestSession session : all)
+            assertSame(session, sessionManager.getSessionById(SessionManagerHandler.getId(session)));
+    }
+
+    @Test
+    public void peerIdsWrapWithinTheNodeRange() throws Exception {
+        AnnotationConfigApplicationContext small = TestContext.create(Collections.singletonMap("shooter.peerIdBits", "3"));
+        try {
+            ObservingHandler handler = small.getBean(ObservingHandler.class);
+            List<TestSession> sessions = new ArrayList<>();
+            Set<Integer> peerIds = new HashSet<>();
+            for (int i = 0; i < 7; ++i) {
+                TestSession session = new TestSession("s" + i, "player", "room" + i);
+                handler.afterConnectionEstablished(session);
+                sessions.add(session);
+                peerIds.add(SessionManagerHandler.getPeerId(session));
+            }
+            assertEquals(7, peerIds.size());
+            for (int peerId : peerIds)
+                assertTrue(peerId > 0 && peerId < 8);
+
+            // range is full until a peer leaves, its id is then the only one free
+            TestSession gone = sessions.get(3);
+            handler.afterConnectionClosed(gone, CloseStatus.NORMAL);
+            for (int i = 0; i < 3; ++i) {
+                TestSession session = new TestSession("again" + i, "player", "again" + i);
+                handler.afterConnectionEstablished(session);
+                assertEquals(SessionManagerHandler.getPeerId(gone), SessionManagerHandler.getPeerId(session));
+                handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+            }
+        } finally {
+            small.close();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package ru.zyulyaev.webrtc.shooter.websocket.message;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+import ru.zyulyaev.webrtc.shooter.websocket.MessageUtils;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.HostManagerHandler;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class HostsMessageTest {
+    private final Gson gson = new Gson();
+
+    @Test
+    public void hostsAreWrittenAsBareArray() {
+        List<HostData> hosts = Arrays.asList(new HostData("1", false, 1), new HostData("<2>", true, 2));
+        assertEquals("hosts\n\n" + gson.toJson(hosts),
+                MessageUtils.toTextMessage(HostManagerHandler.HOSTS_TYPE, new HostsMessage(hosts)).getPayload());
+    }
+
+    @Test
+    public void emptyListIsWrittenAsEmptyArray() {
+        assertEquals("hosts\n\n[]", MessageUtils.toTextMessage(HostManagerHandler.HOSTS_TYPE, HostsMessage.EMPTY).getPayload());
+    }
+}
@@ -0,0 +1,89 @@
+package ru.zyulyaev.webrtc.shooter.websocket.message;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import ru.zyulyaev.webrtc.shooter.websocket.MessageUtils;
+import ru.zyulyaev.webrtc.shooter.websocket.ObservingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.TestContext;
+import ru.zyulyaev.webrtc.shooter.websocket.TestSession;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.IceMessageHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class IceCandidateMessageTest {
+    private static final String CANDIDATE = "{\"candidate\":\"candidate:1 1 udp 2122260223 10.0.0.1 50000 typ host\","
+            + "\"sdpMid\":\"data\",\"sdpMLineIndex\":0}";
+
+    private final Gson gson = new Gson();
+    private AnnotationConfigApplicationContext context;
+
+    @Before
+    public void setUp() {
+        context = TestContext.create();
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void objectCandidateRoundTrips() {
+        IceCandidateMessage parsed = gson.fromJson("{\"id\":\"7\",\"candidate\":" + CANDIDATE + "}", IceCandidateMessage.class);
+        assertEquals(new JsonParser().parse(CANDIDATE), parsed.getCandidate());
+
+        IceCandidateMessage echoed = gson.fromJson(body(MessageUtils.toTextMessage(IceMessageHandler.ICE_TYPE, parsed)),
+                IceCandidateMessage.class);
+        assertEquals("7", echoed.getId());
+        assertEquals(parsed.getCandidate(), echoed.getCandidate());
+    }
+
+    @Test
+    public void nullCandidateRoundTrips() {
+        IceCandidateMessage parsed = gson.fromJson("{\"id\":\"7\",\"candidate\":null}", IceCandidateMessage.class);
+        assertEquals("7", parsed.getId());
+        assertNull(parsed.getCandidate());
+
+        IceCandidateMessage echoed = gson.fromJson(body(MessageUtils.toTextMessage(IceMessageHandler.ICE_TYPE, parsed)),
+                IceCandidateMessage.class);
+        assertEquals("7", echoed.getId());
+        assertNull(echoed.getCandidate());
+    }
+
+    @Test
+    public void candidateThenEndOfCandidatesReachesPeer() throws Exception {
+        ObservingHandler handler = context.getBean(ObservingHandler.class);
+        TestSession from = new TestSession("a", "alice", "room");
+        TestSession to = new TestSession("b", "bob", "room");
+        handler.afterConnectionEstablished(from);
+        handler.afterConnectionEstablished(to);
+        String toId = SessionManagerHandler.getId(to);
+
+        handler.handleMessage(from, new TextMessage("ice\n\n{\"id\":\"" + toId + "\",\"candidate\":" + CANDIDATE + "}"));
+        handler.handleMessage(from, new TextMessage("ice\n\n{\"id\":\"" + toId + "\",\"candidate\":null}"));
+
+        String delivered = to.awaitText(IceMessageHandler.ICE_TYPE);
+        assertNotNull(delivered);
+        IceCandidateMessage message = gson.fromJson(delivered, IceCandidateMessage.class);
+        assertEquals(SessionManagerHandler.getId(from), message.getId());
+        assertEquals(new JsonParser().parse(CANDIDATE), message.getCandidate());
+        assertNull(from.getCloseStatus());
+
+        handler.afterConnectionClosed(from, CloseStatus.NORMAL);
+        handler.afterConnectionClosed(to, CloseStatus.NORMAL);
+    }
+
+    private static String body(TextMessage message) {
+        String payload = message.getPayload();
+        return payload.substring(payload.indexOf("\n\n") + 2);
+    }
+}
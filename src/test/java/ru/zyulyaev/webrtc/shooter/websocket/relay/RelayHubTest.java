@@ -0,0 +1,157 @@
+package ru.zyulyaev.webrtc.shooter.websocket.relay;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import ru.zyulyaev.webrtc.shooter.metrics.MetricRegistry;
+import ru.zyulyaev.webrtc.shooter.websocket.ObservingHandler;
+import ru.zyulyaev.webrtc.shooter.websocket.TestContext;
+import ru.zyulyaev.webrtc.shooter.websocket.TestSession;
+import ru.zyulyaev.webrtc.shooter.websocket.handler.SessionManagerHandler;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RelayHubTest {
+    private static final long TIMEOUT_MILLIS = 200;
+
+    private AnnotationConfigApplicationContext context;
+    private ObservingHandler handler;
+    private RelayHub hub;
+
+    @Before
+    public void setUp() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("shooter.relay.threads", "1");
+        properties.put("shooter.relay.timeoutMillis", Long.toString(TIMEOUT_MILLIS));
+        context = TestContext.create(properties);
+        handler = context.getBean(ObservingHandler.class);
+        hub = context.getBean(RelayHub.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void endpointsOutliveDroppedSignalingUntilThePeerLeaves() throws Exception {
+        TestSession peer = new TestSession("peer", "peer", "room");
+        TestSession host = new TestSession("host", "host", "room");
+        handler.afterConnectionEstablished(peer);
+        handler.afterConnectionEstablished(host);
+        RelayEndpoint[] endpoints = hub.link(peer, host);
+        assertNotNull(endpoints);
+        TestSession peerRelay = new TestSession("peerRelay", "peer", "room");
+        TestSession hostRelay = new TestSession("hostRelay", "host", "room");
+        assertSame(endpoints[0], hub.attach(endpoints[0].getToken(), peerRelay));
+        assertSame(endpoints[1], hub.attach(endpoints[1].getToken(), hostRelay));
+
+        // signaling drops without the peer leaving, game traffic keeps flowing
+        handler.afterConnectionClosed(peer, CloseStatus.SESSION_NOT_RELIABLE);
+        assertNull(peerRelay.getCloseStatus());
+        hub.forward(endpoints[1], frame(endpoints[0].getPeerId()));
+        assertTrue(peerRelay.awaitBinary());
+
+        TestSession resumed = new TestSession("resumed", "peer", "room");
+        resumed.getAttributes().put(SessionManagerHandler.RESUME_ATTRIBUTE,
+                SessionManagerHandler.getInfo(peer).getResumeToken());
+        handler.afterConnectionEstablished(resumed);
+        assertTrue(SessionManagerHandler.isResumed(resumed));
+        RelayEndpoint[] again = hub.link(resumed, host);
+        assertSame(endpoints[0], again[0]);
+        assertEquals(endpoints[0].getToken(), again[0].getToken());
+
+        handler.afterConnectionClosed(resumed, CloseStatus.NORMAL);
+        assertEquals(CloseStatus.NORMAL, peerRelay.getCloseStatus());
+        assertNull(hostRelay.getCloseStatus());
+        assertFalse(endpoints[1].links.containsKey(endpoints[0].getPeerId()));
+        assertNull(hub.attach(endpoints[0].getToken(), new TestSession("late", "peer", "room")));
+    }
+
+    @Test
+    public void peersWhoLeftCantBeLinked() throws Exception {
+        TestSession peer = new TestSession("peer", "peer", "room");
+        TestSession host = new TestSession("host", "host", "room");
+        handler.afterConnectionEstablished(peer);
+        handler.afterConnectionEstablished(host);
+        handler.afterConnectionClosed(peer, CloseStatus.NORMAL);
+        assertNull(hub.link(peer, host));
+    }
+
+    @Test
+    public void stalledWriteClosesItsConnectionOnly() throws Exception {
+        TestSession peer = new TestSession("peer", "peer", "room");
+        TestSession host = new TestSession("host", "host", "room");
+        TestSession other = new TestSession("other", "other", "room");
+        handler.afterConnectionEstablished(peer);
+        handler.afterConnectionEstablished(host);
+        handler.afterConnectionEstablished(other);
+        RelayEndpoint[] endpoints = hub.link(peer, host);
+        RelayEndpoint[] others = hub.link(other, host);
+        StalledSession peerRelay = new StalledSession();
+        TestSession otherRelay = new TestSession("otherRelay", "other", "room");
+        hub.attach(endpoints[0].getToken(), peerRelay);
+        hub.attach(others[0].getToken(), otherRelay);
+
+        hub.forward(endpoints[1], frame(endpoints[0].getPeerId()));
+        assertTrue(peerRelay.writing.await(5, TimeUnit.SECONDS));
+        // the only writer is stuck until the deadline
+        hub.forward(others[1], frame(others[0].getPeerId()));
+
+        assertTrue(otherRelay.awaitBinary());
+        assertTrue(peerRelay.interrupted.await(5, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (peerRelay.getCloseStatus() == null && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(CloseStatus.SESSION_NOT_RELIABLE.getCode(), peerRelay.getCloseStatus().getCode());
+        assertNull(otherRelay.getCloseStatus());
+        assertEquals(1, context.getBean(MetricRegistry.class).counter("shooter_relay_timeouts_total").get());
+        // the endpoint stays for the peer to reconnect
+        assertSame(endpoints[0], hub.attach(endpoints[0].getToken(), new TestSession("again", "peer", "room")));
+    }
+
+    private static ByteBuffer frame(int to) {
+        ByteBuffer frame = ByteBuffer.allocate(RelayHub.HEADER_BYTES + 1);
+        frame.putInt(to).put((byte) 1).flip();
+        return frame;
+    }
+
+    /**
+     * Connection whose writes block until interrupted, as a container's do on a full TCP window
+     */
+    private static class StalledSession extends TestSession {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        StalledSession() {
+            super("stalled", "peer", "room");
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            writing.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new IllegalStateException(new InterruptedIOException());
+            }
+        }
+    }
+}